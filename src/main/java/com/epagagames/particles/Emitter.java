@@ -33,6 +33,8 @@ package com.epagagames.particles;
 
 import com.epagagames.particles.emittershapes.EmitterSphere;
 import com.epagagames.particles.influencers.ParticleInfluencer;
+import com.epagagames.particles.influencers.SizeInfluencer;
+import com.epagagames.particles.particle.NeighborGrid;
 import com.epagagames.particles.particle.ParticleData;
 import com.epagagames.particles.particle.ParticleDataPointMesh;
 import com.epagagames.particles.particle.ParticleDataTriMesh;
@@ -46,6 +48,8 @@ import com.jme3.material.RenderState;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.FastMath;
 import com.jme3.math.Matrix3f;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Transform;
 import com.jme3.math.Vector3f;
 import com.epagagames.particles.emittershapes.EmitterMesh;
 import com.epagagames.particles.particle.ParticleDataMesh;
@@ -62,9 +66,13 @@ import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -98,6 +106,15 @@ public class Emitter extends Node {
 
   // ParticleData info
   private ParticleData[] particles;
+  // percent life and random value of every particle gathered for the batch influencer updates
+  private float[] batchPercentLife = new float[0];
+  private float[] batchRandom = new float[0];
+  // scratch arrays of emitBurst, allocated on the first burst
+  private Burst burst;
+  // spatial hash for influencers that need neighbors, built at most once per simulation step
+  private NeighborGrid neighborGrid;
+  private int neighborGridStep = -1;
+  private int simulationStep = 0;
   private int maxParticles;
   private int activeParticleCount = 0;
   private Map<String, ParticleInfluencer> influencerMap = new HashMap<>();
@@ -134,6 +151,31 @@ public class Emitter extends Node {
   // used to keep track of the current systems life
   private float currentDuration = 0.0f;
 
+  // the camera of the last viewport this emitter was rendered in, used for distance based detail
+  private Camera lastCamera;
+
+  // particle extents gathered while simulating, used as the bound of the particle mesh
+  private final Vector3f boundMin = new Vector3f();
+  private final Vector3f boundMax = new Vector3f();
+  private float boundMaxSize = 0.0f;
+
+  // use a conservative envelope around the emitter instead of tracking the particle positions
+  private boolean useAnalyticBound = false;
+  // true while the analytic bound is used this frame, expressions have no known bound so they use the measured one
+  private boolean analyticBound = false;
+  private float analyticBoundPadding = 0.0f;
+
+  // simulate and fill the next frame on a worker thread while the current frame renders from the front meshes
+  private boolean pipelined = false;
+  private ForkJoinTask<?> pipelineTask;
+  private float pipelineTpf = 0.0f;
+  private final Camera pipelineCamera = new Camera();
+  // the worker reads the emitter transform as it was when the frame started, the main thread updates the live
+  // one while the worker runs
+  private final Transform pipelineTransform = new Transform();
+  private volatile Thread pipelineThread;
+  private Map<ParticleDataMesh, ParticleDataMesh> backMeshes = new IdentityHashMap<>();
+
   // Used to control the emitter node
 
 
@@ -206,7 +248,14 @@ public class Emitter extends Node {
   }
 
   private void initParticles() {
+    finishPipelinedFrame();
+    backMeshes.clear();
+
     particles = new ParticleData[maxParticles];
+    batchPercentLife = new float[maxParticles];
+    batchRandom = new float[maxParticles];
+    burst = null;
+    neighborGrid = null;
 
     for (int i = 0; i < maxParticles; i++) {
       particles[i] = new ParticleData();
@@ -572,6 +621,29 @@ public class Emitter extends Node {
     if (particleGeo != null) particleGeo.setMaterial(mat);
   }
 
+  /**
+   * Gets a spatial hash of the particles for influencers that interact with nearby particles. The grid is
+   * built from the particle positions at most once per simulation step and shared by every influencer asking
+   * for it, its cells grow to the largest size asked for.
+   *
+   * @param cellSize - the cell size the caller needs, usually its interaction radius
+   * @return the grid
+   */
+  public NeighborGrid getNeighborGrid(float cellSize) {
+    if (neighborGrid == null) {
+      neighborGrid = new NeighborGrid(cellSize);
+      neighborGridStep = -1;
+    } else if (neighborGrid.getCellSize() < cellSize) {
+      neighborGrid.setCellSize(cellSize);
+      neighborGridStep = -1;
+    }
+    if (neighborGridStep != simulationStep) {
+      neighborGrid.build(particles);
+      neighborGridStep = simulationStep;
+    }
+    return neighborGrid;
+  }
+
   public ParticleDataMesh getMesh() {
     return mesh;
   }
@@ -658,43 +730,143 @@ public class Emitter extends Node {
   }
 
   public void updateEmitter(float tpf) {
+    if (pipelined) {
+      updatePipelined(tpf);
+      return;
+    }
+
     //long t = System.currentTimeMillis();
     if (enabled) {
-      currentDuration += tpf;
+      emitterShape.update(tpf);
+      stepParticles(tpf);
+      updateInfluencersGlobal(tpf);
+      finishParticleBound(mesh);
+      updateModelBound();
+    }
+    //System.out.println("Output: " + (System.currentTimeMillis() - t));
+  }
 
-      if (currentDuration > duration && looping) {
-        currentDuration -= duration;
+  private void updatePipelined(float tpf) {
+    finishPipelinedFrame();
+
+    if (enabled) {
+      // the worker emits from the shape, so the shape only updates while no frame is in flight
+      emitterShape.update(tpf);
+
+      // the last frame was not rendered so nothing was handed to the worker, catch up here
+      if (pipelineTpf > 0) {
+        stepParticles(pipelineTpf);
+        // a culled emitter starts no frames, keep the bound moving so it can come back into view
+        finishParticleBound(mesh);
       }
+      pipelineTpf = tpf;
 
-      //if (delay <= 0.0f ) {
-        for (ParticleData p : particles) {
-          if (p.active) {
-            p.update(tpf);
-          }
-        }
+      // influencers may touch the scene graph so they run on the main thread
+      updateInfluencersGlobal(tpf);
+      updateModelBound();
+    }
+  }
 
-        currentInterval += tpf;
+  private void stepParticles(float tpf) {
+    simulationStep++;
+    currentDuration += tpf;
 
-        if (currentDuration <= duration) {
-          // check for particle emission
-          if (currentInterval >= targetInterval) {
-            int totalParticlesThisEmission = calcParticlesPerEmission();
-            for (int i = 0; i < totalParticlesThisEmission; i++) {
-              emitNextParticle();
-            }
-            currentInterval -= targetInterval;
-          }
+    if (currentDuration > duration && looping) {
+      currentDuration -= duration;
+    }
 
-          // run any sort of influencer updates we may need
-          for (ParticleInfluencer influencer : influencerMap.values()) {
-            influencer.updateGlobal(tpf);
-          }
+    //if (delay <= 0.0f ) {
+    for (ParticleInfluencer influencer : influencerMap.values()) {
+      influencer.preUpdate(tpf);
+    }
 
-        }
+    // age the particles and gather their inputs for the influencers
+    for (int i = 0; i < particles.length; i++) {
+      ParticleData p = particles[i];
+      if (p.active && p.updateLife(tpf)) {
+        batchPercentLife[i] = p.percentLife;
+        batchRandom[i] = p.randomValue;
+      }
+    }
 
-        updateModelBound();
+    // each influencer updates all particles at once
+    for (ParticleInfluencer influencer : influencerMap.values()) {
+      influencer.update(particles, 0, particles.length, tpf);
+    }
+
+    startParticleBound();
+    for (ParticleData p : particles) {
+      if (p.active) {
+        p.integrate(tpf);
+        expandParticleBound(p);
+      }
+    }
+
+    currentInterval += tpf;
+
+    if (currentDuration <= duration) {
+      // check for particle emission
+      if (currentInterval >= targetInterval) {
+        emitBurst(calcParticlesPerEmission());
+        currentInterval -= targetInterval;
+      }
+    }
+  }
+
+  private void updateInfluencersGlobal(float tpf) {
+    if (currentDuration <= duration) {
+      // run any sort of influencer updates we may need
+      for (ParticleInfluencer influencer : influencerMap.values()) {
+        influencer.updateGlobal(tpf);
+      }
+    }
+  }
+
+  private void startParticleBound() {
+    Vector3f origin = particlesFollowEmitter ? Vector3f.ZERO : getWorldTranslation();
+    boundMin.set(origin);
+    boundMax.set(origin);
+    boundMaxSize = 0.0f;
+    analyticBound = useAnalyticBound && canUseAnalyticBound();
+  }
+
+  private boolean canUseAnalyticBound() {
+    if (!lifeMin.isBounded() || !lifeMax.isBounded() || !startSpeed.isBounded() || !startSize.isBounded()) {
+      return false;
+    }
+    SizeInfluencer sizeInfluencer = getInfluencer(SizeInfluencer.class);
+    return sizeInfluencer == null || sizeInfluencer.getSizeOverTime().isBounded();
+  }
+
+  private void expandParticleBound(ParticleData p) {
+    if (analyticBound) {
+      return;
+    }
+    boundMin.minLocal(p.position);
+    boundMax.maxLocal(p.position);
+    if (p.size > boundMaxSize) {
+      boundMaxSize = p.size;
+    }
+  }
+
+  private void finishParticleBound(ParticleDataMesh target) {
+    if (analyticBound) {
+      // the furthest a particle can travel at its start speed during its life
+      float life = Math.max(lifeMin.getMaxAbsValue(), lifeMax.getMaxAbsValue());
+      float radius = startSpeed.getMaxAbsValue() * life + analyticBoundPadding;
+      boundMin.subtractLocal(radius, radius, radius);
+      boundMax.addLocal(radius, radius, radius);
+
+      boundMaxSize = startSize.getMaxAbsValue();
+      SizeInfluencer sizeInfluencer = getInfluencer(SizeInfluencer.class);
+      if (sizeInfluencer != null) {
+        boundMaxSize *= sizeInfluencer.getSizeOverTime().getMaxAbsValue();
+      }
+    }
+
+    if (target != null) {
+      target.setParticleBound(boundMin, boundMax, boundMaxSize);
     }
-    //System.out.println("Output: " + (System.currentTimeMillis() - t));
   }
 
   private int calcParticlesPerEmission() {
@@ -713,9 +885,11 @@ public class Emitter extends Node {
   public void emitNextParticle() {
     if (nextIndex != -1 && nextIndex < maxParticles) {
       particles[nextIndex].initialize(lifeMin, lifeMax);
+      float randomValue = particles[nextIndex].randomValue;
+      float minLife = lifeMin.getValue(0, randomValue, currentDuration);
       particles[nextIndex].startlife =
-          (lifeMax.getValue(0, particles[nextIndex].randomValue) - lifeMin.getValue(0, particles[nextIndex].randomValue)) * FastMath.nextRandomFloat()
-              + lifeMin.getValue(0, particles[nextIndex].randomValue);
+          (lifeMax.getValue(0, randomValue, currentDuration) - minLife) * FastMath.nextRandomFloat() + minLife;
+      expandParticleBound(particles[nextIndex]);
       int searchIndex = nextIndex;
       while (particles[searchIndex].active) {
         searchIndex++;
@@ -728,6 +902,83 @@ public class Emitter extends Node {
     }
   }
 
+  /**
+   * Emits up to count particles at once. The free particles are reserved in one pass, the emitter shape
+   * is sampled in bulk, the start values are evaluated for the whole burst and the influencers initialize
+   * the burst as a range. Falls back to emitNextParticle when a random emission point is used since
+   * shapes don't sample those in bulk.
+   *
+   * @param count The number of particles to emit
+   */
+  public void emitBurst(int count) {
+    if (count <= 0 || nextIndex == -1) {
+      return;
+    }
+    if (useRandomEmissionPoint) {
+      for (int i = 0; i < count; i++) {
+        emitNextParticle();
+      }
+      return;
+    }
+
+    if (burst == null) {
+      burst = new Burst(maxParticles);
+    }
+    int n = reserveParticles(Math.min(count, maxParticles), burst.indices);
+    if (n == 0) {
+      return;
+    }
+
+    Burst b = burst;
+    emitterShape.sample(n, FastMath.rand, b.positions, b.directions, b.triangles);
+
+    float emitterTime = currentDuration;
+    Arrays.fill(b.times, 0, n, currentDuration / duration);
+    for (int i = 0; i < n; i++) {
+      b.random[i] = FastMath.nextRandomFloat();
+    }
+    startSize.getValues(b.times, b.random, emitterTime, b.sizes, 0, n);
+    startSpeed.getValues(b.times, b.random, emitterTime, b.speeds, 0, n);
+    lifeMin.getValues(b.times, b.random, emitterTime, b.lifeMin, 0, n);
+    lifeMax.getValues(b.times, b.random, emitterTime, b.lifeMax, 0, n);
+    startRotation.getValues(b.times, b.random, b.rotations, 0, n);
+    startColor.getValuesColor(b.times, b.random, b.colors, 0, n);
+
+    for (int i = 0; i < n; i++) {
+      float minLife = b.lifeMin[i];
+      float life = (b.lifeMax[i] - minLife) * FastMath.nextRandomFloat() + minLife;
+      particles[b.indices[i]].initialize(b.random[i], b.sizes[i], life, b.speeds[i], b.positions,
+          b.directions, b.rotations, b.colors, b.triangles[i], i);
+    }
+
+    for (ParticleInfluencer influencer : influencerMap.values()) {
+      influencer.initialize(particles, b.indices, n);
+    }
+    for (int i = 0; i < n; i++) {
+      expandParticleBound(particles[b.indices[i]]);
+    }
+  }
+
+  /**
+   * Collects the indices of up to count free particles starting at the next free index and moves the next
+   * free index past them
+   */
+  private int reserveParticles(int count, int[] store) {
+    int n = 0;
+    int searchIndex = nextIndex;
+    while (searchIndex < particles.length && n < count) {
+      if (!particles[searchIndex].active) {
+        store[n++] = searchIndex;
+      }
+      searchIndex++;
+    }
+    while (searchIndex < particles.length && particles[searchIndex].active) {
+      searchIndex++;
+    }
+    nextIndex = searchIndex < particles.length ? searchIndex : -1;
+    return n;
+  }
+
   /**
    * Emits all non-active particles
    */
@@ -735,6 +986,7 @@ public class Emitter extends Node {
     for (ParticleData p : particles) {
       if (!p.active) {
         p.initialize(lifeMin, lifeMax);
+        expandParticleBound(p);
       }
     }
   }
@@ -785,6 +1037,66 @@ public class Emitter extends Node {
     }
   }
 
+  /**
+   * Bounds the particles with a conservative envelope around the emitter instead of tracking each particle
+   * position. The envelope covers the distance a particle can travel at its start speed during its life, plus
+   * the padding. Influencers that move particles such as gravity are not taken into account, use the padding
+   * to cover them and the size of the emitter shape. Best suited for particles that follow the emitter.
+   * Expressions have no known bound, the measured bound is still used while the start size, speed, life or
+   * the size over time is an expression.
+   *
+   * @param useAnalyticBound true to use the analytic envelope
+   */
+  public void setUseAnalyticBound(boolean useAnalyticBound) {
+    this.useAnalyticBound = useAnalyticBound;
+  }
+
+  public boolean getUseAnalyticBound() {
+    return useAnalyticBound;
+  }
+
+  /**
+   * Sets the extra distance added to the analytic bound envelope
+   *
+   * @param analyticBoundPadding The padding in world units
+   */
+  public void setAnalyticBoundPadding(float analyticBoundPadding) {
+    this.analyticBoundPadding = analyticBoundPadding;
+  }
+
+  public float getAnalyticBoundPadding() {
+    return analyticBoundPadding;
+  }
+
+  /**
+   * Returns the percent life of every particle as of the current update, indexed by particle index.
+   * Only valid for active particles while the influencers are updated.
+   *
+   * @return The percent life of the particles
+   */
+  public float[] getBatchPercentLife() {
+    return batchPercentLife;
+  }
+
+  /**
+   * Returns the random value of every particle, indexed by particle index. Only valid for active particles
+   * while the influencers are updated.
+   *
+   * @return The random values of the particles
+   */
+  public float[] getBatchRandom() {
+    return batchRandom;
+  }
+
+  /**
+   * Returns the camera of the last viewport this emitter was rendered in
+   *
+   * @return The last render camera or null if the emitter hasn't been rendered yet
+   */
+  public Camera getLastCamera() {
+    return lastCamera;
+  }
+
   public void renderEmitter(RenderManager rm, ViewPort vp) {
     Camera cam = vp.getCamera();
 
@@ -796,6 +1108,12 @@ public class Emitter extends Node {
       material.setFloat("Quadratic", C);
     }
 
+    if (pipelined) {
+      startPipelinedFrame(cam);
+      return;
+    }
+    lastCamera = cam;
+
     Matrix3f inverseRotation = Matrix3f.IDENTITY;
 
     for (Spatial s : this.getChildren()) {
@@ -809,6 +1127,138 @@ public class Emitter extends Node {
 
   }
 
+  private void startPipelinedFrame(Camera cam) {
+    // only the first viewport of a frame starts the work
+    if (pipelineTask != null || !enabled) {
+      return;
+    }
+
+    // pair every particle mesh with a back mesh, the worker only writes to the back meshes
+    Map<ParticleDataMesh, ParticleDataMesh> pairs = new IdentityHashMap<>();
+    for (Spatial s : this.getChildren()) {
+      if (s instanceof Geometry && ((Geometry) s).getMesh() instanceof ParticleDataMesh) {
+        ParticleDataMesh front = (ParticleDataMesh) ((Geometry) s).getMesh();
+        ParticleDataMesh back = backMeshes.get(front);
+        pairs.put(front, back != null ? back : front.deepClone());
+      }
+    }
+    backMeshes = pairs;
+
+    // the worker sees the camera as it was when the frame started
+    pipelineCamera.copyFrom(cam);
+    lastCamera = pipelineCamera;
+    pipelineTransform.set(super.getWorldTransform());
+
+    final float tpf = pipelineTpf;
+    pipelineTpf = 0.0f;
+    pipelineTask = ForkJoinPool.commonPool().submit(() -> {
+      pipelineThread = Thread.currentThread();
+      try {
+        stepParticles(tpf);
+        for (Map.Entry<ParticleDataMesh, ParticleDataMesh> pair : pairs.entrySet()) {
+          if (pair.getKey() == mesh) {
+            finishParticleBound(pair.getValue());
+          }
+          pair.getValue().updateParticleData(particles, pipelineCamera, Matrix3f.IDENTITY);
+        }
+      } finally {
+        pipelineThread = null;
+      }
+    });
+  }
+
+  /**
+   * Drops the second copies of the particle meshes used while pipelined, they are cloned again from the meshes
+   * in the scene on the next frame. Call after changing the settings or size of a particle mesh, such as a trail
+   * mesh, of a pipelined emitter.
+   */
+  public void discardPipelinedMeshes() {
+    finishPipelinedFrame();
+    backMeshes.clear();
+  }
+
+  @Override
+  public Transform getWorldTransform() {
+    return Thread.currentThread() == pipelineThread ? pipelineTransform : super.getWorldTransform();
+  }
+
+  @Override
+  public Vector3f getWorldTranslation() {
+    return Thread.currentThread() == pipelineThread ? pipelineTransform.getTranslation() : super.getWorldTranslation();
+  }
+
+  @Override
+  public Quaternion getWorldRotation() {
+    return Thread.currentThread() == pipelineThread ? pipelineTransform.getRotation() : super.getWorldRotation();
+  }
+
+  @Override
+  public Vector3f getWorldScale() {
+    return Thread.currentThread() == pipelineThread ? pipelineTransform.getScale() : super.getWorldScale();
+  }
+
+  /**
+   * Waits for the frame being simulated on the worker thread and swaps the filled meshes in for rendering.
+   * This is called by the emitter control every update, call it before changing the emitter or its particles
+   * from anywhere else while the emitter is pipelined.
+   */
+  public void finishPipelinedFrame() {
+    if (pipelineTask == null) {
+      return;
+    }
+
+    try {
+      pipelineTask.join();
+    } finally {
+      pipelineTask = null;
+    }
+
+    Map<ParticleDataMesh, ParticleDataMesh> swapped = new IdentityHashMap<>();
+    for (Spatial s : this.getChildren()) {
+      if (s instanceof Geometry) {
+        Geometry g = (Geometry) s;
+        ParticleDataMesh back = backMeshes.get(g.getMesh());
+        if (back != null) {
+          swapped.put(back, (ParticleDataMesh) g.getMesh());
+          g.setMesh(back);
+        }
+      }
+    }
+
+    ParticleDataMesh newMesh = backMeshes.get(mesh);
+    if (newMesh != null) {
+      mesh = newMesh;
+    }
+    backMeshes = swapped;
+  }
+
+  /**
+   * Runs the simulation and vertex buffer fill of the next frame on a worker thread while the current frame
+   * renders from a second copy of the particle meshes. The main thread only waits for the worker and swaps the
+   * meshes, at the cost of one frame of latency. Intended for ambient effects, the emitter should not be changed
+   * from other threads or controls without calling finishPipelinedFrame() first.
+   *
+   * The worker sees the emitter transform as it was when the frame was rendered, and emitter shapes sample the
+   * transform of their geometry from their update, so moving the emitter or the emission geometry is safe.
+   *
+   * @param pipelined true to simulate on a worker thread
+   */
+  public void setPipelined(boolean pipelined) {
+    if (!pipelined) {
+      finishPipelinedFrame();
+      backMeshes.clear();
+      if (pipelineTpf > 0) {
+        stepParticles(pipelineTpf);
+        pipelineTpf = 0.0f;
+      }
+    }
+    this.pipelined = pipelined;
+  }
+
+  public boolean isPipelined() {
+    return pipelined;
+  }
+
   @Override
   public void write(JmeExporter ex) throws IOException {
     super.write(ex);
@@ -838,6 +1288,9 @@ public class Emitter extends Node {
     oc.write(enabled, "enabled", false);
     oc.write(emitterShape, "emitterShape", null);
     oc.write(templateMesh, "templateMesh", null);
+    oc.write(useAnalyticBound, "useAnalyticBound", false);
+    oc.write(analyticBoundPadding, "analyticBoundPadding", 0.0f);
+    oc.write(pipelined, "pipelined", false);
 
     // we are using this just to save what class we used
     oc.write(mesh, "datameshType", new ParticleDataTriMesh());
@@ -871,6 +1324,9 @@ public class Emitter extends Node {
     enabled = ic.readBoolean("enabled", false);
     emitterShape = (EmitterShape) ic.readSavable("emitterShape", new EmitterSphere());
     templateMesh = (Mesh) ic.readSavable("templateMesh", null);
+    useAnalyticBound = ic.readBoolean("useAnalyticBound", false);
+    analyticBoundPadding = ic.readFloat("analyticBoundPadding", 0.0f);
+    pipelined = ic.readBoolean("pipelined", false);
 
     // small hack to get the mesh type to be used later
     datameshType = ((ParticleDataMesh) ic.readSavable("datameshType", new ParticleDataTriMesh())).getClass();
@@ -886,4 +1342,34 @@ public class Emitter extends Node {
     initParticles(datameshType, templateMesh);
   }
   
+
+  private static final class Burst {
+    private final int[] indices;
+    private final int[] triangles;
+    private final float[] colors;
+    private final float[] times;
+    private final float[] random;
+    private final float[] sizes;
+    private final float[] speeds;
+    private final float[] lifeMin;
+    private final float[] lifeMax;
+    private final float[] positions;
+    private final float[] directions;
+    private final float[] rotations;
+
+    Burst(int size) {
+      indices = new int[size];
+      triangles = new int[size];
+      colors = new float[size * 4];
+      times = new float[size];
+      random = new float[size];
+      sizes = new float[size];
+      speeds = new float[size];
+      lifeMin = new float[size];
+      lifeMax = new float[size];
+      positions = new float[size * 3];
+      directions = new float[size * 3];
+      rotations = new float[size * 3];
+    }
+  }
 }
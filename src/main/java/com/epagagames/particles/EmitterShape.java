@@ -31,6 +31,7 @@
  */
 package com.epagagames.particles;
 
+import com.epagagames.particles.valuetypes.PackedColor;
 import com.jme3.export.*;
 import com.jme3.material.Material;
 import com.jme3.math.FastMath;
@@ -38,6 +39,7 @@ import com.jme3.math.Vector3f;
 import com.jme3.scene.Spatial;
 
 import java.io.IOException;
+import java.util.Random;
 
 /**
  * Emitter Shape
@@ -65,6 +67,62 @@ public abstract class EmitterShape implements Savable, Cloneable {
 
   public abstract Spatial getDebugShape(Material mat, boolean ignoreTransforms);
 
+  /**
+   * Called by the emitter once per frame on the main thread before particles are emitted. Shapes that
+   * follow animated geometry refresh their state here.
+   *
+   * @param tpf - the delta time for the last frame
+   */
+  public void update(float tpf) {}
+
+  /**
+   * Returns the color of an emission point for shapes that carry colors, such as point clouds. The start
+   * color of particles emitted from the point is multiplied by it.
+   *
+   * @param index - the emission point index as returned by getIndex()
+   * @return the packed ABGR color of the point, white by default
+   */
+  public int getColorABGR(int index) {
+    return PackedColor.WHITE;
+  }
+
+  /**
+   * Checks if the emission points already carry their own transform, such as a mesh placed in the scene.
+   * Particles that don't follow the emitter are then not moved to the emitter position on emission.
+   *
+   * @return true if the emitter translation must not be applied to the emission points
+   */
+  public boolean isEmittingInWorldSpace() {
+    return false;
+  }
+
+  /**
+   * Samples several emission points in one call. Each point is what setNext() followed by
+   * getNextTranslation() and getNextDirection() would return, including the random direction, origin
+   * direction and randomize position behaviors. The shared next position and direction are not updated.
+   *
+   * @param count - the number of points to sample
+   * @param random - the random source used by shapes that sample in bulk
+   * @param positions - receives x, y, z of each point, at least count * 3 long
+   * @param directions - receives x, y, z of the direction of each point, at least count * 3 long
+   * @param indices - receives getIndex() for each point, may be null
+   */
+  public void sample(int count, Random random, float[] positions, float[] directions, int[] indices) {
+    for (int i = 0; i < count; i++) {
+      setNext();
+      Vector3f position = getNextTranslation();
+      Vector3f direction = getNextDirection();
+      int o = i * 3;
+      positions[o] = position.x;
+      positions[o + 1] = position.y;
+      positions[o + 2] = position.z;
+      directions[o] = direction.x;
+      directions[o + 1] = direction.y;
+      directions[o + 2] = direction.z;
+      if (indices != null) indices[i] = getIndex();
+    }
+  }
+
   public float getRandomDirection() {
     return randomDirection;
   }
@@ -95,7 +153,7 @@ public abstract class EmitterShape implements Savable, Cloneable {
 
   protected void applyRootBehaviors() {
     if (randomizePosition > 0) {
-      nextPosition.add((randomizePosition * 2.0f * (FastMath.nextRandomFloat() - 0.5f)),
+      nextPosition.addLocal((randomizePosition * 2.0f * (FastMath.nextRandomFloat() - 0.5f)),
           (randomizePosition * 2.0f * (FastMath.nextRandomFloat() - 0.5f)),
           (randomizePosition * 2.0f * (FastMath.nextRandomFloat() - 0.5f)));
     }
@@ -120,6 +178,38 @@ public abstract class EmitterShape implements Savable, Cloneable {
   }
 
 
+  /**
+   * Array version of applyRootBehaviors() for the point at offset o, used by sample()
+   */
+  protected void applyRootBehaviors(Random random, float[] positions, float[] directions, int o) {
+    if (randomizePosition > 0) {
+      positions[o] += randomizePosition * 2.0f * (random.nextFloat() - 0.5f);
+      positions[o + 1] += randomizePosition * 2.0f * (random.nextFloat() - 0.5f);
+      positions[o + 2] += randomizePosition * 2.0f * (random.nextFloat() - 0.5f);
+    }
+
+    if (randomDirection > 0) {
+      float keep = 1.0f - randomDirection;
+      directions[o] = directions[o] * keep + randomDirection * 2.0f * (random.nextFloat() - 0.5f);
+      directions[o + 1] = directions[o + 1] * keep + randomDirection * 2.0f * (random.nextFloat() - 0.5f);
+      directions[o + 2] = directions[o + 2] * keep + randomDirection * 2.0f * (random.nextFloat() - 0.5f);
+    }
+
+    if (originDirection > 0) {
+      float x = positions[o], y = positions[o + 1], z = positions[o + 2];
+      float len = FastMath.sqrt(x * x + y * y + z * z);
+      if (len != 0) {
+        x /= len;
+        y /= len;
+        z /= len;
+      }
+      float keep = 1.0f - originDirection;
+      directions[o] = directions[o] * keep + originDirection * x;
+      directions[o + 1] = directions[o + 1] * keep + originDirection * y;
+      directions[o + 2] = directions[o + 2] * keep + originDirection * z;
+    }
+  }
+
   @Override
   public void write(JmeExporter ex) throws IOException {
     OutputCapsule oc = ex.getCapsule(this);
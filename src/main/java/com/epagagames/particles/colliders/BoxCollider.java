@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.colliders;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+import java.io.IOException;
+
+/**
+ * Box Collider
+ * A solid box particles bounce off, axis aligned or rotated
+ */
+public class BoxCollider extends ParticleCollider {
+
+  private Vector3f center = new Vector3f();
+  private Vector3f extents = new Vector3f(1, 1, 1);
+  private Quaternion rotation = new Quaternion();
+
+  // the box axes in world space, 3 floats per axis
+  private transient float[] axes = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+
+  public BoxCollider() {
+
+  }
+
+  /**
+   * Axis aligned box
+   * @param center - the center of the box
+   * @param extents - half the size of the box along each axis
+   */
+  public BoxCollider(Vector3f center, Vector3f extents) {
+    this.center.set(center);
+    this.extents.set(extents);
+  }
+
+  /**
+   * Oriented box
+   * @param center - the center of the box
+   * @param extents - half the size of the box along each of its axes
+   * @param rotation - the rotation of the box
+   */
+  public BoxCollider(Vector3f center, Vector3f extents, Quaternion rotation) {
+    this(center, extents);
+    setRotation(rotation);
+  }
+
+  public Vector3f getCenter() {
+    return center;
+  }
+
+  public void setCenter(Vector3f center) {
+    this.center.set(center);
+  }
+
+  public Vector3f getExtents() {
+    return extents;
+  }
+
+  public void setExtents(Vector3f extents) {
+    this.extents.set(extents);
+  }
+
+  public Quaternion getRotation() {
+    return rotation;
+  }
+
+  public void setRotation(Quaternion rotation) {
+    this.rotation.set(rotation);
+    updateAxes();
+  }
+
+  private void updateAxes() {
+    float[] a = new float[9];
+    Vector3f axis = new Vector3f();
+    for (int i = 0; i < 3; i++) {
+      rotation.getRotationColumn(i, axis);
+      a[i * 3] = axis.x;
+      a[i * 3 + 1] = axis.y;
+      a[i * 3 + 2] = axis.z;
+    }
+    axes = a;
+  }
+
+  @Override
+  public float collide(Vector3f start, Vector3f move, Vector3f normalStore) {
+    float[] a = axes;
+    float ox = start.x - center.x, oy = start.y - center.y, oz = start.z - center.z;
+
+    // slab test in box space, the entering slab gives the contact face
+    float enter = 0, exit = 1;
+    int axis = -1;
+    float sign = 0;
+    for (int i = 0; i < 3; i++) {
+      float ax = a[i * 3], ay = a[i * 3 + 1], az = a[i * 3 + 2];
+      float s = ox * ax + oy * ay + oz * az;
+      float m = move.x * ax + move.y * ay + move.z * az;
+      float e = extents.get(i);
+      if (m == 0) {
+        if (s < -e || s > e) {
+          return NO_HIT;
+        }
+        continue;
+      }
+      float t1 = (-e - s) / m;
+      float t2 = (e - s) / m;
+      float near = Math.min(t1, t2);
+      float far = Math.max(t1, t2);
+      if (near > enter) {
+        enter = near;
+        axis = i;
+        sign = m > 0 ? -1 : 1;
+      }
+      if (far < exit) {
+        exit = far;
+      }
+      if (enter > exit) {
+        return NO_HIT;
+      }
+    }
+    // no entering face means the particle started inside
+    if (axis == -1) {
+      return NO_HIT;
+    }
+
+    normalStore.set(a[axis * 3] * sign, a[axis * 3 + 1] * sign, a[axis * 3 + 2] * sign);
+    return enter;
+  }
+
+  @Override
+  public BoxCollider clone() {
+    BoxCollider clone = (BoxCollider) super.clone();
+    clone.center = center.clone();
+    clone.extents = extents.clone();
+    clone.rotation = rotation.clone();
+    return clone;
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(center, "center", new Vector3f());
+    oc.write(extents, "extents", new Vector3f(1, 1, 1));
+    oc.write(rotation, "rotation", new Quaternion());
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    InputCapsule ic = im.getCapsule(this);
+    center = (Vector3f) ic.readSavable("center", new Vector3f());
+    extents = (Vector3f) ic.readSavable("extents", new Vector3f(1, 1, 1));
+    rotation = (Quaternion) ic.readSavable("rotation", new Quaternion());
+    updateAxes();
+  }
+}
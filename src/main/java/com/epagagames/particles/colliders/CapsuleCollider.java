@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.colliders;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+
+import java.io.IOException;
+
+/**
+ * Capsule Collider
+ * A solid capsule, a segment with a radius, particles bounce off
+ */
+public class CapsuleCollider extends ParticleCollider {
+
+  private Vector3f start = new Vector3f();
+  private Vector3f end = new Vector3f(0, 1, 0);
+  private float radius = 0.5f;
+
+  public CapsuleCollider() {
+
+  }
+
+  /**
+   * @param start - the center of the first cap
+   * @param end - the center of the second cap
+   * @param radius - the radius of the capsule
+   */
+  public CapsuleCollider(Vector3f start, Vector3f end, float radius) {
+    this.start.set(start);
+    this.end.set(end);
+    this.radius = radius;
+  }
+
+  public Vector3f getStart() {
+    return start;
+  }
+
+  public void setStart(Vector3f start) {
+    this.start.set(start);
+  }
+
+  public Vector3f getEnd() {
+    return end;
+  }
+
+  public void setEnd(Vector3f end) {
+    this.end.set(end);
+  }
+
+  public float getRadius() {
+    return radius;
+  }
+
+  public void setRadius(float radius) {
+    this.radius = radius;
+  }
+
+  @Override
+  public float collide(Vector3f from, Vector3f move, Vector3f normalStore) {
+    float length = move.length();
+    if (length == 0) {
+      return NO_HIT;
+    }
+    float dx = move.x / length, dy = move.y / length, dz = move.z / length;
+    float bax = end.x - start.x, bay = end.y - start.y, baz = end.z - start.z;
+    float oax = from.x - start.x, oay = from.y - start.y, oaz = from.z - start.z;
+
+    float baba = bax * bax + bay * bay + baz * baz;
+    float bard = bax * dx + bay * dy + baz * dz;
+    float baoa = bax * oax + bay * oay + baz * oaz;
+    float rdoa = dx * oax + dy * oay + dz * oaz;
+    float oaoa = oax * oax + oay * oay + oaz * oaz;
+
+    // starting inside
+    float h = baba > 0 ? FastMath.clamp(baoa / baba, 0, 1) : 0;
+    float cx = oax - bax * h, cy = oay - bay * h, cz = oaz - baz * h;
+    if (cx * cx + cy * cy + cz * cz < radius * radius) {
+      return NO_HIT;
+    }
+
+    float t = -1;
+    // cylinder body
+    float a = baba - bard * bard;
+    float b = baba * rdoa - baoa * bard;
+    float c = baba * oaoa - baoa * baoa - radius * radius * baba;
+    float disc = b * b - a * c;
+    if (a != 0 && disc >= 0) {
+      float tc = (-b - FastMath.sqrt(disc)) / a;
+      float y = baoa + tc * bard;
+      if (y > 0 && y < baba) {
+        t = tc;
+      }
+    }
+    if (t < 0) {
+      // the caps, the nearer one along the direction of travel first
+      t = capHit(oax, oay, oaz, dx, dy, dz);
+      float tb = capHit(oax - bax, oay - bay, oaz - baz, dx, dy, dz);
+      if (tb >= 0 && (t < 0 || tb < t)) {
+        t = tb;
+      }
+    }
+    if (t < 0 || t > length) {
+      return NO_HIT;
+    }
+
+    // normal from the closest point of the segment
+    float px = oax + dx * t, py = oay + dy * t, pz = oaz + dz * t;
+    h = baba > 0 ? FastMath.clamp((px * bax + py * bay + pz * baz) / baba, 0, 1) : 0;
+    normalStore.set(px - bax * h, py - bay * h, pz - baz * h).normalizeLocal();
+    return t / length;
+  }
+
+  private float capHit(float ox, float oy, float oz, float dx, float dy, float dz) {
+    float b = ox * dx + oy * dy + oz * dz;
+    float c = ox * ox + oy * oy + oz * oz - radius * radius;
+    float disc = b * b - c;
+    if (disc < 0) {
+      return -1;
+    }
+    return -b - FastMath.sqrt(disc);
+  }
+
+  @Override
+  public CapsuleCollider clone() {
+    CapsuleCollider clone = (CapsuleCollider) super.clone();
+    clone.start = start.clone();
+    clone.end = end.clone();
+    return clone;
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(start, "start", new Vector3f());
+    oc.write(end, "end", new Vector3f(0, 1, 0));
+    oc.write(radius, "radius", 0.5f);
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    InputCapsule ic = im.getCapsule(this);
+    start = (Vector3f) ic.readSavable("start", new Vector3f());
+    end = (Vector3f) ic.readSavable("end", new Vector3f(0, 1, 0));
+    radius = ic.readFloat("radius", 0.5f);
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.colliders;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+
+import java.io.IOException;
+
+/**
+ * Heightfield Collider
+ * A terrain given as a grid of heights particles bounce off. The heights are looked up with a bilinear
+ * interpolation at the start and end of each step, so testing a particle costs the same however large the
+ * terrain is. Particles outside the grid don't collide.
+ */
+public class HeightfieldCollider extends ParticleCollider {
+
+  private float[] heights = new float[4];
+  private int sizeX = 2;
+  private int sizeZ = 2;
+  private Vector3f origin = new Vector3f();
+  private Vector3f scale = new Vector3f(1, 1, 1);
+
+  public HeightfieldCollider() {
+
+  }
+
+  /**
+   * @param heights - the heights, row by row along z, sizeX heights per row
+   * @param sizeX - the number of heights along x
+   * @param sizeZ - the number of heights along z
+   * @param origin - the world position of the first height
+   * @param scale - the spacing of the heights along x and z and the height multiplier in y
+   */
+  public HeightfieldCollider(float[] heights, int sizeX, int sizeZ, Vector3f origin, Vector3f scale) {
+    setHeights(heights, sizeX, sizeZ);
+    this.origin.set(origin);
+    this.scale.set(scale);
+  }
+
+  /**
+   * Creates a collider for a square height map centered on a position, the layout jME terrain uses. For a
+   * TerrainQuad pass getHeightMap(), getTotalSize(), getWorldScale() and getWorldTranslation().
+   *
+   * @param heights - the heights, size * size of them
+   * @param size - the number of heights along each side
+   * @param scale - the world scale of the terrain
+   * @param center - the world translation of the terrain
+   * @return the collider
+   */
+  public static HeightfieldCollider centered(float[] heights, int size, Vector3f scale, Vector3f center) {
+    float half = (size - 1) * 0.5f;
+    Vector3f origin = new Vector3f(center.x - half * scale.x, center.y, center.z - half * scale.z);
+    return new HeightfieldCollider(heights, size, size, origin, scale);
+  }
+
+  /**
+   * Replaces the heights, for example after the terrain was modified
+   */
+  public void setHeights(float[] heights, int sizeX, int sizeZ) {
+    if (sizeX < 2 || sizeZ < 2 || heights.length < sizeX * sizeZ) {
+      throw new IllegalArgumentException("A heightfield needs at least 2 x 2 heights");
+    }
+    this.heights = heights;
+    this.sizeX = sizeX;
+    this.sizeZ = sizeZ;
+  }
+
+  public float[] getHeights() {
+    return heights;
+  }
+
+  public int getSizeX() {
+    return sizeX;
+  }
+
+  public int getSizeZ() {
+    return sizeZ;
+  }
+
+  public Vector3f getOrigin() {
+    return origin;
+  }
+
+  public void setOrigin(Vector3f origin) {
+    this.origin.set(origin);
+  }
+
+  public Vector3f getScale() {
+    return scale;
+  }
+
+  public void setScale(Vector3f scale) {
+    this.scale.set(scale);
+  }
+
+  /**
+   * Returns the terrain height at a world position
+   *
+   * @param x - world x
+   * @param z - world z
+   * @return the world height or NaN outside the grid
+   */
+  public float getHeight(float x, float z) {
+    float fx = (x - origin.x) / scale.x;
+    float fz = (z - origin.z) / scale.z;
+    if (!(fx >= 0 && fz >= 0 && fx <= sizeX - 1 && fz <= sizeZ - 1)) {
+      return Float.NaN;
+    }
+    int ix = Math.min((int) fx, sizeX - 2);
+    int iz = Math.min((int) fz, sizeZ - 2);
+    float u = fx - ix;
+    float v = fz - iz;
+    int i = iz * sizeX + ix;
+    float h0 = heights[i] + (heights[i + 1] - heights[i]) * u;
+    float h1 = heights[i + sizeX] + (heights[i + sizeX + 1] - heights[i + sizeX]) * u;
+    return origin.y + (h0 + (h1 - h0) * v) * scale.y;
+  }
+
+  /**
+   * Writes the upward surface normal at a world position inside the grid
+   */
+  private void getNormal(float x, float z, Vector3f store) {
+    float fx = FastMath.clamp((x - origin.x) / scale.x, 0, sizeX - 1);
+    float fz = FastMath.clamp((z - origin.z) / scale.z, 0, sizeZ - 1);
+    int ix = Math.min((int) fx, sizeX - 2);
+    int iz = Math.min((int) fz, sizeZ - 2);
+    float u = fx - ix;
+    float v = fz - iz;
+    int i = iz * sizeX + ix;
+    float h00 = heights[i], h10 = heights[i + 1];
+    float h01 = heights[i + sizeX], h11 = heights[i + sizeX + 1];
+    float dx = ((h10 - h00) * (1 - v) + (h11 - h01) * v) * scale.y / scale.x;
+    float dz = ((h01 - h00) * (1 - u) + (h11 - h10) * u) * scale.y / scale.z;
+    store.set(-dx, 1, -dz).normalizeLocal();
+  }
+
+  @Override
+  public float collide(Vector3f start, Vector3f move, Vector3f normalStore) {
+    float startHeight = getHeight(start.x, start.z);
+    if (!(start.y >= startHeight)) {
+      // below the terrain or outside the grid
+      return NO_HIT;
+    }
+    float ex = start.x + move.x, ez = start.z + move.z;
+    float endHeight = getHeight(ex, ez);
+    float endAbove = start.y + move.y - endHeight;
+    if (!(endAbove < 0)) {
+      return NO_HIT;
+    }
+    float startAbove = start.y - startHeight;
+    float t = startAbove / (startAbove - endAbove);
+    getNormal(start.x + move.x * t, start.z + move.z * t, normalStore);
+    return t;
+  }
+
+  @Override
+  public HeightfieldCollider clone() {
+    HeightfieldCollider clone = (HeightfieldCollider) super.clone();
+    clone.origin = origin.clone();
+    clone.scale = scale.clone();
+    return clone;
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(heights, "heights", null);
+    oc.write(sizeX, "sizex", 2);
+    oc.write(sizeZ, "sizez", 2);
+    oc.write(origin, "origin", new Vector3f());
+    oc.write(scale, "scale", new Vector3f(1, 1, 1));
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    InputCapsule ic = im.getCapsule(this);
+    heights = ic.readFloatArray("heights", new float[4]);
+    sizeX = ic.readInt("sizex", 2);
+    sizeZ = ic.readInt("sizez", 2);
+    origin = (Vector3f) ic.readSavable("origin", new Vector3f());
+    scale = (Vector3f) ic.readSavable("scale", new Vector3f(1, 1, 1));
+  }
+}
@@ -0,0 +1,533 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.colliders;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.FastMath;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+
+import java.io.IOException;
+
+/**
+ * Mesh Collider
+ * Triangle accurate collisions against a geometry. The triangles are cached in world space in a uniform grid so
+ * a step only tests the triangles in the cells it passes through. Every cell also knows how many cells away the
+ * nearest triangle is, which gives callers a safe distance a particle can travel before it needs testing again.
+ * Triangles collide from both sides.
+ *
+ * The cache is rebuilt by update when the geometry moves, call invalidate after changing the mesh itself.
+ */
+public class MeshCollider extends ParticleCollider {
+
+  private static final int MAX_RESOLUTION = 64;
+
+  private Geometry geometry;
+  private int resolution = 0;
+
+  private transient volatile Grid grid;
+  private transient Transform gridTransform = new Transform();
+  private transient int revision;
+
+  public MeshCollider() {
+
+  }
+
+  public MeshCollider(Geometry geometry) {
+    this.geometry = geometry;
+  }
+
+  public Geometry getGeometry() {
+    return geometry;
+  }
+
+  public void setGeometry(Geometry geometry) {
+    this.geometry = geometry;
+    invalidate();
+  }
+
+  /**
+   * Gets the number of grid cells along the longest side of the mesh bounds
+   * @return the resolution, 0 picks one from the triangle count
+   */
+  public int getResolution() {
+    return resolution;
+  }
+
+  /**
+   * Sets the number of grid cells along the longest side of the mesh bounds. Finer grids test fewer triangles
+   * per step but cost more memory and more cells to walk through.
+   * @param resolution - the resolution, 0 picks one from the triangle count
+   */
+  public void setResolution(int resolution) {
+    this.resolution = resolution;
+    invalidate();
+  }
+
+  /**
+   * Drops the cached triangles, they are rebuilt the next time they are needed
+   */
+  public void invalidate() {
+    grid = null;
+  }
+
+  /**
+   * Gets a counter that changes every time the cached triangles are rebuilt. Anything derived from the
+   * clearance is stale once it changes.
+   * @return the revision
+   */
+  public int getRevision() {
+    return revision;
+  }
+
+  @Override
+  public void update() {
+    if (geometry != null && (grid == null || !gridTransform.equals(geometry.getWorldTransform()))) {
+      build();
+    }
+  }
+
+  @Override
+  public float collide(Vector3f start, Vector3f move, Vector3f normalStore) {
+    return collide(start, move, normalStore, null, 0);
+  }
+
+  /**
+   * Finds where a particle moving from start by move first hits a triangle. The triangle stored in
+   * triangles[index] is tested first and accepted without walking the grid if it is hit, particles resting on
+   * or sliding along a surface keep hitting the same triangle.
+   *
+   * @param start - the world position at the start of the step
+   * @param move - the distance traveled during the step
+   * @param normalStore - receives the triangle normal facing against the move
+   * @param triangles - per caller triangle cache, may be null
+   * @param index - the slot in triangles, receives the triangle hit or -1
+   * @return the fraction 0-1 of move at the contact, or NO_HIT
+   */
+  public float collide(Vector3f start, Vector3f move, Vector3f normalStore, int[] triangles, int index) {
+    Grid g = getGrid();
+    if (g == null || g.count == 0) {
+      return NO_HIT;
+    }
+
+    if (triangles != null) {
+      int last = triangles[index];
+      if (last >= 0 && last < g.count) {
+        float t = g.intersect(last, start, move);
+        if (t != NO_HIT) {
+          g.normal(last, move, normalStore);
+          return t;
+        }
+      }
+    }
+
+    int hit = g.trace(start, move);
+    if (triangles != null) {
+      triangles[index] = hit;
+    }
+    if (hit < 0) {
+      return NO_HIT;
+    }
+    g.normal(hit, move, normalStore);
+    return g.intersect(hit, start, move);
+  }
+
+  /**
+   * Gets a distance a particle at the given position can travel in any direction without touching a triangle.
+   * The value is conservative, the nearest triangle is usually further away.
+   *
+   * @param position - world position
+   * @return the clearance
+   */
+  public float getClearance(Vector3f position) {
+    Grid g = getGrid();
+    if (g == null || g.count == 0) {
+      return Float.MAX_VALUE;
+    }
+    return g.clearance(position.x, position.y, position.z);
+  }
+
+  private Grid getGrid() {
+    Grid g = grid;
+    if (g == null && geometry != null) {
+      g = build();
+    }
+    return g;
+  }
+
+  private synchronized Grid build() {
+    Transform transform = geometry.getWorldTransform();
+    Mesh mesh = geometry.getMesh();
+    int count = mesh.getTriangleCount();
+    float[] tris = new float[count * 9];
+    float[] bounds = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE,
+        -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+    Vector3f[] v = {new Vector3f(), new Vector3f(), new Vector3f()};
+    for (int i = 0; i < count; i++) {
+      mesh.getTriangle(i, v[0], v[1], v[2]);
+      for (int k = 0; k < 3; k++) {
+        transform.transformVector(v[k], v[k]);
+        bounds[0] = Math.min(bounds[0], v[k].x);
+        bounds[1] = Math.min(bounds[1], v[k].y);
+        bounds[2] = Math.min(bounds[2], v[k].z);
+        bounds[3] = Math.max(bounds[3], v[k].x);
+        bounds[4] = Math.max(bounds[4], v[k].y);
+        bounds[5] = Math.max(bounds[5], v[k].z);
+      }
+      // stored as the first corner and the two edges leaving it
+      int o = i * 9;
+      tris[o] = v[0].x;
+      tris[o + 1] = v[0].y;
+      tris[o + 2] = v[0].z;
+      tris[o + 3] = v[1].x - v[0].x;
+      tris[o + 4] = v[1].y - v[0].y;
+      tris[o + 5] = v[1].z - v[0].z;
+      tris[o + 6] = v[2].x - v[0].x;
+      tris[o + 7] = v[2].y - v[0].y;
+      tris[o + 8] = v[2].z - v[0].z;
+    }
+
+    Grid g = new Grid(tris, count, bounds, resolution);
+    gridTransform.set(transform);
+    revision++;
+    grid = g;
+    return g;
+  }
+
+  /**
+   * Immutable triangle cache, swapped as a whole so emitters stepping on other threads never see a partial build
+   */
+  private static final class Grid {
+    final float[] tris;
+    final int count;
+    final float minX, minY, minZ, maxX, maxY, maxZ;
+    final float cellSize;
+    final int nx, ny, nz;
+    // the triangles of cell c are cellTris[cellStart[c]] to cellTris[cellStart[c + 1] - 1]
+    final int[] cellStart;
+    final int[] cellTris;
+    // chebyshev distance in cells to the nearest cell holding a triangle
+    final int[] distance;
+
+    Grid(float[] tris, int count, float[] bounds, int resolution) {
+      this.tris = tris;
+      this.count = count;
+      if (count == 0) {
+        minX = minY = minZ = maxX = maxY = maxZ = 0;
+        cellSize = 1;
+        nx = ny = nz = 0;
+        cellStart = cellTris = distance = new int[0];
+        return;
+      }
+
+      float extent = Math.max(bounds[3] - bounds[0], Math.max(bounds[4] - bounds[1], bounds[5] - bounds[2]));
+      if (extent <= 0) {
+        extent = 1;
+      }
+      // padded so flat meshes still have a volume and triangles on the bounds fall inside
+      float pad = extent * 0.001f;
+      minX = bounds[0] - pad;
+      minY = bounds[1] - pad;
+      minZ = bounds[2] - pad;
+      maxX = bounds[3] + pad;
+      maxY = bounds[4] + pad;
+      maxZ = bounds[5] + pad;
+
+      int res = resolution > 0 ? resolution
+          : Math.max(1, Math.min(MAX_RESOLUTION, (int) Math.ceil(2.0 * Math.cbrt(count))));
+      cellSize = (extent + pad * 2) / res;
+      nx = Math.max(1, Math.min(res, (int) Math.ceil((maxX - minX) / cellSize)));
+      ny = Math.max(1, Math.min(res, (int) Math.ceil((maxY - minY) / cellSize)));
+      nz = Math.max(1, Math.min(res, (int) Math.ceil((maxZ - minZ) / cellSize)));
+
+      // counting pass, then fill, each triangle goes in every cell its bounds overlap
+      int cells = nx * ny * nz;
+      cellStart = new int[cells + 1];
+      int[] range = new int[6];
+      for (int i = 0; i < count; i++) {
+        cellRange(i, range);
+        for (int z = range[2]; z <= range[5]; z++) {
+          for (int y = range[1]; y <= range[4]; y++) {
+            for (int x = range[0]; x <= range[3]; x++) {
+              cellStart[x + nx * (y + ny * z) + 1]++;
+            }
+          }
+        }
+      }
+      for (int c = 0; c < cells; c++) {
+        cellStart[c + 1] += cellStart[c];
+      }
+      cellTris = new int[cellStart[cells]];
+      int[] cursor = new int[cells];
+      System.arraycopy(cellStart, 0, cursor, 0, cells);
+      for (int i = 0; i < count; i++) {
+        cellRange(i, range);
+        for (int z = range[2]; z <= range[5]; z++) {
+          for (int y = range[1]; y <= range[4]; y++) {
+            for (int x = range[0]; x <= range[3]; x++) {
+              cellTris[cursor[x + nx * (y + ny * z)]++] = i;
+            }
+          }
+        }
+      }
+
+      // breadth first flood from the occupied cells
+      distance = new int[cells];
+      int[] queue = new int[cells];
+      int head = 0, tail = 0;
+      for (int c = 0; c < cells; c++) {
+        if (cellStart[c + 1] > cellStart[c]) {
+          queue[tail++] = c;
+        } else {
+          distance[c] = -1;
+        }
+      }
+      while (head < tail) {
+        int c = queue[head++];
+        int cx = c % nx, cy = (c / nx) % ny, cz = c / (nx * ny);
+        int next = distance[c] + 1;
+        for (int z = Math.max(0, cz - 1); z <= Math.min(nz - 1, cz + 1); z++) {
+          for (int y = Math.max(0, cy - 1); y <= Math.min(ny - 1, cy + 1); y++) {
+            for (int x = Math.max(0, cx - 1); x <= Math.min(nx - 1, cx + 1); x++) {
+              int n = x + nx * (y + ny * z);
+              if (distance[n] < 0) {
+                distance[n] = next;
+                queue[tail++] = n;
+              }
+            }
+          }
+        }
+      }
+    }
+
+    private void cellRange(int tri, int[] store) {
+      int o = tri * 9;
+      float x0 = tris[o], y0 = tris[o + 1], z0 = tris[o + 2];
+      float x1 = x0 + tris[o + 3], y1 = y0 + tris[o + 4], z1 = z0 + tris[o + 5];
+      float x2 = x0 + tris[o + 6], y2 = y0 + tris[o + 7], z2 = z0 + tris[o + 8];
+      store[0] = cellX(Math.min(x0, Math.min(x1, x2)));
+      store[1] = cellY(Math.min(y0, Math.min(y1, y2)));
+      store[2] = cellZ(Math.min(z0, Math.min(z1, z2)));
+      store[3] = cellX(Math.max(x0, Math.max(x1, x2)));
+      store[4] = cellY(Math.max(y0, Math.max(y1, y2)));
+      store[5] = cellZ(Math.max(z0, Math.max(z1, z2)));
+    }
+
+    private int cellX(float x) {
+      return Math.max(0, Math.min(nx - 1, (int) ((x - minX) / cellSize)));
+    }
+
+    private int cellY(float y) {
+      return Math.max(0, Math.min(ny - 1, (int) ((y - minY) / cellSize)));
+    }
+
+    private int cellZ(float z) {
+      return Math.max(0, Math.min(nz - 1, (int) ((z - minZ) / cellSize)));
+    }
+
+    float clearance(float x, float y, float z) {
+      float dx = Math.max(Math.max(minX - x, x - maxX), 0);
+      float dy = Math.max(Math.max(minY - y, y - maxY), 0);
+      float dz = Math.max(Math.max(minZ - z, z - maxZ), 0);
+      if (dx > 0 || dy > 0 || dz > 0) {
+        return FastMath.sqrt(dx * dx + dy * dy + dz * dz);
+      }
+      // every cell closer than the distance is empty, so the particle is at least that many whole cells away
+      int d = distance[cellX(x) + nx * (cellY(y) + ny * cellZ(z))];
+      return Math.max(0, d - 1) * cellSize;
+    }
+
+    /**
+     * Walks the cells the segment passes through in order and returns the first triangle hit
+     */
+    int trace(Vector3f start, Vector3f move) {
+      float sx = start.x, sy = start.y, sz = start.z;
+      float mx = move.x, my = move.y, mz = move.z;
+
+      // clip the segment to the grid bounds
+      float t0 = 0, t1 = 1;
+      if (mx != 0) {
+        float a = (minX - sx) / mx, b = (maxX - sx) / mx;
+        t0 = Math.max(t0, Math.min(a, b));
+        t1 = Math.min(t1, Math.max(a, b));
+      } else if (sx < minX || sx > maxX) {
+        return -1;
+      }
+      if (my != 0) {
+        float a = (minY - sy) / my, b = (maxY - sy) / my;
+        t0 = Math.max(t0, Math.min(a, b));
+        t1 = Math.min(t1, Math.max(a, b));
+      } else if (sy < minY || sy > maxY) {
+        return -1;
+      }
+      if (mz != 0) {
+        float a = (minZ - sz) / mz, b = (maxZ - sz) / mz;
+        t0 = Math.max(t0, Math.min(a, b));
+        t1 = Math.min(t1, Math.max(a, b));
+      } else if (sz < minZ || sz > maxZ) {
+        return -1;
+      }
+      if (t0 > t1) {
+        return -1;
+      }
+
+      int x = cellX(sx + mx * t0), y = cellY(sy + my * t0), z = cellZ(sz + mz * t0);
+      int stepX = mx > 0 ? 1 : mx < 0 ? -1 : 0;
+      int stepY = my > 0 ? 1 : my < 0 ? -1 : 0;
+      int stepZ = mz > 0 ? 1 : mz < 0 ? -1 : 0;
+      float nextX = boundary(sx, mx, minX, x, stepX), deltaX = stepX == 0 ? Float.MAX_VALUE : cellSize / Math.abs(mx);
+      float nextY = boundary(sy, my, minY, y, stepY), deltaY = stepY == 0 ? Float.MAX_VALUE : cellSize / Math.abs(my);
+      float nextZ = boundary(sz, mz, minZ, z, stepZ), deltaZ = stepZ == 0 ? Float.MAX_VALUE : cellSize / Math.abs(mz);
+
+      while (true) {
+        int c = x + nx * (y + ny * z);
+        float exit = Math.min(nextX, Math.min(nextY, nextZ));
+        float best = Float.MAX_VALUE;
+        int hit = -1;
+        for (int k = cellStart[c], end = cellStart[c + 1]; k < end; k++) {
+          int tri = cellTris[k];
+          float t = intersect(tri, start, move);
+          if (t != NO_HIT && t < best) {
+            best = t;
+            hit = tri;
+          }
+        }
+        // a hit beyond this cell may be behind a triangle in a cell further along
+        if (hit >= 0 && best <= exit) {
+          return hit;
+        }
+        if (exit > t1) {
+          return -1;
+        }
+        if (nextX == exit) {
+          x += stepX;
+          nextX += deltaX;
+          if (x < 0 || x >= nx) {
+            return -1;
+          }
+        } else if (nextY == exit) {
+          y += stepY;
+          nextY += deltaY;
+          if (y < 0 || y >= ny) {
+            return -1;
+          }
+        } else {
+          z += stepZ;
+          nextZ += deltaZ;
+          if (z < 0 || z >= nz) {
+            return -1;
+          }
+        }
+      }
+    }
+
+    private float boundary(float s, float m, float min, int cell, int step) {
+      if (step == 0) {
+        return Float.MAX_VALUE;
+      }
+      float edge = min + (step > 0 ? cell + 1 : cell) * cellSize;
+      return (edge - s) / m;
+    }
+
+    /**
+     * Moller-Trumbore against the segment, two sided
+     */
+    float intersect(int tri, Vector3f start, Vector3f move) {
+      int o = tri * 9;
+      float e1x = tris[o + 3], e1y = tris[o + 4], e1z = tris[o + 5];
+      float e2x = tris[o + 6], e2y = tris[o + 7], e2z = tris[o + 8];
+      float px = move.y * e2z - move.z * e2y;
+      float py = move.z * e2x - move.x * e2z;
+      float pz = move.x * e2y - move.y * e2x;
+      float det = e1x * px + e1y * py + e1z * pz;
+      if (det == 0) {
+        return NO_HIT;
+      }
+      float inv = 1.0f / det;
+      float sx = start.x - tris[o], sy = start.y - tris[o + 1], sz = start.z - tris[o + 2];
+      float u = (sx * px + sy * py + sz * pz) * inv;
+      if (u < 0 || u > 1) {
+        return NO_HIT;
+      }
+      float qx = sy * e1z - sz * e1y;
+      float qy = sz * e1x - sx * e1z;
+      float qz = sx * e1y - sy * e1x;
+      float v = (move.x * qx + move.y * qy + move.z * qz) * inv;
+      if (v < 0 || u + v > 1) {
+        return NO_HIT;
+      }
+      float t = (e2x * qx + e2y * qy + e2z * qz) * inv;
+      if (t < 0 || t > 1) {
+        return NO_HIT;
+      }
+      return t;
+    }
+
+    void normal(int tri, Vector3f move, Vector3f store) {
+      int o = tri * 9;
+      float e1x = tris[o + 3], e1y = tris[o + 4], e1z = tris[o + 5];
+      float e2x = tris[o + 6], e2y = tris[o + 7], e2z = tris[o + 8];
+      store.set(e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x).normalizeLocal();
+      if (store.dot(move) > 0) {
+        store.negateLocal();
+      }
+    }
+  }
+
+  @Override
+  public MeshCollider clone() {
+    MeshCollider clone = (MeshCollider) super.clone();
+    // the grid is immutable, clones share it until their geometry moves
+    clone.gridTransform = gridTransform.clone();
+    return clone;
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(geometry, "geometry", null);
+    oc.write(resolution, "resolution", 0);
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    InputCapsule ic = im.getCapsule(this);
+    geometry = (Geometry) ic.readSavable("geometry", null);
+    resolution = ic.readInt("resolution", 0);
+    invalidate();
+  }
+}
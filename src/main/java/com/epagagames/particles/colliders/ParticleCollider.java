@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.colliders;
+
+import com.jme3.export.Savable;
+import com.jme3.math.Vector3f;
+
+/**
+ * Particle Collider
+ * An analytic shape particles bounce off. Colliders are tested in world space against the path a particle
+ * travels in one step and report the first contact in closed form without allocating.
+ */
+public abstract class ParticleCollider implements Savable, Cloneable {
+
+  /**
+   * Returned by collide when the particle doesn't hit the collider
+   */
+  public static final float NO_HIT = -1.0f;
+
+  /**
+   * Finds where a particle moving from start by move first hits the outside of the collider
+   *
+   * @param start - the world position at the start of the step
+   * @param move - the distance traveled during the step
+   * @param normalStore - receives the outward surface normal at the contact
+   * @return the fraction 0-1 of move at the contact, or NO_HIT
+   */
+  public abstract float collide(Vector3f start, Vector3f move, Vector3f normalStore);
+
+  /**
+   * Called once per frame on the main thread before particles are tested. Colliders that follow scene
+   * geometry refresh their cached data here.
+   */
+  public void update() {}
+
+  @Override
+  public ParticleCollider clone() {
+    try {
+      return (ParticleCollider) super.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new AssertionError();
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.colliders;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Vector3f;
+
+import java.io.IOException;
+
+/**
+ * Plane Collider
+ * An infinite plane, particles bounce off its front side
+ */
+public class PlaneCollider extends ParticleCollider {
+
+  private Vector3f normal = new Vector3f(0, 1, 0);
+  private float constant;
+
+  public PlaneCollider() {
+
+  }
+
+  /**
+   * @param normal - the direction the front side of the plane faces
+   * @param point - a point on the plane
+   */
+  public PlaneCollider(Vector3f normal, Vector3f point) {
+    setPlane(normal, point);
+  }
+
+  public void setPlane(Vector3f normal, Vector3f point) {
+    this.normal.set(normal).normalizeLocal();
+    this.constant = this.normal.dot(point);
+  }
+
+  public Vector3f getNormal() {
+    return normal;
+  }
+
+  public float getConstant() {
+    return constant;
+  }
+
+  @Override
+  public float collide(Vector3f start, Vector3f move, Vector3f normalStore) {
+    float startDistance = normal.dot(start) - constant;
+    float speed = normal.dot(move);
+    if (startDistance < 0 || speed >= 0 || startDistance + speed >= 0) {
+      return NO_HIT;
+    }
+    normalStore.set(normal);
+    return startDistance / -speed;
+  }
+
+  @Override
+  public PlaneCollider clone() {
+    PlaneCollider clone = (PlaneCollider) super.clone();
+    clone.normal = normal.clone();
+    return clone;
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(normal, "normal", new Vector3f(0, 1, 0));
+    oc.write(constant, "constant", 0.0f);
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    InputCapsule ic = im.getCapsule(this);
+    normal = (Vector3f) ic.readSavable("normal", new Vector3f(0, 1, 0));
+    constant = ic.readFloat("constant", 0.0f);
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.colliders;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+
+import java.io.IOException;
+
+/**
+ * Sphere Collider
+ * A solid sphere particles bounce off
+ */
+public class SphereCollider extends ParticleCollider {
+
+  private Vector3f center = new Vector3f();
+  private float radius = 1.0f;
+
+  public SphereCollider() {
+
+  }
+
+  public SphereCollider(Vector3f center, float radius) {
+    this.center.set(center);
+    this.radius = radius;
+  }
+
+  public Vector3f getCenter() {
+    return center;
+  }
+
+  public void setCenter(Vector3f center) {
+    this.center.set(center);
+  }
+
+  public float getRadius() {
+    return radius;
+  }
+
+  public void setRadius(float radius) {
+    this.radius = radius;
+  }
+
+  @Override
+  public float collide(Vector3f start, Vector3f move, Vector3f normalStore) {
+    float ox = start.x - center.x, oy = start.y - center.y, oz = start.z - center.z;
+    float a = move.x * move.x + move.y * move.y + move.z * move.z;
+    float b = ox * move.x + oy * move.y + oz * move.z;
+    float c = ox * ox + oy * oy + oz * oz - radius * radius;
+    // starting inside or moving away
+    if (c < 0 || b >= 0 || a == 0) {
+      return NO_HIT;
+    }
+    float disc = b * b - a * c;
+    if (disc < 0) {
+      return NO_HIT;
+    }
+    float t = (-b - FastMath.sqrt(disc)) / a;
+    if (t > 1) {
+      return NO_HIT;
+    }
+    normalStore.set(ox + move.x * t, oy + move.y * t, oz + move.z * t).divideLocal(radius);
+    return t;
+  }
+
+  @Override
+  public SphereCollider clone() {
+    SphereCollider clone = (SphereCollider) super.clone();
+    clone.center = center.clone();
+    return clone;
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(center, "center", new Vector3f());
+    oc.write(radius, "radius", 1.0f);
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    InputCapsule ic = im.getCapsule(this);
+    center = (Vector3f) ic.readSavable("center", new Vector3f());
+    radius = ic.readFloat("radius", 1.0f);
+  }
+}
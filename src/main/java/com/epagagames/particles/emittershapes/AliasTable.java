@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.emittershapes;
+
+import java.util.Random;
+
+/**
+ * Alias Table
+ * Walker's alias method for picking an index with a probability proportional to its weight in constant time.
+ * Emitter shapes use it to pick triangles by area and pixels by brightness.
+ */
+public final class AliasTable {
+
+  private final float[] probability;
+  private final int[] alias;
+  private final float totalWeight;
+
+  /**
+   * Builds the table (Vose's variant, O(n))
+   *
+   * @param weights - the non negative weight of each index. If all weights are zero every index is equally likely.
+   */
+  public AliasTable(float[] weights) {
+    int n = weights.length;
+    if (n == 0) {
+      throw new IllegalArgumentException("AliasTable needs at least one weight");
+    }
+    probability = new float[n];
+    alias = new int[n];
+
+    double total = 0;
+    for (float w : weights) {
+      total += Math.max(w, 0);
+    }
+    totalWeight = (float) total;
+
+    if (total <= 0) {
+      for (int i = 0; i < n; i++) {
+        probability[i] = 1.0f;
+        alias[i] = i;
+      }
+      return;
+    }
+
+    double[] scaled = new double[n];
+    int[] small = new int[n];
+    int[] large = new int[n];
+    int smallCount = 0, largeCount = 0;
+    for (int i = 0; i < n; i++) {
+      scaled[i] = Math.max(weights[i], 0) * n / total;
+      if (scaled[i] < 1.0) {
+        small[smallCount++] = i;
+      } else {
+        large[largeCount++] = i;
+      }
+    }
+
+    while (smallCount > 0 && largeCount > 0) {
+      int s = small[--smallCount];
+      int l = large[--largeCount];
+      probability[s] = (float) scaled[s];
+      alias[s] = l;
+      scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+      if (scaled[l] < 1.0) {
+        small[smallCount++] = l;
+      } else {
+        large[largeCount++] = l;
+      }
+    }
+    // whatever is left is 1 up to rounding error
+    while (largeCount > 0) {
+      int l = large[--largeCount];
+      probability[l] = 1.0f;
+      alias[l] = l;
+    }
+    while (smallCount > 0) {
+      int s = small[--smallCount];
+      probability[s] = 1.0f;
+      alias[s] = s;
+    }
+  }
+
+  /**
+   * Picks an index
+   *
+   * @param random - the random source
+   * @return an index with a probability proportional to its weight
+   */
+  public int sample(Random random) {
+    int i = random.nextInt(probability.length);
+    return random.nextFloat() < probability[i] ? i : alias[i];
+  }
+
+  /**
+   * Picks an index from two uniform random values
+   *
+   * @param u1 - random value 0-1 selecting the column
+   * @param u2 - random value 0-1 selecting between the column and its alias
+   * @return an index with a probability proportional to its weight
+   */
+  public int sample(float u1, float u2) {
+    int i = Math.min((int) (u1 * probability.length), probability.length - 1);
+    return u2 < probability[i] ? i : alias[i];
+  }
+
+  public int size() {
+    return probability.length;
+  }
+
+  /**
+   * @return the sum of the weights the table was built from
+   */
+  public float getTotalWeight() {
+    return totalWeight;
+  }
+}
@@ -45,6 +45,7 @@ import com.jme3.scene.Spatial;
 import com.jme3.scene.shape.Cylinder;
 
 import java.io.IOException;
+import java.util.Random;
 
 /**
  * Emitter Circle
@@ -59,8 +60,6 @@ public class EmitterCircle extends EmitterShape {
   private float arc = FastMath.PI * 2.0f;
   private float radiusThickness = 1.0f;
 
-  private transient Vector3f nextDirection = new Vector3f();
-  private transient Vector3f nextPosition = new Vector3f();
   private transient Quaternion temp = new Quaternion();
 
   public EmitterCircle() {
@@ -99,6 +98,33 @@ public class EmitterCircle extends EmitterShape {
     applyRootBehaviors();
   }
 
+  @Override
+  public void sample(int count, Random random, float[] positions, float[] directions, int[] indices) {
+    for (int i = 0; i < count; i++) {
+      int o = i * 3;
+      // (1, 0, 0) rotated around y
+      float azimuth = arc * random.nextFloat();
+      float len = radius * (random.nextFloat() * radiusThickness + (1 - radiusThickness));
+      positions[o] = FastMath.cos(azimuth) * len;
+      positions[o + 1] = 0;
+      positions[o + 2] = -FastMath.sin(azimuth) * len;
+
+      float dx = 2.0f * (random.nextFloat() - 0.5f);
+      float dz = 2.0f * (random.nextFloat() - 0.5f);
+      float dlen = FastMath.sqrt(dx * dx + dz * dz);
+      if (dlen != 0) {
+        dx /= dlen;
+        dz /= dlen;
+      }
+      directions[o] = dx;
+      directions[o + 1] = 0;
+      directions[o + 2] = dz;
+
+      applyRootBehaviors(random, positions, directions, o);
+      if (indices != null) indices[i] = -1;
+    }
+  }
+
   public float getRadius() {
     return radius;
   }
@@ -46,6 +46,7 @@ import com.jme3.scene.Spatial;
 import com.jme3.scene.shape.Cylinder;
 
 import java.io.IOException;
+import java.util.Random;
 
 /**
  * Emitter Cone
@@ -118,6 +119,42 @@ public class EmitterCone extends EmitterShape {
     applyRootBehaviors();
   }
 
+  @Override
+  public void sample(int count, Random random, float[] positions, float[] directions, int[] indices) {
+    float spread = (float) Math.atan(angle);
+    for (int i = 0; i < count; i++) {
+      int o = i * 3;
+      // (1, 0, 0) rotated around y
+      float azimuth = arc * random.nextFloat();
+      float cosAzimuth = FastMath.cos(azimuth);
+      float sinAzimuth = FastMath.sin(azimuth);
+      if (emitFromVolume) {
+        float height = random.nextFloat() * length;
+        float calcRadius = radius + spread * height;
+        float len = calcRadius * (random.nextFloat() * radiusThickness + (1 - radiusThickness));
+        positions[o] = cosAzimuth * len;
+        positions[o + 1] = height;
+        positions[o + 2] = -sinAzimuth * len;
+      } else {
+        float len = radius * (random.nextFloat() * radiusThickness + (1 - radiusThickness));
+        positions[o] = cosAzimuth * len;
+        positions[o + 1] = 0;
+        positions[o + 2] = -sinAzimuth * len;
+      }
+
+      // (0, 1, 0) rotated around z then around y
+      float tilt = angle * random.nextFloat();
+      float turn = arc * random.nextFloat();
+      float sinTilt = FastMath.sin(tilt);
+      directions[o] = -sinTilt * FastMath.cos(turn);
+      directions[o + 1] = FastMath.cos(tilt);
+      directions[o + 2] = sinTilt * FastMath.sin(turn);
+
+      applyRootBehaviors(random, positions, directions, o);
+      if (indices != null) indices[i] = -1;
+    }
+  }
+
   public float getAngle() {
     return angle;
   }
@@ -0,0 +1,579 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.emittershapes;
+
+import com.epagagames.particles.EmitterShape;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.material.Material;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.shape.Quad;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.texture.image.ImageRaster;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Emitter Image
+ * Emits particles from the pixels of an image, with more particles from brighter (or more opaque) pixels.
+ * The image is either laid out on a plane in the XZ plane facing up, or mapped onto a mesh through its
+ * texture coordinates.
+ *
+ * The emission points and an alias table over the pixel weights are built once on first use, so every
+ * emission is constant time. Call invalidate() after changing the image data.
+ */
+public class EmitterImage extends EmitterShape {
+
+  private Texture texture;
+  private Geometry mesh;
+  private float width = 1.0f;
+  private float height = 1.0f;
+  private boolean useAlpha = true;
+  private float threshold = 0.01f;
+  private boolean emitFromWorldSpace = true;
+
+  // emission points, 3 floats per point, in plane or mesh local space
+  private transient float[] points;
+  private transient float[] normals;
+  private transient AliasTable pointTable;
+  private transient int pointCount;
+  // size of a pixel on the plane, points are jittered within their pixel
+  private transient float cellWidth, cellHeight;
+  // mesh points only, the local offsets of one pixel step along the image x and y on the triangle of each point,
+  // 6 floats per point. Points are jittered along them within their pixel.
+  private transient float[] pixelAxes;
+  private transient int index;
+  // transform of the mesh taken in update, a pipelined emitter samples on a worker thread while the scene graph
+  // updates the live transform
+  private transient Transform meshTransform = new Transform();
+  private transient boolean hasMeshTransform = false;
+
+  public EmitterImage() {
+
+  }
+
+  /**
+   * Emits from an image laid out on a plane
+   *
+   * @param texture - the image to emit from
+   * @param width - the size of the plane along x
+   * @param height - the size of the plane along z
+   */
+  public EmitterImage(Texture texture, float width, float height) {
+    this.texture = texture;
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Emits from an image mapped onto a mesh through its texture coordinates
+   *
+   * @param texture - the image to emit from
+   * @param mesh - the geometry the image is mapped onto
+   */
+  public EmitterImage(Texture texture, Geometry mesh) {
+    this.texture = texture;
+    this.mesh = mesh;
+  }
+
+  public Texture getTexture() {
+    return texture;
+  }
+
+  public void setTexture(Texture texture) {
+    this.texture = texture;
+    invalidate();
+  }
+
+  public Geometry getMesh() {
+    return mesh;
+  }
+
+  /**
+   * Sets the geometry the image is mapped onto, or null to lay the image out on a plane
+   * @param mesh - the geometry, it needs texture coordinates
+   */
+  public void setMesh(Geometry mesh) {
+    this.mesh = mesh;
+    hasMeshTransform = false;
+    invalidate();
+  }
+
+  @Override
+  public void update(float tpf) {
+    if (mesh != null) {
+      meshTransform.set(emitFromWorldSpace ? mesh.getWorldTransform() : mesh.getLocalTransform());
+      hasMeshTransform = true;
+    }
+  }
+
+  private Transform getMeshTransform() {
+    if (hasMeshTransform) {
+      return meshTransform;
+    }
+    return emitFromWorldSpace ? mesh.getWorldTransform() : mesh.getLocalTransform();
+  }
+
+  /**
+   * When mapped onto a mesh the points are placed by the mesh transform, like EmitterMesh
+   * @return true if the image is mapped onto a mesh
+   */
+  @Override
+  public boolean isEmittingInWorldSpace() {
+    return mesh != null;
+  }
+
+  public float getWidth() {
+    return width;
+  }
+
+  public float getHeight() {
+    return height;
+  }
+
+  public void setSize(float width, float height) {
+    this.width = width;
+    this.height = height;
+    invalidate();
+  }
+
+  public boolean isUseAlpha() {
+    return useAlpha;
+  }
+
+  /**
+   * Selects the pixel weight
+   * @param useAlpha - if true, pixels are weighted by alpha. If false, by their luminance.
+   */
+  public void setUseAlpha(boolean useAlpha) {
+    this.useAlpha = useAlpha;
+    invalidate();
+  }
+
+  public float getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Pixels with a weight at or below the threshold never emit
+   * @param threshold - the minimum pixel weight 0-1
+   */
+  public void setThreshold(float threshold) {
+    this.threshold = threshold;
+    invalidate();
+  }
+
+  public boolean isEmitFromWorldSpace() {
+    return emitFromWorldSpace;
+  }
+
+  /**
+   * Only used when mapped onto a mesh
+   * @param emitFromWorldSpace - if true, the world transform of the mesh is used, otherwise its local transform
+   */
+  public void setEmitFromWorldSpace(boolean emitFromWorldSpace) {
+    this.emitFromWorldSpace = emitFromWorldSpace;
+    hasMeshTransform = false;
+  }
+
+  /**
+   * Drops the emission points, they are rebuilt on the next emission
+   */
+  public void invalidate() {
+    points = null;
+    normals = null;
+    pixelAxes = null;
+    pointTable = null;
+    pointCount = 0;
+  }
+
+  /**
+   * @return the number of points the image emits from
+   */
+  public int getPointCount() {
+    validate();
+    return pointCount;
+  }
+
+  private void validate() {
+    if (points != null) {
+      return;
+    }
+    if (texture == null || texture.getImage() == null) {
+      points = new float[0];
+      normals = new float[0];
+      pointCount = 0;
+      return;
+    }
+
+    Image image = texture.getImage();
+    ImageRaster raster = ImageRaster.create(image);
+    int w = raster.getWidth();
+    int h = raster.getHeight();
+    float[] pixelWeights = new float[w * h];
+    ColorRGBA pixel = new ColorRGBA();
+    for (int y = 0; y < h; y++) {
+      for (int x = 0; x < w; x++) {
+        raster.getPixel(x, y, pixel);
+        float weight = useAlpha ? pixel.a : 0.299f * pixel.r + 0.587f * pixel.g + 0.114f * pixel.b;
+        pixelWeights[y * w + x] = weight > threshold ? weight : 0;
+      }
+    }
+
+    if (mesh == null) {
+      buildPlanePoints(pixelWeights, w, h);
+    } else {
+      buildMeshPoints(pixelWeights, w, h);
+    }
+  }
+
+  private void buildPlanePoints(float[] pixelWeights, int w, int h) {
+    int count = 0;
+    for (float weight : pixelWeights) {
+      if (weight > 0) count++;
+    }
+
+    float[] p = new float[count * 3];
+    float[] n = new float[count * 3];
+    float[] weights = new float[count];
+    cellWidth = width / w;
+    cellHeight = height / h;
+    int i = 0;
+    for (int y = 0; y < h; y++) {
+      for (int x = 0; x < w; x++) {
+        float weight = pixelWeights[y * w + x];
+        if (weight > 0) {
+          // image rows start at the bottom, the bottom row ends up nearest to +z
+          p[i * 3] = (x + 0.5f) * cellWidth - width * 0.5f;
+          p[i * 3 + 2] = height * 0.5f - (y + 0.5f) * cellHeight;
+          n[i * 3 + 1] = 1.0f;
+          weights[i++] = weight;
+        }
+      }
+    }
+    finishPoints(p, n, weights, count);
+  }
+
+  private void buildMeshPoints(float[] pixelWeights, int w, int h) {
+    Mesh m = mesh.getMesh();
+    FloatBuffer positions = m.getFloatBuffer(VertexBuffer.Type.Position);
+    FloatBuffer texCoords = m.getFloatBuffer(VertexBuffer.Type.TexCoord);
+    if (positions == null || texCoords == null) {
+      throw new IllegalStateException("EmitterImage needs a mesh with texture coordinates");
+    }
+
+    int triCount = m.getTriangleCount();
+    int[] tri = new int[3];
+    int capacity = 256;
+    float[] p = new float[capacity * 3];
+    float[] n = new float[capacity * 3];
+    float[] axes = new float[capacity * 6];
+    float[] weights = new float[capacity];
+    int count = 0;
+    Vector3f v1 = new Vector3f(), v2 = new Vector3f(), v3 = new Vector3f(), normal = new Vector3f();
+    Vector3f axisX = new Vector3f(), axisY = new Vector3f();
+    cellWidth = 0;
+    cellHeight = 0;
+    // a pixel on a shared edge or under overlapping uvs only emits from the first triangle covering it
+    boolean[] taken = new boolean[w * h];
+
+    for (int t = 0; t < triCount; t++) {
+      m.getTriangle(t, tri);
+      readVector(positions, tri[0], v1);
+      readVector(positions, tri[1], v2);
+      readVector(positions, tri[2], v3);
+      normal.set(v2).subtractLocal(v1).crossLocal(v3.x - v1.x, v3.y - v1.y, v3.z - v1.z).normalizeLocal();
+
+      // triangle in pixel space
+      float ax = texCoords.get(tri[0] * 2) * w, ay = texCoords.get(tri[0] * 2 + 1) * h;
+      float bx = texCoords.get(tri[1] * 2) * w, by = texCoords.get(tri[1] * 2 + 1) * h;
+      float cx = texCoords.get(tri[2] * 2) * w, cy = texCoords.get(tri[2] * 2 + 1) * h;
+      float det = (by - cy) * (ax - cx) + (cx - bx) * (ay - cy);
+      if (det == 0) {
+        continue;
+      }
+      // the barycentric coordinates are linear in pixel space, so a pixel step moves the point by a fixed offset
+      float l1x = (by - cy) / det, l2x = (cy - ay) / det;
+      float l1y = (cx - bx) / det, l2y = (ax - cx) / det;
+      axisX.set(v1.x - v3.x, v1.y - v3.y, v1.z - v3.z).multLocal(l1x)
+          .addLocal((v2.x - v3.x) * l2x, (v2.y - v3.y) * l2x, (v2.z - v3.z) * l2x);
+      axisY.set(v1.x - v3.x, v1.y - v3.y, v1.z - v3.z).multLocal(l1y)
+          .addLocal((v2.x - v3.x) * l2y, (v2.y - v3.y) * l2y, (v2.z - v3.z) * l2y);
+
+      int minX = Math.max(0, (int) Math.floor(Math.min(ax, Math.min(bx, cx))));
+      int maxX = Math.min(w - 1, (int) Math.ceil(Math.max(ax, Math.max(bx, cx))));
+      int minY = Math.max(0, (int) Math.floor(Math.min(ay, Math.min(by, cy))));
+      int maxY = Math.min(h - 1, (int) Math.ceil(Math.max(ay, Math.max(by, cy))));
+
+      for (int y = minY; y <= maxY; y++) {
+        for (int x = minX; x <= maxX; x++) {
+          float weight = pixelWeights[y * w + x];
+          if (weight <= 0 || taken[y * w + x]) {
+            continue;
+          }
+          float px = x + 0.5f, py = y + 0.5f;
+          float l1 = ((by - cy) * (px - cx) + (cx - bx) * (py - cy)) / det;
+          float l2 = ((cy - ay) * (px - cx) + (ax - cx) * (py - cy)) / det;
+          float l3 = 1.0f - l1 - l2;
+          if (l1 < 0 || l2 < 0 || l3 < 0) {
+            continue;
+          }
+          taken[y * w + x] = true;
+
+          if (count == capacity) {
+            capacity *= 2;
+            p = Arrays.copyOf(p, capacity * 3);
+            n = Arrays.copyOf(n, capacity * 3);
+            axes = Arrays.copyOf(axes, capacity * 6);
+            weights = Arrays.copyOf(weights, capacity);
+          }
+          int o = count * 3;
+          p[o] = v1.x * l1 + v2.x * l2 + v3.x * l3;
+          p[o + 1] = v1.y * l1 + v2.y * l2 + v3.y * l3;
+          p[o + 2] = v1.z * l1 + v2.z * l2 + v3.z * l3;
+          n[o] = normal.x;
+          n[o + 1] = normal.y;
+          n[o + 2] = normal.z;
+          int a = count * 6;
+          axes[a] = axisX.x;
+          axes[a + 1] = axisX.y;
+          axes[a + 2] = axisX.z;
+          axes[a + 3] = axisY.x;
+          axes[a + 4] = axisY.y;
+          axes[a + 5] = axisY.z;
+          weights[count++] = weight;
+        }
+      }
+    }
+    pixelAxes = axes;
+    finishPoints(p, n, weights, count);
+  }
+
+  private static void readVector(FloatBuffer buffer, int vertex, Vector3f store) {
+    store.set(buffer.get(vertex * 3), buffer.get(vertex * 3 + 1), buffer.get(vertex * 3 + 2));
+  }
+
+  private void finishPoints(float[] p, float[] n, float[] weights, int count) {
+    pointTable = count > 0 ? new AliasTable(count == weights.length ? weights : Arrays.copyOf(weights, count)) : null;
+    pointCount = count;
+    normals = n;
+    points = p;
+  }
+
+  @Override
+  public Spatial getDebugShape(Material mat, boolean ignoreTransforms) {
+    Geometry geometry;
+    if (mesh == null) {
+      geometry = new Geometry("DebugShape", new Quad(width, height));
+      geometry.rotate(-FastMath.HALF_PI, 0, 0);
+      geometry.setLocalTranslation(-width * 0.5f, 0, height * 0.5f);
+    } else {
+      geometry = new Geometry("DebugShape", mesh.getMesh());
+      geometry.setLocalTransform(mesh.getWorldTransform().clone());
+    }
+    geometry.setMaterial(mat);
+    return geometry;
+  }
+
+  @Override
+  public void setNext() {
+    validate();
+    setNext(pointTable != null ? pointTable.sample(FastMath.rand) : -1);
+  }
+
+  @Override
+  public void setNext(int index) {
+    validate();
+    this.index = index;
+    if (index < 0 || index >= pointCount) {
+      nextPosition.zero();
+      nextDirection.set(0, 1, 0);
+      applyRootBehaviors();
+      return;
+    }
+
+    int o = index * 3;
+    nextPosition.set(points[o], points[o + 1], points[o + 2]);
+    nextDirection.set(normals[o], normals[o + 1], normals[o + 2]);
+    if (mesh == null) {
+      nextPosition.x += (FastMath.nextRandomFloat() - 0.5f) * cellWidth;
+      nextPosition.z += (FastMath.nextRandomFloat() - 0.5f) * cellHeight;
+    } else {
+      // the pixel footprint follows the plane of the triangle, near an edge it can reach less than a pixel past it
+      float jx = FastMath.nextRandomFloat() - 0.5f;
+      float jy = FastMath.nextRandomFloat() - 0.5f;
+      int a = index * 6;
+      nextPosition.addLocal(pixelAxes[a] * jx + pixelAxes[a + 3] * jy, pixelAxes[a + 1] * jx + pixelAxes[a + 4] * jy,
+          pixelAxes[a + 2] * jx + pixelAxes[a + 5] * jy);
+      Transform transform = getMeshTransform();
+      transform.transformVector(nextPosition, nextPosition);
+      transform.getRotation().mult(nextDirection, nextDirection);
+    }
+    applyRootBehaviors();
+  }
+
+  @Override
+  public void sample(int count, Random random, float[] positions, float[] directions, int[] indices) {
+    validate();
+    if (pointTable == null) {
+      super.sample(count, random, positions, directions, indices);
+      return;
+    }
+
+    Transform transform = null;
+    if (mesh != null) {
+      transform = getMeshTransform();
+    }
+    for (int i = 0; i < count; i++) {
+      int point = pointTable.sample(random);
+      int p = point * 3;
+      int o = i * 3;
+      if (transform == null) {
+        positions[o] = points[p] + (random.nextFloat() - 0.5f) * cellWidth;
+        positions[o + 1] = points[p + 1];
+        positions[o + 2] = points[p + 2] + (random.nextFloat() - 0.5f) * cellHeight;
+        directions[o] = normals[p];
+        directions[o + 1] = normals[p + 1];
+        directions[o + 2] = normals[p + 2];
+      } else {
+        float jx = random.nextFloat() - 0.5f;
+        float jy = random.nextFloat() - 0.5f;
+        int a = point * 6;
+        tempVec.set(points[p] + pixelAxes[a] * jx + pixelAxes[a + 3] * jy,
+            points[p + 1] + pixelAxes[a + 1] * jx + pixelAxes[a + 4] * jy,
+            points[p + 2] + pixelAxes[a + 2] * jx + pixelAxes[a + 5] * jy);
+        transform.transformVector(tempVec, tempVec);
+        positions[o] = tempVec.x;
+        positions[o + 1] = tempVec.y;
+        positions[o + 2] = tempVec.z;
+        tempVec.set(normals[p], normals[p + 1], normals[p + 2]);
+        transform.getRotation().mult(tempVec, tempVec);
+        directions[o] = tempVec.x;
+        directions[o + 1] = tempVec.y;
+        directions[o + 2] = tempVec.z;
+      }
+      applyRootBehaviors(random, positions, directions, o);
+      if (indices != null) indices[i] = point;
+    }
+  }
+
+  @Override
+  public int getIndex() {
+    return index;
+  }
+
+  @Override
+  public Vector3f getNextTranslation() {
+    return nextPosition;
+  }
+
+  /**
+   * Pixels are already picked by setNext(), there is no extra offset to add
+   * @return a zero vector, must not be modified
+   */
+  @Override
+  public Vector3f getRandomTranslation() {
+    return Vector3f.ZERO;
+  }
+
+  @Override
+  public Vector3f getNextDirection() {
+    return nextDirection;
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    super.write(ex);
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(texture, "texture", null);
+    oc.write(mesh, "mesh", null);
+    oc.write(width, "width", 1.0f);
+    oc.write(height, "height", 1.0f);
+    oc.write(useAlpha, "usealpha", true);
+    oc.write(threshold, "threshold", 0.01f);
+    oc.write(emitFromWorldSpace, "emitfromworldspace", true);
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    super.read(im);
+    InputCapsule ic = im.getCapsule(this);
+    texture = (Texture) ic.readSavable("texture", null);
+    mesh = (Geometry) ic.readSavable("mesh", null);
+    width = ic.readFloat("width", 1.0f);
+    height = ic.readFloat("height", 1.0f);
+    useAlpha = ic.readBoolean("usealpha", true);
+    threshold = ic.readFloat("threshold", 0.01f);
+    emitFromWorldSpace = ic.readBoolean("emitfromworldspace", true);
+    invalidate();
+  }
+
+  @Override
+  public EmitterImage clone() {
+    try {
+      EmitterImage clone = (EmitterImage) super.clone();
+      clone.meshTransform = meshTransform.clone();
+      return clone;
+    } catch (Exception e) {
+      throw new AssertionError();
+    }
+  }
+
+  public boolean equals(Object o) {
+    if (!super.equals(o)) return false;
+    if (!(o instanceof EmitterImage)) return false;
+
+    EmitterImage check = (EmitterImage)o;
+
+    if (texture != null ? !texture.equals(check.texture) : check.texture != null) return false;
+    if (mesh != null ? !mesh.equals(check.mesh) : check.mesh != null) return false;
+    if (width != check.width) return false;
+    if (height != check.height) return false;
+    if (useAlpha != check.useAlpha) return false;
+    if (threshold != check.threshold) return false;
+
+    return true;
+  }
+}
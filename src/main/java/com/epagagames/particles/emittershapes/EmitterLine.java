@@ -44,6 +44,7 @@ import com.jme3.scene.Spatial;
 import com.jme3.scene.shape.Line;
 
 import java.io.IOException;
+import java.util.Random;
 
 /**
  * Emitter Line
@@ -55,8 +56,6 @@ public class EmitterLine extends EmitterShape {
 
   private float radius = 1.0f;
 
-  private transient Vector3f nextDirection = new Vector3f();
-  private transient Vector3f nextPosition = new Vector3f();
 
   public EmitterLine() {
 
@@ -85,6 +84,22 @@ public class EmitterLine extends EmitterShape {
     applyRootBehaviors();
   }
 
+  @Override
+  public void sample(int count, Random random, float[] positions, float[] directions, int[] indices) {
+    for (int i = 0; i < count; i++) {
+      int o = i * 3;
+      positions[o] = radius * (2.0f * (random.nextFloat() - 0.5f));
+      positions[o + 1] = 0;
+      positions[o + 2] = 0;
+      directions[o] = 0;
+      directions[o + 1] = 1;
+      directions[o + 2] = 0;
+
+      applyRootBehaviors(random, positions, directions, o);
+      if (indices != null) indices[i] = -1;
+    }
+  }
+
   public float getRadius() {
     return radius;
   }
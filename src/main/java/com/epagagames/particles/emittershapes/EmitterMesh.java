@@ -37,21 +37,38 @@ import com.jme3.export.InputCapsule;
 import com.jme3.export.JmeExporter;
 import com.jme3.export.JmeImporter;
 import com.jme3.export.OutputCapsule;
+import com.jme3.anim.SkinningControl;
 import com.jme3.material.Material;
 import com.jme3.math.FastMath;
+import com.jme3.math.Matrix4f;
 import com.jme3.math.Transform;
 import com.jme3.math.Triangle;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Geometry;
 import com.jme3.scene.Mesh;
 import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
 
 import java.io.IOException;
+import java.util.Random;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 /**
  * EmitterMesh
  * Defines an emitter that emits particles from a mesh
  *
+ * The triangles of the mesh are copied once into an array so emitting doesn't have to go through the
+ * index buffer, and picked with an alias table over their areas so every part of the surface emits
+ * equally. Call invalidate() after modifying the vertex data of the mesh in place.
+ *
+ * In skinned mode particles are emitted from the current pose of a mesh animated by a SkinningControl or
+ * SkeletonControl on the geometry or one of its parents. Only the triangles that are picked are skinned,
+ * once per frame, from the bind pose. Triangles are still picked by their bind pose area.
+ *
  * @author t0neg0d
  * @author Jeddic
  */
@@ -68,6 +85,31 @@ public class EmitterMesh extends EmitterShape {
 	private int triCount;
 
 	private boolean emitFromWorldSpace = true;
+	private boolean areaWeighted = true;
+	private boolean skinned = false;
+
+	// mesh local triangle corners, 9 floats per triangle, built on first use
+	private transient float[] triVerts;
+	private transient AliasTable areaTable;
+	private transient Mesh cachedMesh;
+	private transient Buffer cachedPositions;
+	private transient Buffer cachedIndices;
+	// scale the area table was built for, rotation and translation don't change the areas
+	private transient float cachedScaleX, cachedScaleY, cachedScaleZ;
+
+	// skinned mode: corner vertex indices, bone data and the triangles skinned in the current frame
+	private transient int[] triIndices;
+	private transient Buffer boneIndices;
+	private transient FloatBuffer boneWeights;
+	// copy of the bone matrices taken in update, the armature rewrites its own array while rendering
+	private transient Matrix4f[] skinningMatrices;
+	private transient float[] deformedVerts;
+	private transient int[] deformedFrame;
+	private transient int frame;
+	// transform of the mesh taken in update, a pipelined emitter samples on a worker thread while the scene
+	// graph updates the live transform
+	private transient Transform meshTransform = new Transform();
+	private transient boolean hasMeshTransform = false;
 
 	public EmitterMesh() {
 
@@ -95,6 +137,240 @@ public class EmitterMesh extends EmitterShape {
 
 	public void setEmitFromWorldSpace(boolean emitFromWorldSpace) {
 		this.emitFromWorldSpace = emitFromWorldSpace;
+		hasMeshTransform = false;
+	}
+
+	public boolean isAreaWeighted() {
+		return areaWeighted;
+	}
+
+	/**
+	 * Sets how triangles are picked
+	 * @param areaWeighted - if true, triangles are picked with a probability proportional to their area.
+	 *                     If false, every triangle is equally likely.
+	 */
+	public void setAreaWeighted(boolean areaWeighted) {
+		this.areaWeighted = areaWeighted;
+	}
+
+	public boolean isSkinned() {
+		return skinned;
+	}
+
+	/**
+	 * Sets if particles are emitted from the animated pose of the mesh
+	 * @param skinned - if true, emission follows the SkinningControl or SkeletonControl animating the mesh
+	 */
+	public void setSkinned(boolean skinned) {
+		this.skinned = skinned;
+		invalidate();
+	}
+
+	@Override
+	public void update(float tpf) {
+		if (mesh == null) {
+			return;
+		}
+		meshTransform.set(emitFromWorldSpace ? mesh.getWorldTransform() : mesh.getLocalTransform());
+		hasMeshTransform = true;
+		if (!skinned) {
+			return;
+		}
+		frame++;
+		Matrix4f[] bones = findSkinningMatrices();
+		if (bones == null) {
+			skinningMatrices = null;
+			return;
+		}
+		Matrix4f[] copy = skinningMatrices;
+		if (copy == null || copy.length != bones.length) {
+			copy = new Matrix4f[bones.length];
+			for (int i = 0; i < copy.length; i++) {
+				copy[i] = new Matrix4f();
+			}
+		}
+		for (int i = 0; i < copy.length; i++) {
+			copy[i].set(bones[i]);
+		}
+		skinningMatrices = copy;
+	}
+
+	private Transform getMeshTransform() {
+		if (hasMeshTransform) {
+			return meshTransform;
+		}
+		return emitFromWorldSpace ? mesh.getWorldTransform() : mesh.getLocalTransform();
+	}
+
+	private Matrix4f[] findSkinningMatrices() {
+		for (Spatial s = mesh; s != null; s = s.getParent()) {
+			SkinningControl skinning = s.getControl(SkinningControl.class);
+			if (skinning != null) {
+				return skinning.getArmature().computeSkinningMatrices();
+			}
+			Matrix4f[] legacy = findLegacySkinningMatrices(s);
+			if (legacy != null) {
+				return legacy;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Models imported with the old animation system are still animated by a SkeletonControl.
+	 * It's deprecated in jME 3.3 but kept supported here, the lookup is isolated so the
+	 * deprecation warning stays in one place.
+	 */
+	@SuppressWarnings("deprecation")
+	private static Matrix4f[] findLegacySkinningMatrices(Spatial s) {
+		com.jme3.animation.SkeletonControl skeleton = s.getControl(com.jme3.animation.SkeletonControl.class);
+		return skeleton != null ? skeleton.getSkeleton().computeSkinningMatrices() : null;
+	}
+
+	/**
+	 * Returns the array holding the corners of the triangle at triangle * 9, skinning it first if needed
+	 */
+	private float[] getCorners(int triangle) {
+		if (!skinned || skinningMatrices == null || boneWeights == null) {
+			return triVerts;
+		}
+		if (deformedFrame[triangle] != frame) {
+			for (int k = 0; k < 3; k++) {
+				skinVertex(triIndices[triangle * 3 + k], triangle * 9 + k * 3);
+			}
+			deformedFrame[triangle] = frame;
+		}
+		return deformedVerts;
+	}
+
+	private void skinVertex(int vertex, int o) {
+		float x = triVerts[o], y = triVerts[o + 1], z = triVerts[o + 2];
+		float rx = 0, ry = 0, rz = 0;
+		for (int j = vertex * 4; j < vertex * 4 + 4; j++) {
+			float weight = boneWeights.get(j);
+			if (weight == 0) {
+				continue;
+			}
+			Matrix4f m = skinningMatrices[getBoneIndex(j)];
+			rx += weight * (m.m00 * x + m.m01 * y + m.m02 * z + m.m03);
+			ry += weight * (m.m10 * x + m.m11 * y + m.m12 * z + m.m13);
+			rz += weight * (m.m20 * x + m.m21 * y + m.m22 * z + m.m23);
+		}
+		deformedVerts[o] = rx;
+		deformedVerts[o + 1] = ry;
+		deformedVerts[o + 2] = rz;
+	}
+
+	private int getBoneIndex(int i) {
+		if (boneIndices instanceof ByteBuffer) {
+			return ((ByteBuffer) boneIndices).get(i) & 0xff;
+		}
+		if (boneIndices instanceof ShortBuffer) {
+			return ((ShortBuffer) boneIndices).get(i) & 0xffff;
+		}
+		return ((IntBuffer) boneIndices).get(i);
+	}
+
+	/**
+	 * Drops the cached triangles and area table. They are rebuilt automatically when the mesh or its
+	 * buffers are replaced or the scale changes, this is only needed after editing the vertex data in place.
+	 */
+	public void invalidate() {
+		triVerts = null;
+		areaTable = null;
+		triIndices = null;
+		deformedVerts = null;
+		deformedFrame = null;
+		cachedMesh = null;
+		cachedPositions = null;
+		cachedIndices = null;
+	}
+
+	private void validateCache(Transform transform) {
+		Mesh m = mesh.getMesh();
+		VertexBuffer positions = m.getBuffer(VertexBuffer.Type.Position);
+		VertexBuffer indices = m.getBuffer(VertexBuffer.Type.Index);
+		Buffer positionData = positions != null ? positions.getData() : null;
+		Buffer indexData = indices != null ? indices.getData() : null;
+		if (triVerts == null || m != cachedMesh || positionData != cachedPositions || indexData != cachedIndices) {
+			buildTriangles(m);
+			cachedMesh = m;
+			cachedPositions = positionData;
+			cachedIndices = indexData;
+			areaTable = null;
+		}
+
+		Vector3f scale = transform.getScale();
+		if (areaWeighted && (areaTable == null || scale.x != cachedScaleX || scale.y != cachedScaleY
+				|| scale.z != cachedScaleZ)) {
+			buildAreaTable(scale);
+		}
+	}
+
+	private void buildTriangles(Mesh m) {
+		triCount = m.getTriangleCount();
+		if (skinned) {
+			buildSkinnedTriangles(m);
+			return;
+		}
+		float[] verts = new float[triCount * 9];
+		for (int i = 0, o = 0; i < triCount; i++, o += 9) {
+			m.getTriangle(i, p1, p2, p3);
+			verts[o] = p1.x; verts[o + 1] = p1.y; verts[o + 2] = p1.z;
+			verts[o + 3] = p2.x; verts[o + 4] = p2.y; verts[o + 5] = p2.z;
+			verts[o + 6] = p3.x; verts[o + 7] = p3.y; verts[o + 8] = p3.z;
+		}
+		triVerts = verts;
+	}
+
+	private void buildSkinnedTriangles(Mesh m) {
+		// software skinning overwrites the positions, the bind pose is kept in its own buffer
+		VertexBuffer bindPose = m.getBuffer(VertexBuffer.Type.BindPosePosition);
+		VertexBuffer positions = bindPose != null ? bindPose : m.getBuffer(VertexBuffer.Type.Position);
+		FloatBuffer source = (FloatBuffer) positions.getData();
+		VertexBuffer indexBuffer = m.getBuffer(VertexBuffer.Type.BoneIndex);
+		VertexBuffer weightBuffer = m.getBuffer(VertexBuffer.Type.BoneWeight);
+		boneIndices = indexBuffer != null ? indexBuffer.getData() : null;
+		boneWeights = weightBuffer != null && boneIndices != null ? (FloatBuffer) weightBuffer.getData() : null;
+
+		int[] corners = new int[3];
+		int[] indices = new int[triCount * 3];
+		float[] verts = new float[triCount * 9];
+		for (int i = 0, o = 0; i < triCount; i++) {
+			m.getTriangle(i, corners);
+			for (int k = 0; k < 3; k++, o += 3) {
+				int v = corners[k];
+				indices[i * 3 + k] = v;
+				verts[o] = source.get(v * 3);
+				verts[o + 1] = source.get(v * 3 + 1);
+				verts[o + 2] = source.get(v * 3 + 2);
+			}
+		}
+		triIndices = indices;
+		deformedVerts = new float[triCount * 9];
+		deformedFrame = new int[triCount];
+		triVerts = verts;
+	}
+
+	private void buildAreaTable(Vector3f scale) {
+		float[] verts = triVerts;
+		float[] areas = new float[triCount];
+		for (int i = 0, o = 0; i < triCount; i++, o += 9) {
+			float ax = (verts[o + 3] - verts[o]) * scale.x;
+			float ay = (verts[o + 4] - verts[o + 1]) * scale.y;
+			float az = (verts[o + 5] - verts[o + 2]) * scale.z;
+			float bx = (verts[o + 6] - verts[o]) * scale.x;
+			float by = (verts[o + 7] - verts[o + 1]) * scale.y;
+			float bz = (verts[o + 8] - verts[o + 2]) * scale.z;
+			float cx = ay * bz - az * by;
+			float cy = az * bx - ax * bz;
+			float cz = ax * by - ay * bx;
+			areas[i] = 0.5f * (float) Math.sqrt(cx * cx + cy * cy + cz * cz);
+		}
+		areaTable = new AliasTable(areas);
+		cachedScaleX = scale.x;
+		cachedScaleY = scale.y;
+		cachedScaleZ = scale.z;
 	}
 
 	@Override
@@ -112,7 +388,9 @@ public class EmitterMesh extends EmitterShape {
 	 */
 	public final void setShape(Geometry mesh) {
 		this.mesh = mesh;
+		hasMeshTransform = false;
 		triCount = mesh.getTriangleCount();
+		invalidate();
 	}
 	
 	/**
@@ -127,8 +405,10 @@ public class EmitterMesh extends EmitterShape {
 	 * Selects a random face as the next particle emission point
 	 */
 	public void setNext() {
-		triangleIndex = FastMath.rand.nextInt(triCount);
-		setNext(triangleIndex);
+		Transform transform = getMeshTransform();
+		validateCache(transform);
+		triangleIndex = areaWeighted ? areaTable.sample(FastMath.rand) : FastMath.rand.nextInt(triCount);
+		setTriangle(triangleIndex, transform);
 	}
 	
 	/**
@@ -136,48 +416,52 @@ public class EmitterMesh extends EmitterShape {
 	 * @param triangleIndex The index of the face to set as the particle emission point
 	 */
 	public void setNext(int triangleIndex) {
-		Mesh m = mesh.getMesh();
-		Transform transform = emitFromWorldSpace ? mesh.getWorldTransform()
-				                                     : mesh.getLocalTransform();
-		m.getTriangle(triangleIndex, p1, p2, p3);
+		Transform transform = getMeshTransform();
+		validateCache(transform);
+		setTriangle(triangleIndex, transform);
+	}
+
+	@Override
+	public void sample(int count, Random random, float[] positions, float[] directions, int[] indices) {
+		Transform transform = getMeshTransform();
+		validateCache(transform);
+		for (int i = 0; i < count; i++) {
+			int tri = areaWeighted ? areaTable.sample(random) : random.nextInt(triCount);
+			float[] verts = getCorners(tri);
+			int v = tri * 9;
+			p1.set(verts[v], verts[v + 1], verts[v + 2]);
+			p2.set(verts[v + 3], verts[v + 4], verts[v + 5]);
+			p3.set(verts[v + 6], verts[v + 7], verts[v + 8]);
+			transform.transformVector(p1, p1);
+			transform.transformVector(p2, p2);
+			transform.transformVector(p3, p3);
+
+			int o = i * 3;
+			positions[o] = (p1.x + p2.x + p3.x) / 3.0f;
+			positions[o + 1] = (p1.y + p2.y + p3.y) / 3.0f;
+			positions[o + 2] = (p1.z + p2.z + p3.z) / 3.0f;
+
+			a.set(p2).subtractLocal(p1);
+			b.set(p3).subtractLocal(p1);
+			a.crossLocal(b).normalizeLocal();
+			directions[o] = a.x;
+			directions[o + 1] = a.y;
+			directions[o + 2] = a.z;
+			if (indices != null) indices[i] = tri;
+		}
+	}
+
+	private void setTriangle(int triangleIndex, Transform transform) {
+		float[] verts = getCorners(triangleIndex);
+		int o = triangleIndex * 9;
+		p1.set(verts[o], verts[o + 1], verts[o + 2]);
+		p2.set(verts[o + 3], verts[o + 4], verts[o + 5]);
+		p3.set(verts[o + 6], verts[o + 7], verts[o + 8]);
 		transform.transformVector(p1, triStore.get1());
 		transform.transformVector(p2, triStore.get2());
 		transform.transformVector(p3, triStore.get3());
 		triStore.calculateCenter();
 		triStore.calculateNormal();
-
-//			Mesh m = mesh.getMesh();
-//
-////		Transform transform = emitFromWorldSpace ? mesh.getWorldTransform()
-////				                                     : mesh.getLocalTransform();
-////		m.getTriangle(triangleIndex, p1, p2, p3);
-////		transform.transformVector(p1, triStore.get1());
-////		transform.transformVector(p2, triStore.get2());
-////		transform.transformVector(p3, triStore.get3());
-////		triStore.calculateCenter();
-////		triStore.calculateNormal();
-//			if(emitFromWorldSpace){
-//				//mesh.setIgnoreTransform(false);
-//				Transform transform = mesh.getWorldTransform();
-//				m.getTriangle(triangleIndex, p1, p2, p3);
-//				transform.transformVector(p1, triStore.get1());
-//				transform.transformVector(p2, triStore.get2());
-//				transform.transformVector(p3, triStore.get3());
-//			}else if(!emitFromWorldSpace){
-//				// mesh.setIgnoreTransform(true);
-//				Transform transform = mesh.getWorldTransform();//mesh.getLocalTransform();
-//
-//				transform.setRotation(mesh.getLocalTransform().getRotation());
-//				transform.setTranslation(mesh.getLocalTransform().getTranslation());
-//
-//				m.getTriangle(triangleIndex, p1, p2, p3);
-//				transform.transformVector(p1, triStore.get1());
-//				transform.transformVector(p2, triStore.get2());
-//				transform.transformVector(p3, triStore.get3());
-//
-//			}
-//			triStore.calculateCenter();
-//			triStore.calculateNormal();
 	}
 	
 	/**
@@ -188,6 +472,15 @@ public class EmitterMesh extends EmitterShape {
 		return triangleIndex;
 	}
 	
+	/**
+	 * The mesh has its own transform so the emission points are already placed
+	 * @return true
+	 */
+	@Override
+	public boolean isEmittingInWorldSpace() {
+		return true;
+	}
+	
 	/**
 	 * Returns the local position of the center of the selected face
 	 * @return A Vector3f representing the local translation of the selected emission point
@@ -196,21 +489,24 @@ public class EmitterMesh extends EmitterShape {
 		return triStore.getCenter();
 	}
 	
+	/**
+	 * Returns a uniformly distributed point on the selected face, relative to its center
+	 * @return A Vector3f containing the offset from the center of the selected emission point
+	 */
 	public Vector3f getRandomTranslation() {
-		p1.set(triStore.get1().subtract(triStore.getCenter()));
-		p2.set(triStore.get2().subtract(triStore.getCenter()));
-		p3.set(triStore.get3().subtract(triStore.getCenter()));
-		
-		a.interpolateLocal(p1, p2, 1f- FastMath.rand.nextFloat());
-		b.interpolateLocal(p1, p3, 1f- FastMath.rand.nextFloat());
-		result.interpolateLocal(a,b, FastMath.rand.nextFloat());
-		
+		float r1 = FastMath.sqrt(FastMath.rand.nextFloat());
+		float r2 = FastMath.rand.nextFloat();
+		float w1 = 1.0f - r1;
+		float w2 = r1 * (1.0f - r2);
+		float w3 = r1 * r2;
+		Vector3f v1 = triStore.get1();
+		Vector3f v2 = triStore.get2();
+		Vector3f v3 = triStore.get3();
+		Vector3f center = triStore.getCenter();
+		result.set(v1.x * w1 + v2.x * w2 + v3.x * w3 - center.x,
+				v1.y * w1 + v2.y * w2 + v3.y * w3 - center.y,
+				v1.z * w1 + v2.z * w2 + v3.z * w3 - center.z);
 		return result;
-		/*
-		return (p1.interpolate(p2, FastMath.rand.nextFloat()))
-			.addLocal(p4.interpolate(p3, FastMath.rand.nextFloat()))
-			.divideLocal(2f);
-		*/
 	}
 	
 	/**
@@ -221,11 +517,21 @@ public class EmitterMesh extends EmitterShape {
 		return triStore.getNormal();
 	}
 
+	@Override
+	public EmitterMesh clone() {
+		EmitterMesh clone = (EmitterMesh) super.clone();
+		clone.meshTransform = meshTransform.clone();
+		clone.skinningMatrices = null;
+		return clone;
+	}
+
 	@Override
 	public void write(JmeExporter ex) throws IOException {
 		super.write(ex);
 		OutputCapsule oc = ex.getCapsule(this);
 		oc.write(mesh, "mesh", new TriangleEmitterShape(1));
+		oc.write(areaWeighted, "areaweighted", true);
+		oc.write(skinned, "skinned", false);
 	}
 
 	@Override
@@ -234,7 +540,9 @@ public class EmitterMesh extends EmitterShape {
 		InputCapsule ic = im.getCapsule(this);
 		mesh = (Geometry)ic.readSavable("mesh", new TriangleEmitterShape(1));
 		triCount = mesh.getTriangleCount();
-
+		areaWeighted = ic.readBoolean("areaweighted", true);
+		skinned = ic.readBoolean("skinned", false);
+		invalidate();
 	}
 
 
@@ -245,6 +553,8 @@ public class EmitterMesh extends EmitterShape {
 		EmitterMesh check = (EmitterMesh)o;
 
 		if (mesh != null && !mesh.equals(check.mesh) || mesh == null && check.mesh != null) return false;
+		if (areaWeighted != check.areaWeighted) return false;
+		if (skinned != check.skinned) return false;
 
 		return true;
 	}
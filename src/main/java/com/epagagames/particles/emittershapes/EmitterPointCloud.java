@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.emittershapes;
+
+import com.epagagames.particles.EmitterShape;
+import com.epagagames.particles.fields.MappedFiles;
+import com.epagagames.particles.valuetypes.PackedColor;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.material.Material;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Emitter Point Cloud
+ * Emits particles from a point set stored in a flat binary file. The file is memory mapped so even
+ * millions of points take no heap and load instantly.
+ *
+ * File layout, little endian: the int "PCLD" magic, the int point count, the int flags (1 normals,
+ * 2 colors, 4 weights), then one record per point of x, y, z floats, optionally nx, ny, nz floats, an
+ * ABGR color int and a weight float. Use write() to create a file.
+ *
+ * Points are picked uniformly, or by weight through an alias table when the file has weights. Particles
+ * emitted from a point take its color as a multiplier of their start color.
+ */
+public class EmitterPointCloud extends EmitterShape {
+
+  public static final int MAGIC = 0x444C4350;
+  public static final int HAS_NORMALS = 1;
+  public static final int HAS_COLORS = 2;
+  public static final int HAS_WEIGHTS = 4;
+  private static final int HEADER_SIZE = 12;
+  private static final int DEBUG_POINTS = 10000;
+
+  private String file;
+  private boolean useWeights = true;
+
+  private transient ByteBuffer data;
+  private transient int pointCount;
+  private transient int flags;
+  private transient int stride;
+  private transient int normalOffset, colorOffset, weightOffset;
+  private transient AliasTable weightTable;
+  private transient int index;
+  private transient float[] tempPosition = new float[3];
+  private transient float[] tempDirection = new float[3];
+
+  public EmitterPointCloud() {
+
+  }
+
+  public EmitterPointCloud(File file) throws IOException {
+    setFile(file);
+  }
+
+  /**
+   * Maps the point file
+   * @param file - the file to emit from
+   * @throws IOException if the file can't be read or isn't a point cloud file
+   */
+  public void setFile(File file) throws IOException {
+    this.file = file.getPath();
+    load();
+  }
+
+  public String getFile() {
+    return file;
+  }
+
+  public int getPointCount() {
+    return pointCount;
+  }
+
+  public boolean hasNormals() {
+    return (flags & HAS_NORMALS) != 0;
+  }
+
+  public boolean hasColors() {
+    return (flags & HAS_COLORS) != 0;
+  }
+
+  public boolean hasWeights() {
+    return (flags & HAS_WEIGHTS) != 0;
+  }
+
+  public boolean isUseWeights() {
+    return useWeights;
+  }
+
+  /**
+   * Selects how points are picked when the file has weights
+   * @param useWeights - if true, points are picked proportional to their weight. If false, uniformly.
+   */
+  public void setUseWeights(boolean useWeights) {
+    this.useWeights = useWeights;
+  }
+
+  private void load() throws IOException {
+    data = null;
+    pointCount = 0;
+    weightTable = null;
+
+    ByteBuffer buffer = MappedFiles.map(file, MAGIC, HEADER_SIZE, "point cloud");
+    int count = buffer.getInt(4);
+    int f = buffer.getInt(8);
+
+    int recordSize = 12;
+    normalOffset = recordSize;
+    if ((f & HAS_NORMALS) != 0) recordSize += 12;
+    colorOffset = recordSize;
+    if ((f & HAS_COLORS) != 0) recordSize += 4;
+    weightOffset = recordSize;
+    if ((f & HAS_WEIGHTS) != 0) recordSize += 4;
+    MappedFiles.checkSize(buffer, count < 0 ? -1 : HEADER_SIZE + (long) count * recordSize, file, "point cloud");
+
+    stride = recordSize;
+    flags = f;
+    pointCount = count;
+    data = buffer;
+
+    if (hasWeights() && pointCount > 0) {
+      float[] weights = new float[pointCount];
+      for (int i = 0; i < pointCount; i++) {
+        weights[i] = data.getFloat(HEADER_SIZE + i * stride + weightOffset);
+      }
+      weightTable = new AliasTable(weights);
+    }
+  }
+
+  private int pick(Random random) {
+    if (useWeights && weightTable != null) {
+      return weightTable.sample(random);
+    }
+    return random.nextInt(pointCount);
+  }
+
+  private void readPoint(int point, float[] positions, float[] directions, int o, Random random) {
+    int record = HEADER_SIZE + point * stride;
+    positions[o] = data.getFloat(record);
+    positions[o + 1] = data.getFloat(record + 4);
+    positions[o + 2] = data.getFloat(record + 8);
+    if (hasNormals()) {
+      directions[o] = data.getFloat(record + normalOffset);
+      directions[o + 1] = data.getFloat(record + normalOffset + 4);
+      directions[o + 2] = data.getFloat(record + normalOffset + 8);
+    } else {
+      // no normals, emit in a random direction
+      float dx = 2.0f * (random.nextFloat() - 0.5f);
+      float dy = 2.0f * (random.nextFloat() - 0.5f);
+      float dz = 2.0f * (random.nextFloat() - 0.5f);
+      float len = FastMath.sqrt(dx * dx + dy * dy + dz * dz);
+      if (len == 0) {
+        dy = len = 1;
+      }
+      directions[o] = dx / len;
+      directions[o + 1] = dy / len;
+      directions[o + 2] = dz / len;
+    }
+  }
+
+  @Override
+  public int getColorABGR(int index) {
+    if (!hasColors() || index < 0 || index >= pointCount) {
+      return PackedColor.WHITE;
+    }
+    return data.getInt(HEADER_SIZE + index * stride + colorOffset);
+  }
+
+  @Override
+  public Spatial getDebugShape(Material mat, boolean ignoreTransforms) {
+    int count = Math.min(pointCount, DEBUG_POINTS);
+    FloatBuffer positions = BufferUtils.createFloatBuffer(count * 3);
+    for (int i = 0; i < count; i++) {
+      int record = HEADER_SIZE + (int) ((long) i * pointCount / count) * stride;
+      positions.put(data.getFloat(record)).put(data.getFloat(record + 4)).put(data.getFloat(record + 8));
+    }
+    positions.flip();
+    Mesh mesh = new Mesh();
+    mesh.setMode(Mesh.Mode.Points);
+    mesh.setBuffer(VertexBuffer.Type.Position, 3, positions);
+    mesh.updateBound();
+    Geometry geometry = new Geometry("DebugShape", mesh);
+    geometry.setMaterial(mat);
+    return geometry;
+  }
+
+  @Override
+  public void setNext() {
+    setNext(pointCount > 0 ? pick(FastMath.rand) : -1);
+  }
+
+  @Override
+  public void setNext(int index) {
+    this.index = index;
+    if (index < 0 || index >= pointCount) {
+      nextPosition.zero();
+      nextDirection.set(0, 1, 0);
+    } else {
+      readPoint(index, tempPosition, tempDirection, 0, FastMath.rand);
+      nextPosition.set(tempPosition[0], tempPosition[1], tempPosition[2]);
+      nextDirection.set(tempDirection[0], tempDirection[1], tempDirection[2]);
+    }
+    applyRootBehaviors();
+  }
+
+  @Override
+  public void sample(int count, Random random, float[] positions, float[] directions, int[] indices) {
+    if (pointCount == 0) {
+      super.sample(count, random, positions, directions, indices);
+      return;
+    }
+    for (int i = 0; i < count; i++) {
+      int point = pick(random);
+      int o = i * 3;
+      readPoint(point, positions, directions, o, random);
+      applyRootBehaviors(random, positions, directions, o);
+      if (indices != null) indices[i] = point;
+    }
+  }
+
+  @Override
+  public int getIndex() {
+    return index;
+  }
+
+  @Override
+  public Vector3f getNextTranslation() {
+    return nextPosition;
+  }
+
+  /**
+   * Particles start exactly on their cloud point
+   * @return a zero vector, must not be modified
+   */
+  @Override
+  public Vector3f getRandomTranslation() {
+    return Vector3f.ZERO;
+  }
+
+  @Override
+  public Vector3f getNextDirection() {
+    return nextDirection;
+  }
+
+  /**
+   * Writes a point cloud file
+   *
+   * @param file - the file to write
+   * @param positions - x, y, z of each point
+   * @param normals - x, y, z of the normal of each point, or null
+   * @param colors - the ABGR color of each point, or null
+   * @param weights - the emission weight of each point, or null
+   * @throws IOException if the file can't be written
+   */
+  public static void write(File file, float[] positions, float[] normals, int[] colors, float[] weights)
+      throws IOException {
+    int count = positions.length / 3;
+    int f = (normals != null ? HAS_NORMALS : 0) | (colors != null ? HAS_COLORS : 0)
+        | (weights != null ? HAS_WEIGHTS : 0);
+    int recordSize = 12 + (normals != null ? 12 : 0) + (colors != null ? 4 : 0) + (weights != null ? 4 : 0);
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+         FileChannel channel = raf.getChannel()) {
+      raf.setLength(0);
+      ByteBuffer buffer = ByteBuffer.allocate(Math.max(HEADER_SIZE, recordSize * 4096))
+          .order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(MAGIC).putInt(count).putInt(f);
+      for (int i = 0; i < count; i++) {
+        if (buffer.remaining() < recordSize) {
+          buffer.flip();
+          while (buffer.hasRemaining()) channel.write(buffer);
+          buffer.clear();
+        }
+        buffer.putFloat(positions[i * 3]).putFloat(positions[i * 3 + 1]).putFloat(positions[i * 3 + 2]);
+        if (normals != null) {
+          buffer.putFloat(normals[i * 3]).putFloat(normals[i * 3 + 1]).putFloat(normals[i * 3 + 2]);
+        }
+        if (colors != null) buffer.putInt(colors[i]);
+        if (weights != null) buffer.putFloat(weights[i]);
+      }
+      buffer.flip();
+      while (buffer.hasRemaining()) channel.write(buffer);
+    }
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    super.write(ex);
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(file, "file", null);
+    oc.write(useWeights, "useweights", true);
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    super.read(im);
+    InputCapsule ic = im.getCapsule(this);
+    file = ic.readString("file", null);
+    useWeights = ic.readBoolean("useweights", true);
+    if (file != null) {
+      load();
+    }
+  }
+
+  @Override
+  public EmitterPointCloud clone() {
+    try {
+      EmitterPointCloud clone = (EmitterPointCloud) super.clone();
+      // the mapping is read only and can be shared, the buffer position is never used
+      return clone;
+    } catch (Exception e) {
+      throw new AssertionError();
+    }
+  }
+
+  public boolean equals(Object o) {
+    if (!super.equals(o)) return false;
+    if (!(o instanceof EmitterPointCloud)) return false;
+
+    EmitterPointCloud check = (EmitterPointCloud)o;
+
+    if (file != null ? !file.equals(check.file) : check.file != null) return false;
+    if (useWeights != check.useWeights) return false;
+
+    return true;
+  }
+}
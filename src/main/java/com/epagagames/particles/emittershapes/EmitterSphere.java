@@ -45,6 +45,7 @@ import com.jme3.scene.Spatial;
 import com.jme3.scene.shape.Sphere;
 
 import java.io.IOException;
+import java.util.Random;
 
 /**
  * Emitter Sphere
@@ -58,8 +59,6 @@ public class EmitterSphere extends EmitterShape {
   private float arc = FastMath.PI * 2.0f;
   private float radiusThickness = 1.0f;
 
-  private transient Vector3f nextDirection = new Vector3f();
-  private transient Vector3f nextPosition = new Vector3f();
   private transient Quaternion temp = new Quaternion();
   private transient Quaternion temp2 = new Quaternion();
 
@@ -104,6 +103,37 @@ public class EmitterSphere extends EmitterShape {
     applyRootBehaviors();
   }
 
+  @Override
+  public void sample(int count, Random random, float[] positions, float[] directions, int[] indices) {
+    for (int i = 0; i < count; i++) {
+      int o = i * 3;
+      // (0, 1, 0) rotated around z then around y
+      float polar = 3.14159f * random.nextFloat();
+      float azimuth = arc * random.nextFloat();
+      float sinPolar = FastMath.sin(polar);
+      float len = radius * (random.nextFloat() * radiusThickness + (1 - radiusThickness));
+      positions[o] = -sinPolar * FastMath.cos(azimuth) * len;
+      positions[o + 1] = FastMath.cos(polar) * len;
+      positions[o + 2] = sinPolar * FastMath.sin(azimuth) * len;
+
+      float dx = 2.0f * (random.nextFloat() - 0.5f);
+      float dy = 2.0f * (random.nextFloat() - 0.5f);
+      float dz = 2.0f * (random.nextFloat() - 0.5f);
+      float dlen = FastMath.sqrt(dx * dx + dy * dy + dz * dz);
+      if (dlen != 0) {
+        dx /= dlen;
+        dy /= dlen;
+        dz /= dlen;
+      }
+      directions[o] = dx;
+      directions[o + 1] = dy;
+      directions[o + 2] = dz;
+
+      applyRootBehaviors(random, positions, directions, o);
+      if (indices != null) indices[i] = -1;
+    }
+  }
+
   public float getRadius() {
     return radius;
   }
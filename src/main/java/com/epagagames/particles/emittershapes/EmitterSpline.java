@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.emittershapes;
+
+import com.epagagames.particles.EmitterShape;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.material.Material;
+import com.jme3.math.FastMath;
+import com.jme3.math.Spline;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.shape.Curve;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Emitter Spline
+ * Emits particles evenly along a catmull rom, bezier or linear spline.
+ *
+ * The spline is sampled once into a table of points with their distance along the path. Each emission
+ * picks a distance, finds it with a binary search and interpolates between the two surrounding points.
+ * The table is rebuilt when the length or the number of control points of the spline changes, call
+ * invalidate() after moving control points in a way that keeps both.
+ */
+public class EmitterSpline extends EmitterShape {
+
+  public enum DirectionMode {
+    /**
+     * Along the path
+     */
+    Tangent,
+    /**
+     * Horizontally away from the path, perpendicular to the tangent and the y axis
+     */
+    Normal,
+    /**
+     * A random direction perpendicular to the path
+     */
+    Radial
+  }
+
+  private Spline spline;
+  private int samplesPerSegment = 32;
+  private DirectionMode directionMode = DirectionMode.Tangent;
+
+  // distance along the path of each table point and the points themselves, 3 floats each
+  private transient float[] lengths;
+  private transient float[] points;
+  private transient float cachedSplineLength = -1;
+  private transient int cachedControlPoints = -1;
+  private transient int index;
+  private transient float[] tempPosition = new float[3];
+  private transient float[] tempDirection = new float[3];
+
+  public EmitterSpline() {
+
+  }
+
+  public EmitterSpline(Spline spline) {
+    setSpline(spline);
+  }
+
+  public Spline getSpline() {
+    return spline;
+  }
+
+  /**
+   * Sets the path to emit from
+   * @param spline - a catmull rom, bezier or linear spline
+   */
+  public void setSpline(Spline spline) {
+    if (spline != null && spline.getType() == Spline.SplineType.Nurb) {
+      throw new IllegalArgumentException("EmitterSpline doesn't support nurb splines");
+    }
+    this.spline = spline;
+    invalidate();
+  }
+
+  public int getSamplesPerSegment() {
+    return samplesPerSegment;
+  }
+
+  /**
+   * Sets how finely each spline segment is sampled into the length table
+   * @param samplesPerSegment - the number of table entries per segment
+   */
+  public void setSamplesPerSegment(int samplesPerSegment) {
+    this.samplesPerSegment = Math.max(1, samplesPerSegment);
+    invalidate();
+  }
+
+  public DirectionMode getDirectionMode() {
+    return directionMode;
+  }
+
+  public void setDirectionMode(DirectionMode directionMode) {
+    this.directionMode = directionMode;
+  }
+
+  /**
+   * Drops the length table, it is rebuilt on the next emission
+   */
+  public void invalidate() {
+    lengths = null;
+    points = null;
+  }
+
+  /**
+   * @return the length of the path
+   */
+  public float getLength() {
+    validate();
+    return lengths.length > 0 ? lengths[lengths.length - 1] : 0;
+  }
+
+  private void validate() {
+    if (spline == null) {
+      if (lengths == null) {
+        lengths = new float[0];
+        points = new float[0];
+      }
+      return;
+    }
+    if (lengths != null && spline.getTotalLength() == cachedSplineLength
+        && spline.getControlPoints().size() == cachedControlPoints) {
+      return;
+    }
+
+    int segments = spline.getControlPoints().size() < 2 ? 0 : spline.getSegmentsLength().size();
+    int step = spline.getType() == Spline.SplineType.Bezier ? 3 : 1;
+    int count = segments > 0 ? segments * samplesPerSegment + 1 : 0;
+    float[] l = new float[count];
+    float[] p = new float[count * 3];
+    Vector3f point = new Vector3f();
+    int k = 0;
+    for (int s = 0; s < segments; s++) {
+      // the first point of a segment is the last of the previous one
+      for (int j = s == 0 ? 0 : 1; j <= samplesPerSegment; j++) {
+        spline.interpolate((float) j / samplesPerSegment, s * step, point);
+        int o = k * 3;
+        p[o] = point.x;
+        p[o + 1] = point.y;
+        p[o + 2] = point.z;
+        if (k > 0) {
+          float dx = p[o] - p[o - 3], dy = p[o + 1] - p[o - 2], dz = p[o + 2] - p[o - 1];
+          l[k] = l[k - 1] + FastMath.sqrt(dx * dx + dy * dy + dz * dz);
+        }
+        k++;
+      }
+    }
+
+    points = p;
+    lengths = l;
+    cachedSplineLength = spline.getTotalLength();
+    cachedControlPoints = spline.getControlPoints().size();
+  }
+
+  /**
+   * Finds the table span containing the distance along the path
+   */
+  private int findSpan(float distance) {
+    int low = 0, high = lengths.length - 2;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (lengths[mid] <= distance) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Writes the point at fraction f of the span and the path direction there
+   */
+  private void evaluate(int span, float f, float rotation, float[] position, float[] direction, int o) {
+    int a = span * 3;
+    int b = a + 3;
+    float tx = points[b] - points[a];
+    float ty = points[b + 1] - points[a + 1];
+    float tz = points[b + 2] - points[a + 2];
+    position[o] = points[a] + tx * f;
+    position[o + 1] = points[a + 1] + ty * f;
+    position[o + 2] = points[a + 2] + tz * f;
+
+    float len = FastMath.sqrt(tx * tx + ty * ty + tz * tz);
+    if (len == 0) {
+      direction[o] = 0;
+      direction[o + 1] = 1;
+      direction[o + 2] = 0;
+      return;
+    }
+    tx /= len;
+    ty /= len;
+    tz /= len;
+    if (directionMode == DirectionMode.Tangent) {
+      direction[o] = tx;
+      direction[o + 1] = ty;
+      direction[o + 2] = tz;
+      return;
+    }
+
+    // tangent x up, or tangent x unit x when the path is vertical
+    float nx = -tz, ny = 0, nz = tx;
+    float nlen = FastMath.sqrt(nx * nx + nz * nz);
+    if (nlen < 0.0001f) {
+      nx = 0;
+      ny = tz;
+      nz = -ty;
+      nlen = FastMath.sqrt(ny * ny + nz * nz);
+    }
+    nx /= nlen;
+    ny /= nlen;
+    nz /= nlen;
+    if (directionMode == DirectionMode.Normal) {
+      direction[o] = nx;
+      direction[o + 1] = ny;
+      direction[o + 2] = nz;
+      return;
+    }
+
+    // radial, rotate the normal around the tangent
+    float bx = ty * nz - tz * ny;
+    float by = tz * nx - tx * nz;
+    float bz = tx * ny - ty * nx;
+    float cos = FastMath.cos(rotation), sin = FastMath.sin(rotation);
+    direction[o] = nx * cos + bx * sin;
+    direction[o + 1] = ny * cos + by * sin;
+    direction[o + 2] = nz * cos + bz * sin;
+  }
+
+  @Override
+  public Spatial getDebugShape(Material mat, boolean ignoreTransforms) {
+    Geometry geometry = new Geometry("DebugShape", new Curve(spline, samplesPerSegment));
+    geometry.setMaterial(mat);
+    return geometry;
+  }
+
+  @Override
+  public void setNext() {
+    validate();
+    if (lengths.length < 2) {
+      setNext(-1);
+      return;
+    }
+    float distance = FastMath.nextRandomFloat() * lengths[lengths.length - 1];
+    int span = findSpan(distance);
+    float spanLength = lengths[span + 1] - lengths[span];
+    float f = spanLength > 0 ? (distance - lengths[span]) / spanLength : 0;
+    setSpan(span, f);
+  }
+
+  /**
+   * Emits from a random point of the span of the length table
+   * @param index - the span index as returned by getIndex
+   */
+  @Override
+  public void setNext(int index) {
+    validate();
+    if (index < 0 || index >= lengths.length - 1) {
+      this.index = -1;
+      nextPosition.zero();
+      nextDirection.set(0, 1, 0);
+      applyRootBehaviors();
+      return;
+    }
+    setSpan(index, FastMath.nextRandomFloat());
+  }
+
+  private void setSpan(int span, float f) {
+    index = span;
+    evaluate(span, f, FastMath.nextRandomFloat() * FastMath.TWO_PI, tempPosition, tempDirection, 0);
+    nextPosition.set(tempPosition[0], tempPosition[1], tempPosition[2]);
+    nextDirection.set(tempDirection[0], tempDirection[1], tempDirection[2]);
+    applyRootBehaviors();
+  }
+
+  @Override
+  public void sample(int count, Random random, float[] positions, float[] directions, int[] indices) {
+    validate();
+    if (lengths.length < 2) {
+      super.sample(count, random, positions, directions, indices);
+      return;
+    }
+    float total = lengths[lengths.length - 1];
+    for (int i = 0; i < count; i++) {
+      float distance = random.nextFloat() * total;
+      int span = findSpan(distance);
+      float spanLength = lengths[span + 1] - lengths[span];
+      float f = spanLength > 0 ? (distance - lengths[span]) / spanLength : 0;
+      int o = i * 3;
+      evaluate(span, f, random.nextFloat() * FastMath.TWO_PI, positions, directions, o);
+      applyRootBehaviors(random, positions, directions, o);
+      if (indices != null) indices[i] = span;
+    }
+  }
+
+  @Override
+  public int getIndex() {
+    return index;
+  }
+
+  @Override
+  public Vector3f getNextTranslation() {
+    return nextPosition;
+  }
+
+  /**
+   * The point along the spline is already random, so a random emission point adds no offset. Returning the
+   * position would move particles twice as far from the emitter.
+   * @return a zero vector, must not be modified
+   */
+  @Override
+  public Vector3f getRandomTranslation() {
+    return Vector3f.ZERO;
+  }
+
+  @Override
+  public Vector3f getNextDirection() {
+    return nextDirection;
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    super.write(ex);
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(spline, "spline", null);
+    oc.write(samplesPerSegment, "samplespersegment", 32);
+    oc.write(directionMode, "directionmode", DirectionMode.Tangent);
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    super.read(im);
+    InputCapsule ic = im.getCapsule(this);
+    spline = (Spline) ic.readSavable("spline", null);
+    samplesPerSegment = ic.readInt("samplespersegment", 32);
+    directionMode = ic.readEnum("directionmode", DirectionMode.class, DirectionMode.Tangent);
+    invalidate();
+  }
+
+  @Override
+  public EmitterSpline clone() {
+    try {
+      EmitterSpline clone = (EmitterSpline) super.clone();
+      return clone;
+    } catch (Exception e) {
+      throw new AssertionError();
+    }
+  }
+
+  public boolean equals(Object o) {
+    if (!super.equals(o)) return false;
+    if (!(o instanceof EmitterSpline)) return false;
+
+    EmitterSpline check = (EmitterSpline)o;
+
+    if (spline != check.spline) return false;
+    if (samplesPerSegment != check.samplesPerSegment) return false;
+    if (directionMode != check.directionMode) return false;
+
+    return true;
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.fields;
+
+import com.jme3.math.FastMath;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Curl Noise
+ * Builds tileable volumes of curl noise, the curl of three channels of gradient noise. The result is
+ * divergence free so particles moving through it swirl like smoke instead of bunching up.
+ *
+ * Volumes are computed once per resolution and octave count and shared by everything that asks for them,
+ * sampling one is a handful of lookups instead of evaluating noise per particle.
+ */
+public final class CurlNoise {
+
+  // lattice cells across the volume at the first octave, doubled each octave after
+  private static final int BASE_PERIOD = 4;
+  private static final long SEED = 0x5EEDL;
+
+  private static final HashMap<Long, VectorField> volumes = new HashMap<>();
+
+  private CurlNoise() {
+
+  }
+
+  /**
+   * Gets the curl noise volume for the given settings, computing it on first use
+   *
+   * @param size - samples along each axis
+   * @param octaves - noise layers, each twice the frequency and half the amplitude of the last. Limited to
+   *                what the size can resolve.
+   * @return the shared volume, vectors average a length of about 1
+   */
+  public static VectorField getVolume(int size, int octaves) {
+    int s = Math.max(BASE_PERIOD * 2, size);
+    int o = Math.max(1, Math.min(octaves, maxOctaves(s)));
+    Long key = ((long) s << 32) | o;
+    synchronized (volumes) {
+      VectorField volume = volumes.get(key);
+      if (volume == null) {
+        volume = build(s, o);
+        volumes.put(key, volume);
+      }
+      return volume;
+    }
+  }
+
+  /**
+   * Gets the most octaves a volume of the given size resolves, the finest needs 2 samples per lattice cell
+   */
+  public static int maxOctaves(int size) {
+    int octaves = 1;
+    while (BASE_PERIOD << octaves <= size / 2) {
+      octaves++;
+    }
+    return octaves;
+  }
+
+  private static VectorField build(int size, int octaves) {
+    int count = size * size * size;
+    // the three potential channels use unrelated permutations
+    float[][] potential = new float[3][count];
+    for (int c = 0; c < 3; c++) {
+      int[] perm = permutation(SEED + c);
+      float[] channel = potential[c];
+      for (int z = 0; z < size; z++) {
+        for (int y = 0; y < size; y++) {
+          for (int x = 0; x < size; x++) {
+            float sum = 0;
+            float amplitude = 1;
+            for (int k = 0; k < octaves; k++) {
+              int period = BASE_PERIOD << k;
+              float scale = (float) period / size;
+              sum += noise(perm, x * scale, y * scale, z * scale, period) * amplitude;
+              amplitude *= 0.5f;
+            }
+            channel[x + size * (y + size * z)] = sum;
+          }
+        }
+      }
+    }
+
+    // curl by central differences, wrapping so the volume still tiles
+    float[] vectors = new float[count * 3];
+    float[] px = potential[0], py = potential[1], pz = potential[2];
+    double sumSquares = 0;
+    for (int z = 0; z < size; z++) {
+      int zn = (z + size - 1) % size, zp = (z + 1) % size;
+      for (int y = 0; y < size; y++) {
+        int yn = (y + size - 1) % size, yp = (y + 1) % size;
+        for (int x = 0; x < size; x++) {
+          int xn = (x + size - 1) % size, xp = (x + 1) % size;
+          int ix0 = xn + size * (y + size * z), ix1 = xp + size * (y + size * z);
+          int iy0 = x + size * (yn + size * z), iy1 = x + size * (yp + size * z);
+          int iz0 = x + size * (y + size * zn), iz1 = x + size * (y + size * zp);
+          float cx = (pz[iy1] - pz[iy0]) - (py[iz1] - py[iz0]);
+          float cy = (px[iz1] - px[iz0]) - (pz[ix1] - pz[ix0]);
+          float cz = (py[ix1] - py[ix0]) - (px[iy1] - px[iy0]);
+          int i = (x + size * (y + size * z)) * 3;
+          vectors[i] = cx;
+          vectors[i + 1] = cy;
+          vectors[i + 2] = cz;
+          sumSquares += cx * cx + cy * cy + cz * cz;
+        }
+      }
+    }
+
+    // normalize so strength means roughly units per second squared whatever the settings
+    float rms = (float) Math.sqrt(sumSquares / count);
+    if (rms > 0) {
+      float inv = 1.0f / rms;
+      for (int i = 0; i < vectors.length; i++) {
+        vectors[i] *= inv;
+      }
+    }
+    return new VectorField(vectors, size, size, size);
+  }
+
+  private static int[] permutation(long seed) {
+    int[] perm = new int[256];
+    for (int i = 0; i < 256; i++) {
+      perm[i] = i;
+    }
+    Random random = new Random(seed);
+    for (int i = 255; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int swap = perm[i];
+      perm[i] = perm[j];
+      perm[j] = swap;
+    }
+    return perm;
+  }
+
+  /**
+   * Gradient noise repeating every period lattice cells
+   */
+  private static float noise(int[] perm, float x, float y, float z, int period) {
+    int x0 = (int) Math.floor(x), y0 = (int) Math.floor(y), z0 = (int) Math.floor(z);
+    float fx = x - x0, fy = y - y0, fz = z - z0;
+    float u = fade(fx), v = fade(fy), w = fade(fz);
+    int xa = Math.floorMod(x0, period), xb = (xa + 1) % period;
+    int ya = Math.floorMod(y0, period), yb = (ya + 1) % period;
+    int za = Math.floorMod(z0, period), zb = (za + 1) % period;
+
+    float n000 = grad(hash(perm, xa, ya, za), fx, fy, fz);
+    float n100 = grad(hash(perm, xb, ya, za), fx - 1, fy, fz);
+    float n010 = grad(hash(perm, xa, yb, za), fx, fy - 1, fz);
+    float n110 = grad(hash(perm, xb, yb, za), fx - 1, fy - 1, fz);
+    float n001 = grad(hash(perm, xa, ya, zb), fx, fy, fz - 1);
+    float n101 = grad(hash(perm, xb, ya, zb), fx - 1, fy, fz - 1);
+    float n011 = grad(hash(perm, xa, yb, zb), fx, fy - 1, fz - 1);
+    float n111 = grad(hash(perm, xb, yb, zb), fx - 1, fy - 1, fz - 1);
+
+    float x00 = FastMath.interpolateLinear(u, n000, n100);
+    float x10 = FastMath.interpolateLinear(u, n010, n110);
+    float x01 = FastMath.interpolateLinear(u, n001, n101);
+    float x11 = FastMath.interpolateLinear(u, n011, n111);
+    return FastMath.interpolateLinear(w, FastMath.interpolateLinear(v, x00, x10),
+        FastMath.interpolateLinear(v, x01, x11));
+  }
+
+  private static int hash(int[] perm, int x, int y, int z) {
+    return perm[(perm[(perm[x & 255] + y) & 255] + z) & 255];
+  }
+
+  private static float fade(float t) {
+    return t * t * t * (t * (t * 6 - 15) + 10);
+  }
+
+  /**
+   * Dot product with one of the 12 cube edge gradients picked by the hash
+   */
+  private static float grad(int hash, float x, float y, float z) {
+    int h = hash & 15;
+    float u = h < 8 ? x : y;
+    float v = h < 4 ? y : h == 12 || h == 14 ? x : z;
+    return ((h & 1) == 0 ? u : -u) + ((h & 2) == 0 ? v : -v);
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.fields;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * Mapped Files
+ * Maps the flat binary files of vector fields, distance fields and point clouds. Every user of the same file
+ * shares one read only mapping, which is released once none of them holds it and is mapped again when the
+ * file changes on disk. The shared buffer is only read with absolute gets, take a duplicate() to move its
+ * position.
+ */
+public final class MappedFiles {
+
+  // mappings by canonical path, released once nothing uses them
+  private static final HashMap<String, Mapping> mappings = new HashMap<>();
+
+  private MappedFiles() {
+
+  }
+
+  /**
+   * Maps a file, little endian, checking it starts with the expected magic
+   *
+   * @param file - the file to map
+   * @param magic - the int the file starts with
+   * @param headerSize - the smallest valid file size
+   * @param kind - the kind of file for error messages, such as "vector field"
+   * @return the mapping, shared with any other user of the file
+   * @throws IOException if the file can't be read, is larger than 2GB or isn't of that kind
+   */
+  public static ByteBuffer map(String file, int magic, int headerSize, String kind) throws IOException {
+    File path = new File(file).getCanonicalFile();
+    String key = path.getPath();
+    long length = path.length();
+    long modified = path.lastModified();
+    synchronized (mappings) {
+      Mapping mapping = mappings.get(key);
+      ByteBuffer buffer = mapping == null ? null : mapping.buffer.get();
+      if (buffer != null && mapping.length == length && mapping.modified == modified
+          && buffer.getInt(0) == magic) {
+        return buffer;
+      }
+      try (RandomAccessFile raf = new RandomAccessFile(path, "r");
+           FileChannel channel = raf.getChannel()) {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+          throw new IOException(capitalize(kind) + " file is larger than 2GB: " + file);
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        if (size < headerSize || buffer.getInt(0) != magic) {
+          throw new IOException("Not a " + kind + " file: " + file);
+        }
+      }
+      mappings.put(key, new Mapping(buffer, length, modified));
+      return buffer;
+    }
+  }
+
+  /**
+   * Checks the mapping holds the data the header describes
+   *
+   * @param buffer - the mapping
+   * @param size - the file size the header needs, negative if the header itself is invalid
+   * @param file - the file for error messages
+   * @param kind - the kind of file for error messages
+   * @throws IOException if the file is shorter than the size
+   */
+  public static void checkSize(ByteBuffer buffer, long size, String file, String kind) throws IOException {
+    if (size < 0 || size > buffer.capacity()) {
+      throw new IOException(capitalize(kind) + " file is truncated: " + file);
+    }
+  }
+
+  private static String capitalize(String kind) {
+    return Character.toUpperCase(kind.charAt(0)) + kind.substring(1);
+  }
+
+  private static final class Mapping {
+    private final WeakReference<ByteBuffer> buffer;
+    private final long length;
+    private final long modified;
+
+    Mapping(ByteBuffer buffer, long length, long modified) {
+      this.buffer = new WeakReference<>(buffer);
+      this.length = length;
+      this.modified = modified;
+    }
+  }
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.fields;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.export.Savable;
+import com.jme3.math.FastMath;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Signed Distance Field Grid
+ * A baked grid of distances to the surface of a closed mesh, negative inside. Sampling is a trilinear lookup
+ * of 8 values no matter how complex the mesh was, and the gradient comes from the same 8 values.
+ *
+ * Grids are baked from a geometry in world space and can be saved to a flat binary file, which is memory
+ * mapped when loaded back so emitters sharing it don't copy the data, grids loaded from the same file share
+ * one mapping. File layout, little endian: the int
+ * "SDFG" magic, the int sample counts x, y, z, the float origin x, y, z, the float cell size, then the
+ * distances with x varying fastest.
+ */
+public class SdfGrid implements Savable {
+
+  public static final int MAGIC = 0x47464453;
+  private static final int HEADER_SIZE = 32;
+
+  private String file;
+  private int sizeX, sizeY, sizeZ;
+  private Vector3f origin = new Vector3f();
+  private float cellSize = 1.0f;
+
+  private transient FloatBuffer data;
+
+  public SdfGrid() {
+
+  }
+
+  /**
+   * Creates a grid from distances already in memory
+   *
+   * @param distances - the distances, x varying fastest
+   * @param sizeX - samples along x, at least 2
+   * @param sizeY - samples along y, at least 2
+   * @param sizeZ - samples along z, at least 2
+   * @param origin - world position of the first sample
+   * @param cellSize - spacing of the samples
+   */
+  public SdfGrid(float[] distances, int sizeX, int sizeY, int sizeZ, Vector3f origin, float cellSize) {
+    if (sizeX < 2 || sizeY < 2 || sizeZ < 2 || distances.length < sizeX * sizeY * sizeZ) {
+      throw new IllegalArgumentException("Grid needs at least 2 samples per axis and a distance for each");
+    }
+    this.sizeX = sizeX;
+    this.sizeY = sizeY;
+    this.sizeZ = sizeZ;
+    this.origin.set(origin);
+    this.cellSize = cellSize;
+    data = FloatBuffer.wrap(distances);
+  }
+
+  /**
+   * Maps a grid file
+   * @param file - a file written by save
+   * @throws IOException if the file can't be read or isn't a grid file
+   */
+  public SdfGrid(File file) throws IOException {
+    this.file = file.getPath();
+    load();
+  }
+
+  public String getFile() {
+    return file;
+  }
+
+  public int getSizeX() {
+    return sizeX;
+  }
+
+  public int getSizeY() {
+    return sizeY;
+  }
+
+  public int getSizeZ() {
+    return sizeZ;
+  }
+
+  public Vector3f getOrigin() {
+    return origin;
+  }
+
+  public float getCellSize() {
+    return cellSize;
+  }
+
+  /**
+   * Samples the distance at a world position
+   * @return the distance, negative inside
+   */
+  public float sample(float x, float y, float z) {
+    return sample(x, y, z, null);
+  }
+
+  /**
+   * Samples the distance and gradient at a world position. Outside the grid the distance grows with the
+   * distance to the grid bounds and the gradient points away from them.
+   *
+   * @param gradientStore - receives the gradient, pointing away from the surface. May be null.
+   * @return the distance, negative inside
+   */
+  public float sample(float x, float y, float z, Vector3f gradientStore) {
+    float gx = (x - origin.x) / cellSize;
+    float gy = (y - origin.y) / cellSize;
+    float gz = (z - origin.z) / cellSize;
+    float cx = Math.max(0, Math.min(sizeX - 1, gx));
+    float cy = Math.max(0, Math.min(sizeY - 1, gy));
+    float cz = Math.max(0, Math.min(sizeZ - 1, gz));
+
+    int ix = Math.min((int) cx, sizeX - 2);
+    int iy = Math.min((int) cy, sizeY - 2);
+    int iz = Math.min((int) cz, sizeZ - 2);
+    float fx = cx - ix, fy = cy - iy, fz = cz - iz;
+
+    int i = ix + sizeX * (iy + sizeY * iz);
+    int row = sizeX, slice = sizeX * sizeY;
+    float c000 = data.get(i), c100 = data.get(i + 1);
+    float c010 = data.get(i + row), c110 = data.get(i + row + 1);
+    float c001 = data.get(i + slice), c101 = data.get(i + slice + 1);
+    float c011 = data.get(i + slice + row), c111 = data.get(i + slice + row + 1);
+
+    float x00 = c000 + (c100 - c000) * fx;
+    float x10 = c010 + (c110 - c010) * fx;
+    float x01 = c001 + (c101 - c001) * fx;
+    float x11 = c011 + (c111 - c011) * fx;
+    float y0 = x00 + (x10 - x00) * fy;
+    float y1 = x01 + (x11 - x01) * fy;
+    float distance = y0 + (y1 - y0) * fz;
+
+    float ox = (gx - cx) * cellSize, oy = (gy - cy) * cellSize, oz = (gz - cz) * cellSize;
+    float outside = ox * ox + oy * oy + oz * oz;
+    if (outside > 0) {
+      outside = FastMath.sqrt(outside);
+      if (gradientStore != null) {
+        gradientStore.set(ox, oy, oz).divideLocal(outside);
+      }
+      return distance + outside;
+    }
+
+    if (gradientStore != null) {
+      // derivative of the trilinear blend along each axis
+      float ifx = 1 - fx, ify = 1 - fy, ifz = 1 - fz;
+      float dx = ((c100 - c000) * ify + (c110 - c010) * fy) * ifz + ((c101 - c001) * ify + (c111 - c011) * fy) * fz;
+      float dy = ((c010 - c000) * ifx + (c110 - c100) * fx) * ifz + ((c011 - c001) * ifx + (c111 - c101) * fx) * fz;
+      float dz = (x01 - x00) * ify + (x11 - x10) * fy;
+      gradientStore.set(dx, dy, dz).divideLocal(cellSize);
+    }
+    return distance;
+  }
+
+  /**
+   * Bakes the distance field of a closed geometry in world space. The cost grows with the sample count times
+   * the triangle count, bake once and save the grid rather than baking at startup.
+   *
+   * @param geometry - the geometry, its mesh should be closed for the inside to be found
+   * @param resolution - samples along the longest side of the bounds
+   * @param padding - distance the grid extends past the mesh bounds
+   * @return the grid
+   */
+  public static SdfGrid bake(Geometry geometry, int resolution, float padding) {
+    Transform transform = geometry.getWorldTransform();
+    Mesh mesh = geometry.getMesh();
+    int count = mesh.getTriangleCount();
+    if (count == 0) {
+      throw new IllegalArgumentException("Geometry has no triangles: " + geometry.getName());
+    }
+    float[] tris = new float[count * 9];
+    Vector3f min = new Vector3f(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
+    Vector3f max = new Vector3f(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+    Vector3f[] v = {new Vector3f(), new Vector3f(), new Vector3f()};
+    for (int i = 0; i < count; i++) {
+      mesh.getTriangle(i, v[0], v[1], v[2]);
+      for (int k = 0; k < 3; k++) {
+        transform.transformVector(v[k], v[k]);
+        min.minLocal(v[k]);
+        max.maxLocal(v[k]);
+        tris[i * 9 + k * 3] = v[k].x;
+        tris[i * 9 + k * 3 + 1] = v[k].y;
+        tris[i * 9 + k * 3 + 2] = v[k].z;
+      }
+    }
+
+    min.subtractLocal(padding, padding, padding);
+    max.addLocal(padding, padding, padding);
+    float extent = Math.max(max.x - min.x, Math.max(max.y - min.y, max.z - min.z));
+    int res = Math.max(2, resolution);
+    float cell = extent / (res - 1);
+    int nx = Math.max(2, (int) Math.ceil((max.x - min.x) / cell) + 1);
+    int ny = Math.max(2, (int) Math.ceil((max.y - min.y) / cell) + 1);
+    int nz = Math.max(2, (int) Math.ceil((max.z - min.z) / cell) + 1);
+
+    float[] distances = new float[nx * ny * nz];
+    IntStream.range(0, nz).parallel().forEach(z -> {
+      float pz = min.z + z * cell;
+      float[] crossings = new float[16];
+      for (int y = 0; y < ny; y++) {
+        float py = min.y + y * cell;
+        int crossingCount = 0;
+        // a ray along +x through the row, a sample is inside if an odd number of crossings lie before it
+        for (int i = 0; i < count; i++) {
+          float x = crossX(tris, i * 9, py, pz);
+          if (!Float.isNaN(x)) {
+            if (crossingCount == crossings.length) {
+              crossings = Arrays.copyOf(crossings, crossingCount * 2);
+            }
+            crossings[crossingCount++] = x;
+          }
+        }
+        Arrays.sort(crossings, 0, crossingCount);
+
+        int crossed = 0;
+        for (int x = 0; x < nx; x++) {
+          float px = min.x + x * cell;
+          while (crossed < crossingCount && crossings[crossed] < px) {
+            crossed++;
+          }
+          float best = Float.MAX_VALUE;
+          for (int i = 0; i < count; i++) {
+            best = Math.min(best, distanceSquared(tris, i * 9, px, py, pz, best));
+          }
+          float d = FastMath.sqrt(best);
+          distances[x + nx * (y + ny * z)] = (crossed & 1) == 1 ? -d : d;
+        }
+      }
+    });
+    return new SdfGrid(distances, nx, ny, nz, min, cell);
+  }
+
+  /**
+   * Gets the x where the triangle crosses the line along x at y, z. A line through a shared edge or vertex
+   * crosses exactly one of the triangles on either side, so closed meshes are never counted twice.
+   * @return the x, or NaN if the line misses the triangle
+   */
+  private static float crossX(float[] t, int o, float y, float z) {
+    float ay = t[o + 1] - y, az = t[o + 2] - z;
+    float by = t[o + 4] - y, bz = t[o + 5] - z;
+    float cy = t[o + 7] - y, cz = t[o + 8] - z;
+    // signed areas in the yz plane, the line passes through where all have the same sign
+    float u = by * cz - bz * cy;
+    float v = cy * az - cz * ay;
+    float w = ay * bz - az * by;
+    float sum = u + v + w;
+    if (sum == 0) {
+      return Float.NaN;
+    }
+    // on an edge the area is zero, its sign is taken from the edge direction instead. This is the sign the
+    // area would have with the line nudged a tiny step along z, and a tinier one against y. Both triangles of
+    // an edge see it in opposite directions, so the edge belongs to one of them.
+    boolean pu = u == 0 ? edgeSign(cy - by, cz - bz) : u > 0;
+    boolean pv = v == 0 ? edgeSign(ay - cy, az - cz) : v > 0;
+    boolean pw = w == 0 ? edgeSign(by - ay, bz - az) : w > 0;
+    if (pu != pv || pv != pw) {
+      return Float.NaN;
+    }
+    return (u * t[o] + v * t[o + 3] + w * t[o + 6]) / sum;
+  }
+
+  private static boolean edgeSign(float dy, float dz) {
+    return dy > 0 || dy == 0 && dz > 0;
+  }
+
+  /**
+   * Squared distance from a point to a triangle, the closest point by region as in Ericson's Real-Time
+   * Collision Detection. Returns limit early when the triangle bounds are already further away.
+   */
+  private static float distanceSquared(float[] t, int o, float px, float py, float pz, float limit) {
+    float ax = t[o], ay = t[o + 1], az = t[o + 2];
+    float bx = t[o + 3], by = t[o + 4], bz = t[o + 5];
+    float cx = t[o + 6], cy = t[o + 7], cz = t[o + 8];
+
+    float ex = Math.max(0, Math.max(Math.min(ax, Math.min(bx, cx)) - px, px - Math.max(ax, Math.max(bx, cx))));
+    float ey = Math.max(0, Math.max(Math.min(ay, Math.min(by, cy)) - py, py - Math.max(ay, Math.max(by, cy))));
+    float ez = Math.max(0, Math.max(Math.min(az, Math.min(bz, cz)) - pz, pz - Math.max(az, Math.max(bz, cz))));
+    if (ex * ex + ey * ey + ez * ez >= limit) {
+      return limit;
+    }
+
+    float abx = bx - ax, aby = by - ay, abz = bz - az;
+    float acx = cx - ax, acy = cy - ay, acz = cz - az;
+    float apx = px - ax, apy = py - ay, apz = pz - az;
+    float d1 = abx * apx + aby * apy + abz * apz;
+    float d2 = acx * apx + acy * apy + acz * apz;
+    float qx, qy, qz;
+    if (d1 <= 0 && d2 <= 0) {
+      qx = ax; qy = ay; qz = az;
+    } else {
+      float bpx = px - bx, bpy = py - by, bpz = pz - bz;
+      float d3 = abx * bpx + aby * bpy + abz * bpz;
+      float d4 = acx * bpx + acy * bpy + acz * bpz;
+      float cpx = px - cx, cpy = py - cy, cpz = pz - cz;
+      float d5 = abx * cpx + aby * cpy + abz * cpz;
+      float d6 = acx * cpx + acy * cpy + acz * cpz;
+      float vc = d1 * d4 - d3 * d2;
+      float vb = d5 * d2 - d1 * d6;
+      float va = d3 * d6 - d5 * d4;
+      if (d3 >= 0 && d4 <= d3) {
+        qx = bx; qy = by; qz = bz;
+      } else if (d6 >= 0 && d5 <= d6) {
+        qx = cx; qy = cy; qz = cz;
+      } else if (vc <= 0 && d1 >= 0 && d3 <= 0) {
+        float s = d1 / (d1 - d3);
+        qx = ax + abx * s; qy = ay + aby * s; qz = az + abz * s;
+      } else if (vb <= 0 && d2 >= 0 && d6 <= 0) {
+        float s = d2 / (d2 - d6);
+        qx = ax + acx * s; qy = ay + acy * s; qz = az + acz * s;
+      } else if (va <= 0 && (d4 - d3) >= 0 && (d5 - d6) >= 0) {
+        float s = (d4 - d3) / ((d4 - d3) + (d5 - d6));
+        qx = bx + (cx - bx) * s; qy = by + (cy - by) * s; qz = bz + (cz - bz) * s;
+      } else {
+        float denom = 1.0f / (va + vb + vc);
+        float s = vb * denom, r = vc * denom;
+        qx = ax + abx * s + acx * r;
+        qy = ay + aby * s + acy * r;
+        qz = az + abz * s + acz * r;
+      }
+    }
+    float dx = px - qx, dy = py - qy, dz = pz - qz;
+    return Math.min(limit, dx * dx + dy * dy + dz * dz);
+  }
+
+  /**
+   * Saves the grid to a file which can be mapped back with the file constructor
+   * @param file - the file to write
+   * @throws IOException if the file can't be written
+   */
+  public void save(File file) throws IOException {
+    int count = sizeX * sizeY * sizeZ;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+         FileChannel channel = raf.getChannel()) {
+      raf.setLength(0);
+      ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * 4).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(MAGIC).putInt(sizeX).putInt(sizeY).putInt(sizeZ);
+      buffer.putFloat(origin.x).putFloat(origin.y).putFloat(origin.z).putFloat(cellSize);
+      for (int i = 0; i < count; i++) {
+        buffer.putFloat(data.get(i));
+      }
+      buffer.flip();
+      while (buffer.hasRemaining()) channel.write(buffer);
+    }
+  }
+
+  private void load() throws IOException {
+    ByteBuffer buffer = MappedFiles.map(file, MAGIC, HEADER_SIZE, "distance field");
+    int nx = buffer.getInt(4), ny = buffer.getInt(8), nz = buffer.getInt(12);
+    long size = nx < 2 || ny < 2 || nz < 2 ? -1 : HEADER_SIZE + (long) nx * ny * nz * 4;
+    MappedFiles.checkSize(buffer, size, file, "distance field");
+    sizeX = nx;
+    sizeY = ny;
+    sizeZ = nz;
+    origin.set(buffer.getFloat(16), buffer.getFloat(20), buffer.getFloat(24));
+    cellSize = buffer.getFloat(28);
+    ByteBuffer view = buffer.duplicate();
+    view.position(HEADER_SIZE);
+    data = view.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(file, "file", null);
+    if (file == null) {
+      // grids only in memory are stored with the scene
+      float[] distances = new float[sizeX * sizeY * sizeZ];
+      for (int i = 0; i < distances.length; i++) {
+        distances[i] = data.get(i);
+      }
+      oc.write(distances, "distances", null);
+      oc.write(sizeX, "sizex", 0);
+      oc.write(sizeY, "sizey", 0);
+      oc.write(sizeZ, "sizez", 0);
+      oc.write(origin, "origin", new Vector3f());
+      oc.write(cellSize, "cellsize", 1.0f);
+    }
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    InputCapsule ic = im.getCapsule(this);
+    file = ic.readString("file", null);
+    if (file != null) {
+      load();
+    } else {
+      sizeX = ic.readInt("sizex", 0);
+      sizeY = ic.readInt("sizey", 0);
+      sizeZ = ic.readInt("sizez", 0);
+      origin = (Vector3f) ic.readSavable("origin", new Vector3f());
+      cellSize = ic.readFloat("cellsize", 1.0f);
+      float[] distances = ic.readFloatArray("distances", null);
+      data = distances == null ? null : FloatBuffer.wrap(distances);
+    }
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.fields;
+
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.export.Savable;
+import com.jme3.math.Vector3f;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Vector Field
+ * A 3D grid of vectors such as wind, vortices or a baked fluid simulation, sampled with trilinear
+ * interpolation. Coordinates are in samples, either clamped to the edge of the grid or tiled so the last
+ * sample blends back into the first.
+ *
+ * Fields are usually loaded from a flat binary file. The file is memory mapped so a 256x256x256 field takes no
+ * heap, and every field opened from the same file shares one mapping. File layout, little endian: the int
+ * "VFLD" magic, the int sample counts x, y, z, then x, y, z floats per sample with x varying fastest. Use
+ * write() to create a file.
+ */
+public class VectorField implements Savable {
+
+  public static final int MAGIC = 0x444C4656;
+  private static final int HEADER_SIZE = 16;
+
+
+  private String file;
+  private int sizeX, sizeY, sizeZ;
+
+  private transient FloatBuffer data;
+
+  public VectorField() {
+
+  }
+
+  /**
+   * Creates a field from vectors already in memory
+   *
+   * @param vectors - x, y, z of each sample, x varying fastest
+   * @param sizeX - samples along x
+   * @param sizeY - samples along y
+   * @param sizeZ - samples along z
+   */
+  public VectorField(float[] vectors, int sizeX, int sizeY, int sizeZ) {
+    if (sizeX < 1 || sizeY < 1 || sizeZ < 1 || vectors.length < sizeX * sizeY * sizeZ * 3) {
+      throw new IllegalArgumentException("Field needs at least 1 sample per axis and 3 floats for each");
+    }
+    this.sizeX = sizeX;
+    this.sizeY = sizeY;
+    this.sizeZ = sizeZ;
+    data = FloatBuffer.wrap(vectors);
+  }
+
+  /**
+   * Maps a field file, sharing the mapping with any other field using the same file
+   * @param file - a file written by write
+   * @throws IOException if the file can't be read or isn't a vector field file
+   */
+  public VectorField(File file) throws IOException {
+    this.file = file.getPath();
+    load();
+  }
+
+  public String getFile() {
+    return file;
+  }
+
+  public int getSizeX() {
+    return sizeX;
+  }
+
+  public int getSizeY() {
+    return sizeY;
+  }
+
+  public int getSizeZ() {
+    return sizeZ;
+  }
+
+  /**
+   * Samples the field
+   *
+   * @param x - position along x in samples
+   * @param y - position along y in samples
+   * @param z - position along z in samples
+   * @param tile - if true the field repeats, if false positions are clamped to the edge samples
+   * @param store - receives the vector
+   * @return store
+   */
+  public Vector3f sample(float x, float y, float z, boolean tile, Vector3f store) {
+    int x0, y0, z0, x1, y1, z1;
+    float fx, fy, fz;
+    if (tile) {
+      float fl = (float) Math.floor(x);
+      fx = x - fl;
+      x0 = Math.floorMod((int) fl, sizeX);
+      x1 = x0 + 1 == sizeX ? 0 : x0 + 1;
+      fl = (float) Math.floor(y);
+      fy = y - fl;
+      y0 = Math.floorMod((int) fl, sizeY);
+      y1 = y0 + 1 == sizeY ? 0 : y0 + 1;
+      fl = (float) Math.floor(z);
+      fz = z - fl;
+      z0 = Math.floorMod((int) fl, sizeZ);
+      z1 = z0 + 1 == sizeZ ? 0 : z0 + 1;
+    } else {
+      float cx = Math.max(0, Math.min(sizeX - 1, x));
+      float cy = Math.max(0, Math.min(sizeY - 1, y));
+      float cz = Math.max(0, Math.min(sizeZ - 1, z));
+      x0 = (int) cx;
+      y0 = (int) cy;
+      z0 = (int) cz;
+      fx = cx - x0;
+      fy = cy - y0;
+      fz = cz - z0;
+      x1 = Math.min(x0 + 1, sizeX - 1);
+      y1 = Math.min(y0 + 1, sizeY - 1);
+      z1 = Math.min(z0 + 1, sizeZ - 1);
+    }
+
+    int r00 = sizeX * (y0 + sizeY * z0), r10 = sizeX * (y1 + sizeY * z0);
+    int r01 = sizeX * (y0 + sizeY * z1), r11 = sizeX * (y1 + sizeY * z1);
+    float w000 = (1 - fx) * (1 - fy) * (1 - fz), w100 = fx * (1 - fy) * (1 - fz);
+    float w010 = (1 - fx) * fy * (1 - fz), w110 = fx * fy * (1 - fz);
+    float w001 = (1 - fx) * (1 - fy) * fz, w101 = fx * (1 - fy) * fz;
+    float w011 = (1 - fx) * fy * fz, w111 = fx * fy * fz;
+
+    int i000 = (r00 + x0) * 3, i100 = (r00 + x1) * 3, i010 = (r10 + x0) * 3, i110 = (r10 + x1) * 3;
+    int i001 = (r01 + x0) * 3, i101 = (r01 + x1) * 3, i011 = (r11 + x0) * 3, i111 = (r11 + x1) * 3;
+    FloatBuffer d = data;
+    store.x = d.get(i000) * w000 + d.get(i100) * w100 + d.get(i010) * w010 + d.get(i110) * w110
+        + d.get(i001) * w001 + d.get(i101) * w101 + d.get(i011) * w011 + d.get(i111) * w111;
+    store.y = d.get(i000 + 1) * w000 + d.get(i100 + 1) * w100 + d.get(i010 + 1) * w010 + d.get(i110 + 1) * w110
+        + d.get(i001 + 1) * w001 + d.get(i101 + 1) * w101 + d.get(i011 + 1) * w011 + d.get(i111 + 1) * w111;
+    store.z = d.get(i000 + 2) * w000 + d.get(i100 + 2) * w100 + d.get(i010 + 2) * w010 + d.get(i110 + 2) * w110
+        + d.get(i001 + 2) * w001 + d.get(i101 + 2) * w101 + d.get(i011 + 2) * w011 + d.get(i111 + 2) * w111;
+    return store;
+  }
+
+  /**
+   * Writes a vector field file
+   *
+   * @param file - the file to write
+   * @param vectors - x, y, z of each sample, x varying fastest
+   * @param sizeX - samples along x
+   * @param sizeY - samples along y
+   * @param sizeZ - samples along z
+   * @throws IOException if the file can't be written
+   */
+  public static void write(File file, float[] vectors, int sizeX, int sizeY, int sizeZ) throws IOException {
+    int count = sizeX * sizeY * sizeZ * 3;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+         FileChannel channel = raf.getChannel()) {
+      raf.setLength(0);
+      ByteBuffer buffer = ByteBuffer.allocate(4096 * 12).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(MAGIC).putInt(sizeX).putInt(sizeY).putInt(sizeZ);
+      for (int i = 0; i < count; i++) {
+        if (!buffer.hasRemaining()) {
+          buffer.flip();
+          while (buffer.hasRemaining()) channel.write(buffer);
+          buffer.clear();
+        }
+        buffer.putFloat(vectors[i]);
+      }
+      buffer.flip();
+      while (buffer.hasRemaining()) channel.write(buffer);
+    }
+  }
+
+  private void load() throws IOException {
+    ByteBuffer buffer = MappedFiles.map(file, MAGIC, HEADER_SIZE, "vector field");
+    int nx = buffer.getInt(4), ny = buffer.getInt(8), nz = buffer.getInt(12);
+    long size = nx < 1 || ny < 1 || nz < 1 ? -1 : HEADER_SIZE + (long) nx * ny * nz * 12;
+    MappedFiles.checkSize(buffer, size, file, "vector field");
+    sizeX = nx;
+    sizeY = ny;
+    sizeZ = nz;
+    ByteBuffer view = buffer.duplicate();
+    view.position(HEADER_SIZE);
+    data = view.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(file, "file", null);
+    if (file == null) {
+      // fields only in memory are stored with the scene
+      float[] vectors = new float[sizeX * sizeY * sizeZ * 3];
+      for (int i = 0; i < vectors.length; i++) {
+        vectors[i] = data.get(i);
+      }
+      oc.write(vectors, "vectors", null);
+      oc.write(sizeX, "sizex", 0);
+      oc.write(sizeY, "sizey", 0);
+      oc.write(sizeZ, "sizez", 0);
+    }
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    InputCapsule ic = im.getCapsule(this);
+    file = ic.readString("file", null);
+    if (file != null) {
+      load();
+    } else {
+      sizeX = ic.readInt("sizex", 0);
+      sizeY = ic.readInt("sizey", 0);
+      sizeZ = ic.readInt("sizez", 0);
+      float[] vectors = ic.readFloatArray("vectors", null);
+      data = vectors == null ? null : FloatBuffer.wrap(vectors);
+    }
+  }
+}
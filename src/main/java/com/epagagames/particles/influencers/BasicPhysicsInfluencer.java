@@ -31,72 +31,232 @@
  */
 package com.epagagames.particles.influencers;
 
+import com.epagagames.particles.colliders.MeshCollider;
+import com.epagagames.particles.colliders.ParticleCollider;
 import com.epagagames.particles.particle.ParticleData;
-import com.jme3.collision.CollisionResult;
-import com.jme3.collision.CollisionResults;
-import com.jme3.math.Ray;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Transform;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Geometry;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
 /**
  * BasicPhysicsInfluencer
- * A basic physics influencer which allows particles to bounce off a given geometry
+ * A basic physics influencer which allows particles to bounce off a given geometry and a set of analytic
+ * colliders. The colliders are much cheaper than the geometry, prefer them for ground planes and simple volumes.
+ *
+ * The geometry is tested through a MeshCollider grid. Each particle remembers the last triangle it hit, the
+ * world position of its last test and the distance from there to the nearest triangle. Particles skip the test
+ * while they stay within that distance, however they were moved. The collision interval further spreads the
+ * tests near the surface over several frames.
  *
  * @author Jeddic
  */
 public class BasicPhysicsInfluencer extends ParticleInfluencer {
 
-  private Ray tempRay = new Ray();
-  private CollisionResults tempResults = new CollisionResults();
-  private Vector3f temp = new Vector3f();
   private float dampening = 0.4f;
   private float bounce = 1.0f;
+  private int collisionInterval = 1;
 
   private Geometry collisionMesh;
+  private MeshCollider meshCollider;
+  private ArrayList<ParticleCollider> colliders = new ArrayList<>();
+
+  // per particle, distance to the geometry from the world position of the last test, that position and the
+  // last triangle it hit. Comparing against the tested position also catches particles moved by other code.
+  private transient float[] clearance = new float[0];
+  private transient float[] testPosition = new float[0];
+  private transient int[] lastTriangle = new int[0];
+  private transient int meshRevision;
+  private transient int frame;
+
+  private transient Vector3f worldStart = new Vector3f();
+  private transient Vector3f worldMove = new Vector3f();
+  private transient Vector3f contactNormal = new Vector3f();
+  private transient Vector3f hitNormal = new Vector3f();
+  private transient Quaternion inverseRotation = new Quaternion();
+
+  public BasicPhysicsInfluencer() {
+
+  }
 
   public BasicPhysicsInfluencer(Geometry geo) {
-    collisionMesh = geo;
+    setCollisionMesh(geo);
+  }
+
+  @Override
+  public void preUpdate(float tpf) {
+    frame++;
+    if (!emitter.isPipelined()) {
+      // the particles are stepped on the main thread right after this, so the colliders have to follow
+      // their geometry before the step rather than after it
+      updateColliders();
+    }
+    if (meshCollider != null) {
+      int max = emitter.getMaxParticles();
+      if (clearance.length < max) {
+        clearance = new float[max];
+        testPosition = new float[max * 3];
+        lastTriangle = new int[max];
+        Arrays.fill(lastTriangle, -1);
+      } else if (meshRevision != meshCollider.getRevision()) {
+        // the geometry moved, every cached distance is stale
+        Arrays.fill(clearance, 0);
+        Arrays.fill(lastTriangle, -1);
+      }
+      meshRevision = meshCollider.getRevision();
+    }
+  }
+
+  @Override
+  public void updateGlobal(float tpf) {
+    if (emitter.isPipelined()) {
+      // the worker can't read the scene graph, this runs on the main thread before the next step is handed to it
+      updateColliders();
+    }
+  }
+
+  private void updateColliders() {
+    for (int c = 0, n = colliders.size(); c < n; c++) {
+      colliders.get(c).update();
+    }
+    if (meshCollider != null) {
+      meshCollider.update();
+    }
   }
 
   @Override
   public void update(ParticleData p, float tpf) {
-    tempRay.origin.set(p.position);
-    tempRay.direction.set(p.velocity);
-    float length = tempRay.direction.length();
-    tempRay.direction.normalizeLocal();
-    tempRay.limit = length * tpf;
-    tempResults.clear();
-
-    temp.set(tempRay.direction);
-    if (emitter.getParticlesFollowEmitter()) {
-      emitter.getWorldTransform().transformVector(tempRay.origin, tempRay.origin);
-      emitter.getWorldRotation().mult(tempRay.direction, temp);
-    }
-    tempRay.direction.set(temp);
-
-
-    collisionMesh.collideWith(tempRay, tempResults);
-
-    // r=d-2(d * n)n
-    if (tempResults.size() > 0) {
-      for (int i = 0; i < tempResults.size(); i++) {
-        CollisionResult result = tempResults.getCollision(i);
-        float dot = result.getContactNormal().dot(temp);
-        if (dot > 0) {
-          p.velocity.set(temp.subtract(result.getContactNormal().mult(dot * 2.0f * bounce)));
-          p.velocity.multLocal(length * dampening);
-
-          if (emitter.getParticlesFollowEmitter()) {
-            emitter.getWorldRotation().inverse().mult(p.velocity, p.velocity);
-          }
-          //emitter.getWorldTransform().invert().transformVector(p.velocity, p.velocity);
-          //p.position.set(result.getContactPoint());
-          return;
-        }
+    boolean follow = emitter.getParticlesFollowEmitter();
+    if (follow) {
+      inverseRotation.set(emitter.getWorldRotation()).inverseLocal();
+    }
+    if (!colliders.isEmpty() && collideColliders(p, tpf, follow, emitter.getWorldTransform())) {
+      return;
+    }
+    if (meshCollider != null) {
+      collideMesh(p, tpf, follow, emitter.getWorldTransform());
+    }
+  }
+
+  @Override
+  public void update(ParticleData[] particles, int from, int to, float tpf) {
+    if (!enabled) {
+      return;
+    }
+
+    // the emitter transform is the same for every particle
+    boolean follow = emitter.getParticlesFollowEmitter();
+    Transform transform = emitter.getWorldTransform();
+    if (follow) {
+      inverseRotation.set(emitter.getWorldRotation()).inverseLocal();
+    }
+    boolean hasColliders = !colliders.isEmpty();
+    for (int i = from; i < to; i++) {
+      ParticleData p = particles[i];
+      if (!p.active) {
+        continue;
+      }
+      if (hasColliders && collideColliders(p, tpf, follow, transform)) {
+        continue;
+      }
+      if (meshCollider != null) {
+        collideMesh(p, tpf, follow, transform);
       }
     }
   }
 
+  /**
+   * Bounces the particle off the first collider its next step would hit
+   *
+   * @return true if the particle hit a collider
+   */
+  private boolean collideColliders(ParticleData p, float tpf, boolean follow, Transform transform) {
+    toWorld(p, tpf, follow, transform);
+    float first = Float.MAX_VALUE;
+    for (int c = 0, n = colliders.size(); c < n; c++) {
+      float t = colliders.get(c).collide(worldStart, worldMove, hitNormal);
+      if (t != ParticleCollider.NO_HIT && t < first) {
+        first = t;
+        contactNormal.set(hitNormal);
+      }
+    }
+    if (first == Float.MAX_VALUE) {
+      return false;
+    }
+    bounce(p, follow);
+    return true;
+  }
+
+  /**
+   * Bounces the particle off the geometry, only testing particles that could have reached a triangle
+   */
+  private void collideMesh(ParticleData p, float tpf, boolean follow, Transform transform) {
+    int i = p.index;
+    if (i >= clearance.length) {
+      return;
+    }
+    toWorld(p, tpf, follow, transform);
+    int o = i * 3;
+    float dx = worldStart.x - testPosition[o];
+    float dy = worldStart.y - testPosition[o + 1];
+    float dz = worldStart.z - testPosition[o + 2];
+    if (clearance[i] > FastMath.sqrt(dx * dx + dy * dy + dz * dz) + worldMove.length()) {
+      return;
+    }
+    // particles near the surface are tested every few frames, staggered by index so the cost is spread out
+    int steps = collisionInterval;
+    if (steps > 1 && (frame + i) % steps != 0) {
+      return;
+    }
+
+    worldMove.multLocal(steps);
+    float t = meshCollider.collide(worldStart, worldMove, contactNormal, lastTriangle, i);
+    if (t == ParticleCollider.NO_HIT) {
+      clearance[i] = meshCollider.getClearance(worldStart);
+      testPosition[o] = worldStart.x;
+      testPosition[o + 1] = worldStart.y;
+      testPosition[o + 2] = worldStart.z;
+      return;
+    }
+    clearance[i] = 0;
+    bounce(p, follow);
+  }
+
+  /**
+   * Sets worldStart to the particle position and worldMove to its step over dt, both in world space
+   */
+  private void toWorld(ParticleData p, float dt, boolean follow, Transform transform) {
+    worldMove.set(p.velocity).multLocal(dt);
+    if (follow) {
+      transform.transformVector(p.position, worldStart);
+      worldMove.multLocal(transform.getScale());
+      transform.getRotation().multLocal(worldMove);
+    } else {
+      worldStart.set(p.position);
+    }
+  }
+
+  private void bounce(ParticleData p, boolean follow) {
+    if (follow) {
+      // bounce in emitter space, the rotation keeps the normal a unit vector
+      inverseRotation.multLocal(contactNormal);
+    }
+    // r = d - 2(d * n)n, scaled down by the bounce and dampening
+    Vector3f v = p.velocity;
+    float k = 2.0f * bounce * (v.x * contactNormal.x + v.y * contactNormal.y + v.z * contactNormal.z);
+    v.set(v.x - contactNormal.x * k, v.y - contactNormal.y * k, v.z - contactNormal.z * k);
+    v.multLocal(dampening);
+  }
+
   /**
    * Gets the amount the velocity is reduced after every collision
    * @return the dampened amount 0-1
@@ -143,11 +303,108 @@ public class BasicPhysicsInfluencer extends ParticleInfluencer {
    */
   public void setCollisionMesh(Geometry collisionMesh) {
     this.collisionMesh = collisionMesh;
+    meshCollider = collisionMesh == null ? null : new MeshCollider(collisionMesh);
+    clearance = new float[0];
+    testPosition = new float[0];
+    lastTriangle = new int[0];
+  }
+
+  /**
+   * Gets the grid the collision geometry is tested through
+   * @return the mesh collider, null without a collision geometry
+   */
+  public MeshCollider getMeshCollider() {
+    return meshCollider;
+  }
+
+  /**
+   * Gets how many frames pass between geometry tests of a particle near the surface
+   * @return the interval
+   */
+  public int getCollisionInterval() {
+    return collisionInterval;
+  }
+
+  /**
+   * Sets how many frames pass between geometry tests of a particle near the surface. Each test covers the
+   * distance traveled until the next one, so higher intervals bounce a little early rather than miss.
+   * @param collisionInterval - 1 tests every frame
+   */
+  public void setCollisionInterval(int collisionInterval) {
+    this.collisionInterval = Math.max(1, collisionInterval);
+  }
+
+  /**
+   * Gets the analytic colliders particles bounce off
+   * @return
+   */
+  public ArrayList<ParticleCollider> getColliders() {
+    return colliders;
+  }
+
+  /**
+   * Adds an analytic collider particles bounce off
+   * @param collider
+   */
+  public void addCollider(ParticleCollider collider) {
+    colliders.add(collider);
+  }
+
+  public void removeCollider(ParticleCollider collider) {
+    colliders.remove(collider);
   }
 
   @Override
-  public void initialize(ParticleData p) {
+  public BasicPhysicsInfluencer clone() {
+    BasicPhysicsInfluencer clone = (BasicPhysicsInfluencer) super.clone();
+    clone.worldStart = new Vector3f();
+    clone.worldMove = new Vector3f();
+    clone.contactNormal = new Vector3f();
+    clone.hitNormal = new Vector3f();
+    clone.inverseRotation = new Quaternion();
+    clone.colliders = new ArrayList<>();
+    for (ParticleCollider collider : colliders) {
+      clone.colliders.add(collider.clone());
+    }
+    if (meshCollider != null) {
+      clone.meshCollider = meshCollider.clone();
+    }
+    clone.clearance = new float[0];
+    clone.testPosition = new float[0];
+    clone.lastTriangle = new int[0];
+    return clone;
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    super.write(ex);
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(dampening, "dampening", 0.4f);
+    oc.write(bounce, "bounce", 1.0f);
+    oc.write(collisionInterval, "collisioninterval", 1);
+    oc.writeSavableArrayList(colliders, "colliders", new ArrayList<>());
+  }
 
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    super.read(im);
+    InputCapsule ic = im.getCapsule(this);
+    dampening = ic.readFloat("dampening", 0.4f);
+    bounce = ic.readFloat("bounce", 1.0f);
+    collisionInterval = ic.readInt("collisioninterval", 1);
+    colliders = new ArrayList<>();
+    ArrayList<?> saved = ic.readSavableArrayList("colliders", new ArrayList<>());
+    for (Object collider : saved) {
+      colliders.add((ParticleCollider) collider);
+    }
+  }
+
+  @Override
+  public void initialize(ParticleData p) {
+    if (p.index < clearance.length) {
+      clearance[p.index] = 0;
+      lastTriangle[p.index] = -1;
+    }
   }
 
   @Override
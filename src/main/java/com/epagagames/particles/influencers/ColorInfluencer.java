@@ -39,6 +39,7 @@ import com.jme3.export.JmeImporter;
 import com.jme3.export.OutputCapsule;
 import com.jme3.math.ColorRGBA;
 import com.epagagames.particles.valuetypes.ColorValueType;
+import com.epagagames.particles.valuetypes.PackedColor;
 
 import java.io.IOException;
 
@@ -47,6 +48,10 @@ import java.io.IOException;
  *
  * The color module allows you to change the particle's color over time
  *
+ * The color over time is read as packed colors, which clamps it to 0-1, then multiplied by the unclamped
+ * start color and clamped once more. Start colors above 1 brighten the result as long as the product stays
+ * within 0-1.
+ *
  * @author t0neg0d
  * @author Jeddic
  */
@@ -54,37 +59,50 @@ public class ColorInfluencer extends ParticleInfluencer {
 
 	private ColorValueType colorOverTime = new ColorValueType(ColorRGBA.White.clone());
 
+	private transient int[] colors;
+
 	public ColorInfluencer() {
 	}
 	
   @Override
 	public void update(ParticleData p, float tpf) {
 		if (enabled) {
-			colorOverTime.getValueColor(p.percentLife, p.randomValue, p.color);
-
 			// multiply by start color
-			p.color.r *= p.startColor.r;
-			p.color.g *= p.startColor.g;
-			p.color.b *= p.startColor.b;
-			p.color.a *= p.startColor.a;
+			p.packedColor = PackedColor.multiply(colorOverTime.getValueABGR(p.percentLife, p.randomValue), p.startColor);
+			p.packedColorValid = true;
 		}
 	}
 
 	@Override
-	public void initialize(ParticleData p) {
-		colorOverTime.getValueColor(0.0f, p.randomValue, p.color);
+	public void update(ParticleData[] particles, int from, int to, float tpf) {
+		if (!enabled) {
+			return;
+		}
 
+		if (colors == null || colors.length < particles.length) {
+			colors = new int[particles.length];
+		}
+		colorOverTime.getValuesABGR(emitter.getBatchPercentLife(), emitter.getBatchRandom(), colors, from, to);
+		for (int i = from; i < to; i++) {
+			ParticleData p = particles[i];
+			if (p.active) {
+				// multiply by start color
+				p.packedColor = PackedColor.multiply(colors[i], p.startColor);
+				p.packedColorValid = true;
+			}
+		}
+	}
 
+	@Override
+	public void initialize(ParticleData p) {
 		// multiply by start color
-		p.color.r *= p.startColor.r;
-		p.color.g *= p.startColor.g;
-		p.color.b *= p.startColor.b;
-		p.color.a *= p.startColor.a;
+		p.packedColor = PackedColor.multiply(colorOverTime.getValueABGR(0.0f, p.randomValue), p.startColor);
+		p.packedColorValid = true;
 	}
 
 	@Override
 	public void reset(ParticleData p) {
-		p.color.set(0.0f, 0.0f, 0.0f, 0.0f);
+		p.setColor(ColorRGBA.BlackNoAlpha);
 	}
 
 	/**
@@ -123,6 +141,7 @@ public class ColorInfluencer extends ParticleInfluencer {
 	public ParticleInfluencer clone() {
 		ColorInfluencer clone = (ColorInfluencer) super.clone();
 		clone.colorOverTime = colorOverTime.clone();
+		clone.colors = null;
 		return clone;
 	}
 
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.influencers;
+
+import com.epagagames.particles.fields.CurlNoise;
+import com.epagagames.particles.fields.VectorField;
+import com.epagagames.particles.particle.ParticleData;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Vector3f;
+
+import java.io.IOException;
+
+/**
+ * CurlNoiseInfluencer
+ * Adds smooth, swirling turbulence by pushing particles through a curl noise volume. The volume is precomputed
+ * and shared by every emitter using the same resolution and octaves, and the result only depends on where a
+ * particle is, so the motion is fluid and repeatable rather than random jitter.
+ */
+public class CurlNoiseInfluencer extends ParticleInfluencer {
+
+  private int resolution = 32;
+  private int octaves = 2;
+  private float frequency = 0.1f;
+  private float strength = 1.0f;
+  private Vector3f scroll = new Vector3f();
+
+  private transient VectorField volume;
+  private transient Vector3f offset = new Vector3f();
+  private transient Vector3f vector = new Vector3f();
+  private transient float scale;
+
+  public CurlNoiseInfluencer() {
+
+  }
+
+  public CurlNoiseInfluencer(float frequency, float strength) {
+    this.frequency = frequency;
+    this.strength = strength;
+  }
+
+  @Override
+  public void preUpdate(float tpf) {
+    if (volume == null) {
+      volume = CurlNoise.getVolume(resolution, octaves);
+    }
+    offset.addLocal(scroll.x * tpf, scroll.y * tpf, scroll.z * tpf);
+    scale = frequency * volume.getSizeX();
+  }
+
+  @Override
+  public void update(ParticleData p, float tpf) {
+    if (enabled) {
+      influence(p, tpf);
+    }
+  }
+
+  @Override
+  public void update(ParticleData[] particles, int from, int to, float tpf) {
+    if (!enabled) {
+      return;
+    }
+    for (int i = from; i < to; i++) {
+      ParticleData p = particles[i];
+      if (p.active) {
+        influence(p, tpf);
+      }
+    }
+  }
+
+  private void influence(ParticleData p, float tpf) {
+    Vector3f pos = p.position;
+    volume.sample((pos.x - offset.x) * scale, (pos.y - offset.y) * scale, (pos.z - offset.z) * scale, true,
+        vector);
+    float k = strength * tpf;
+    p.velocity.addLocal(vector.x * k, vector.y * k, vector.z * k);
+  }
+
+  @Override
+  public void initialize(ParticleData p) {
+
+  }
+
+  @Override
+  public void reset(ParticleData p) {
+
+  }
+
+  /**
+   * Gets the samples along each axis of the noise volume
+   * @return the resolution
+   */
+  public int getResolution() {
+    return resolution;
+  }
+
+  /**
+   * Sets the samples along each axis of the noise volume. Higher resolutions allow more octaves.
+   * @param resolution
+   */
+  public void setResolution(int resolution) {
+    this.resolution = resolution;
+    volume = null;
+  }
+
+  public int getOctaves() {
+    return octaves;
+  }
+
+  /**
+   * Sets the number of noise layers, each adding finer detail
+   * @param octaves
+   */
+  public void setOctaves(int octaves) {
+    this.octaves = octaves;
+    volume = null;
+  }
+
+  public float getFrequency() {
+    return frequency;
+  }
+
+  /**
+   * Sets how many times the noise repeats per unit, smaller values give larger swirls
+   * @param frequency
+   */
+  public void setFrequency(float frequency) {
+    this.frequency = frequency;
+  }
+
+  public float getStrength() {
+    return strength;
+  }
+
+  /**
+   * Sets the acceleration the noise applies to the particles
+   * @param strength
+   */
+  public void setStrength(float strength) {
+    this.strength = strength;
+  }
+
+  /**
+   * Gets the velocity the noise drifts through space
+   * @return the scroll speed
+   */
+  public Vector3f getScroll() {
+    return scroll;
+  }
+
+  /**
+   * Sets the velocity the noise drifts through space, which keeps the turbulence changing over time
+   * @param scroll
+   */
+  public void setScroll(Vector3f scroll) {
+    this.scroll.set(scroll);
+  }
+
+  @Override
+  public CurlNoiseInfluencer clone() {
+    CurlNoiseInfluencer clone = (CurlNoiseInfluencer) super.clone();
+    // the volume is shared
+    clone.scroll = scroll.clone();
+    clone.offset = offset.clone();
+    clone.vector = new Vector3f();
+    return clone;
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    super.write(ex);
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(resolution, "resolution", 32);
+    oc.write(octaves, "octaves", 2);
+    oc.write(frequency, "frequency", 0.1f);
+    oc.write(strength, "strength", 1.0f);
+    oc.write(scroll, "scroll", new Vector3f());
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    super.read(im);
+    InputCapsule ic = im.getCapsule(this);
+    resolution = ic.readInt("resolution", 32);
+    octaves = ic.readInt("octaves", 2);
+    frequency = ic.readFloat("frequency", 0.1f);
+    strength = ic.readFloat("strength", 1.0f);
+    scroll = (Vector3f) ic.readSavable("scroll", new Vector3f());
+    volume = null;
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.influencers;
+
+import com.epagagames.particles.particle.NeighborGrid;
+import com.epagagames.particles.particle.ParticleData;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+
+import java.io.IOException;
+
+/**
+ * DensityInfluencer
+ * A simple SPH style fluid. The density around each particle is measured from its neighbors, particles in
+ * regions denser than the rest density are pushed apart by the pressure and neighbors drag each other's
+ * velocities together through the viscosity. Gives blobs of particles a liquid or gas like volume.
+ *
+ * Densities are counted in particles, a particle alone has a density of 1.
+ */
+public class DensityInfluencer extends ParticleInfluencer {
+
+  private float radius = 1.0f;
+  private float restDensity = 4.0f;
+  private float stiffness = 2.0f;
+  private float viscosity = 0.5f;
+  private int maxNeighbors = 24;
+
+  // neighbors of every particle from the density pass, reused by the force pass
+  private transient int[] neighbors = new int[0];
+  private transient int[] neighborCount = new int[0];
+  private transient float[] density = new float[0];
+  private transient float[] acceleration = new float[0];
+  private transient int[] single = new int[0];
+
+  public DensityInfluencer() {
+
+  }
+
+  public DensityInfluencer(float radius, float restDensity) {
+    this.radius = radius;
+    this.restDensity = restDensity;
+  }
+
+  @Override
+  public void update(ParticleData p, float tpf) {
+    // the force needs the density of every neighbor, so a single particle runs the whole batch for itself
+    if (enabled) {
+      ParticleData[] particles = emitter.getNeighborGrid(radius).getParticles();
+      update(particles, p.index, p.index + 1, tpf);
+    }
+  }
+
+  @Override
+  public void update(ParticleData[] particles, int from, int to, float tpf) {
+    if (!enabled) {
+      return;
+    }
+    NeighborGrid grid = emitter.getNeighborGrid(radius);
+    int n = particles.length;
+    if (density.length < n || neighbors.length < n * maxNeighbors) {
+      neighbors = new int[n * maxNeighbors];
+      neighborCount = new int[n];
+      density = new float[n];
+      acceleration = new float[n * 3];
+    }
+    if (single.length != maxNeighbors) {
+      single = new int[maxNeighbors];
+    }
+
+    // neighbors outside the range need their density too
+    float h2 = radius * radius;
+    for (int i = 0; i < n; i++) {
+      ParticleData p = particles[i];
+      if (!p.active) {
+        neighborCount[i] = 0;
+        continue;
+      }
+      int count = grid.gather(p, radius, single);
+      System.arraycopy(single, 0, neighbors, i * maxNeighbors, count);
+      neighborCount[i] = count;
+      // poly6 shaped kernel, 1 at the particle itself falling to 0 at the radius
+      float d = 1;
+      for (int k = 0; k < count; k++) {
+        Vector3f q = particles[single[k]].position;
+        float r2 = p.position.distanceSquared(q);
+        float w = 1 - r2 / h2;
+        d += w * w * w;
+      }
+      density[i] = d;
+    }
+
+    for (int i = from; i < to; i++) {
+      ParticleData p = particles[i];
+      int o = i * 3;
+      acceleration[o] = acceleration[o + 1] = acceleration[o + 2] = 0;
+      if (!p.active) {
+        continue;
+      }
+      // only pushes apart, pulling together makes particles clump into pairs
+      float pressure = Math.max(0, stiffness * (density[i] - restDensity));
+      float ax = 0, ay = 0, az = 0;
+      for (int k = 0, base = i * maxNeighbors, count = neighborCount[i]; k < count; k++) {
+        int j = neighbors[base + k];
+        ParticleData q = particles[j];
+        float dx = p.position.x - q.position.x, dy = p.position.y - q.position.y, dz = p.position.z - q.position.z;
+        float r = FastMath.sqrt(dx * dx + dy * dy + dz * dz);
+        float falloff = 1 - r / radius;
+        float inv = 1.0f / density[j];
+        if (r > 0) {
+          float neighborPressure = Math.max(0, stiffness * (density[j] - restDensity));
+          // spiky shaped gradient along the direction away from the neighbor
+          float k2 = (pressure + neighborPressure) * 0.5f * falloff * falloff * inv / r;
+          ax += dx * k2;
+          ay += dy * k2;
+          az += dz * k2;
+        }
+        float kv = viscosity * falloff * inv;
+        ax += (q.velocity.x - p.velocity.x) * kv;
+        ay += (q.velocity.y - p.velocity.y) * kv;
+        az += (q.velocity.z - p.velocity.z) * kv;
+      }
+      float inv = 1.0f / density[i];
+      acceleration[o] = ax * inv;
+      acceleration[o + 1] = ay * inv;
+      acceleration[o + 2] = az * inv;
+    }
+
+    // applied after the loop so every particle sees the same neighbor velocities
+    for (int i = from; i < to; i++) {
+      ParticleData p = particles[i];
+      if (p.active) {
+        int o = i * 3;
+        p.velocity.addLocal(acceleration[o] * tpf, acceleration[o + 1] * tpf, acceleration[o + 2] * tpf);
+      }
+    }
+  }
+
+  @Override
+  public void initialize(ParticleData p) {
+
+  }
+
+  @Override
+  public void reset(ParticleData p) {
+
+  }
+
+  public float getRadius() {
+    return radius;
+  }
+
+  /**
+   * Sets the distance over which particles affect each other's density
+   * @param radius
+   */
+  public void setRadius(float radius) {
+    this.radius = radius;
+  }
+
+  public float getRestDensity() {
+    return restDensity;
+  }
+
+  /**
+   * Sets the density the fluid settles at, roughly the number of particles within the radius of each other
+   * @param restDensity
+   */
+  public void setRestDensity(float restDensity) {
+    this.restDensity = restDensity;
+  }
+
+  public float getStiffness() {
+    return stiffness;
+  }
+
+  /**
+   * Sets how strongly particles above the rest density push apart
+   * @param stiffness
+   */
+  public void setStiffness(float stiffness) {
+    this.stiffness = stiffness;
+  }
+
+  public float getViscosity() {
+    return viscosity;
+  }
+
+  /**
+   * Sets how strongly neighbors pull each other's velocities together
+   * @param viscosity
+   */
+  public void setViscosity(float viscosity) {
+    this.viscosity = viscosity;
+  }
+
+  public int getMaxNeighbors() {
+    return maxNeighbors;
+  }
+
+  /**
+   * Sets the most neighbors considered per particle, which bounds the cost and memory
+   * @param maxNeighbors
+   */
+  public void setMaxNeighbors(int maxNeighbors) {
+    this.maxNeighbors = maxNeighbors;
+    neighbors = new int[0];
+  }
+
+  @Override
+  public DensityInfluencer clone() {
+    DensityInfluencer clone = (DensityInfluencer) super.clone();
+    clone.neighbors = new int[0];
+    clone.neighborCount = new int[0];
+    clone.density = new float[0];
+    clone.acceleration = new float[0];
+    clone.single = new int[0];
+    return clone;
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    super.write(ex);
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(radius, "radius", 1.0f);
+    oc.write(restDensity, "restdensity", 4.0f);
+    oc.write(stiffness, "stiffness", 2.0f);
+    oc.write(viscosity, "viscosity", 0.5f);
+    oc.write(maxNeighbors, "maxneighbors", 24);
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    super.read(im);
+    InputCapsule ic = im.getCapsule(this);
+    radius = ic.readFloat("radius", 1.0f);
+    restDensity = ic.readFloat("restdensity", 4.0f);
+    stiffness = ic.readFloat("stiffness", 2.0f);
+    viscosity = ic.readFloat("viscosity", 0.5f);
+    maxNeighbors = ic.readInt("maxneighbors", 24);
+  }
+}
@@ -57,18 +57,20 @@ public class EmissionInfluencer extends ParticleInfluencer {
   public void updateGlobal(float tpf) {
     for (Emission emission : emissions) {
       int cycles = (int)emission.getCycles().getValue(emitter.getCurrentDuration()/emitter.getDuration(),
-          FastMath.nextRandomFloat());
+          FastMath.nextRandomFloat(), emitter.getCurrentDuration());
       // check if we have cycles to emit particles or the duration is long enough
       if (emitter.getCurrentDuration() >= emission.getDelay() && (cycles == -1 || cycles < emission.getCurrentCycleCount())) {
         float t = emission.getTimeSinceLast();
         if (t + tpf >= emission.getInterval()) {
           int count = (int)emission.getCount().getValue(emitter.getCurrentDuration()/emitter.getDuration(),
-              FastMath.nextRandomFloat());
+              FastMath.nextRandomFloat(), emitter.getCurrentDuration());
+          int emitted = 0;
           for (int i=0; i < count; i++) {
             if (FastMath.nextRandomFloat() <=  emission.getProbability()) {
-              emitter.emitNextParticle();
+              emitted++;
             }
           }
+          emitter.emitBurst(emitted);
           emission.setTimeSinceLast(t + tpf - emission.getInterval());
           emission.setCurrentCycleCount(emission.getCurrentCycleCount() + 1);
         } else {
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.influencers;
+
+import com.epagagames.particles.particle.NeighborGrid;
+import com.epagagames.particles.particle.ParticleData;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+
+import java.io.IOException;
+
+/**
+ * FlockingInfluencer
+ * Boids style flocking. Each particle steers away from crowding neighbors (separation), towards the average
+ * heading of its neighbors (alignment) and towards their center (cohesion), which together make swarms, flocks
+ * and schools move as a group.
+ *
+ * All particles steer from the same snapshot of their neighbors, the velocity changes are applied once every
+ * particle has been looked at.
+ */
+public class FlockingInfluencer extends ParticleInfluencer {
+
+  private float radius = 2.0f;
+  private float separation = 1.5f;
+  private float alignment = 1.0f;
+  private float cohesion = 1.0f;
+  private float maxSpeed = 0.0f;
+  private int maxNeighbors = 16;
+
+  private transient int[] neighbors = new int[0];
+  // steering of every particle, x y z, applied after all particles were looked at
+  private transient float[] steering = new float[0];
+  private transient Vector3f steer = new Vector3f();
+
+  public FlockingInfluencer() {
+
+  }
+
+  public FlockingInfluencer(float radius) {
+    this.radius = radius;
+  }
+
+  @Override
+  public void update(ParticleData p, float tpf) {
+    if (enabled) {
+      if (steer(emitter.getNeighborGrid(radius), p, steer)) {
+        apply(p, steer.x, steer.y, steer.z, tpf);
+      }
+    }
+  }
+
+  @Override
+  public void update(ParticleData[] particles, int from, int to, float tpf) {
+    if (!enabled) {
+      return;
+    }
+    NeighborGrid grid = emitter.getNeighborGrid(radius);
+    if (steering.length < particles.length * 3) {
+      steering = new float[particles.length * 3];
+    }
+    for (int i = from; i < to; i++) {
+      ParticleData p = particles[i];
+      int o = i * 3;
+      if (p.active && steer(grid, p, steer)) {
+        steering[o] = steer.x;
+        steering[o + 1] = steer.y;
+        steering[o + 2] = steer.z;
+      } else {
+        steering[o] = steering[o + 1] = steering[o + 2] = 0;
+      }
+    }
+    for (int i = from; i < to; i++) {
+      ParticleData p = particles[i];
+      if (p.active) {
+        int o = i * 3;
+        apply(p, steering[o], steering[o + 1], steering[o + 2], tpf);
+      }
+    }
+  }
+
+  /**
+   * Gets the steering acceleration of a particle
+   * @return false if the particle has no neighbors
+   */
+  private boolean steer(NeighborGrid grid, ParticleData p, Vector3f store) {
+    if (neighbors.length != maxNeighbors) {
+      neighbors = new int[maxNeighbors];
+    }
+    int count = grid.gather(p, radius, neighbors);
+    if (count == 0) {
+      return false;
+    }
+    ParticleData[] particles = grid.getParticles();
+    Vector3f pos = p.position;
+    float sx = 0, sy = 0, sz = 0;
+    float vx = 0, vy = 0, vz = 0;
+    float cx = 0, cy = 0, cz = 0;
+    for (int n = 0; n < count; n++) {
+      ParticleData q = particles[neighbors[n]];
+      float dx = pos.x - q.position.x, dy = pos.y - q.position.y, dz = pos.z - q.position.z;
+      float d = FastMath.sqrt(dx * dx + dy * dy + dz * dz);
+      if (d > 0) {
+        float k = (1 - d / radius) / d;
+        sx += dx * k;
+        sy += dy * k;
+        sz += dz * k;
+      }
+      vx += q.velocity.x;
+      vy += q.velocity.y;
+      vz += q.velocity.z;
+      cx += q.position.x;
+      cy += q.position.y;
+      cz += q.position.z;
+    }
+    float inv = 1.0f / count;
+    Vector3f v = p.velocity;
+    // alignment steers towards the average velocity, cohesion towards the center scaled to the radius
+    float c = cohesion * inv / radius;
+    store.set(
+        sx * separation + (vx * inv - v.x) * alignment + (cx - pos.x * count) * c,
+        sy * separation + (vy * inv - v.y) * alignment + (cy - pos.y * count) * c,
+        sz * separation + (vz * inv - v.z) * alignment + (cz - pos.z * count) * c);
+    return true;
+  }
+
+  private void apply(ParticleData p, float x, float y, float z, float tpf) {
+    Vector3f v = p.velocity;
+    v.addLocal(x * tpf, y * tpf, z * tpf);
+    if (maxSpeed > 0) {
+      float speed2 = v.lengthSquared();
+      if (speed2 > maxSpeed * maxSpeed) {
+        v.multLocal(maxSpeed / FastMath.sqrt(speed2));
+      }
+    }
+  }
+
+  @Override
+  public void initialize(ParticleData p) {
+
+  }
+
+  @Override
+  public void reset(ParticleData p) {
+
+  }
+
+  public float getRadius() {
+    return radius;
+  }
+
+  /**
+   * Sets the distance within which particles see each other
+   * @param radius
+   */
+  public void setRadius(float radius) {
+    this.radius = radius;
+  }
+
+  public float getSeparation() {
+    return separation;
+  }
+
+  /**
+   * Sets how strongly particles steer away from close neighbors
+   * @param separation
+   */
+  public void setSeparation(float separation) {
+    this.separation = separation;
+  }
+
+  public float getAlignment() {
+    return alignment;
+  }
+
+  /**
+   * Sets how strongly particles match the velocity of their neighbors
+   * @param alignment
+   */
+  public void setAlignment(float alignment) {
+    this.alignment = alignment;
+  }
+
+  public float getCohesion() {
+    return cohesion;
+  }
+
+  /**
+   * Sets how strongly particles steer towards the center of their neighbors
+   * @param cohesion
+   */
+  public void setCohesion(float cohesion) {
+    this.cohesion = cohesion;
+  }
+
+  public float getMaxSpeed() {
+    return maxSpeed;
+  }
+
+  /**
+   * Sets the speed particles are limited to after steering
+   * @param maxSpeed - the limit, 0 for none
+   */
+  public void setMaxSpeed(float maxSpeed) {
+    this.maxSpeed = maxSpeed;
+  }
+
+  public int getMaxNeighbors() {
+    return maxNeighbors;
+  }
+
+  /**
+   * Sets the most neighbors considered per particle, which bounds the cost in dense flocks
+   * @param maxNeighbors
+   */
+  public void setMaxNeighbors(int maxNeighbors) {
+    this.maxNeighbors = maxNeighbors;
+  }
+
+  @Override
+  public FlockingInfluencer clone() {
+    FlockingInfluencer clone = (FlockingInfluencer) super.clone();
+    clone.neighbors = new int[0];
+    clone.steering = new float[0];
+    clone.steer = new Vector3f();
+    return clone;
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    super.write(ex);
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(radius, "radius", 2.0f);
+    oc.write(separation, "separation", 1.5f);
+    oc.write(alignment, "alignment", 1.0f);
+    oc.write(cohesion, "cohesion", 1.0f);
+    oc.write(maxSpeed, "maxspeed", 0.0f);
+    oc.write(maxNeighbors, "maxneighbors", 16);
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    super.read(im);
+    InputCapsule ic = im.getCapsule(this);
+    radius = ic.readFloat("radius", 2.0f);
+    separation = ic.readFloat("separation", 1.5f);
+    alignment = ic.readFloat("alignment", 1.0f);
+    cohesion = ic.readFloat("cohesion", 1.0f);
+    maxSpeed = ic.readFloat("maxspeed", 0.0f);
+    maxNeighbors = ic.readInt("maxneighbors", 16);
+  }
+}
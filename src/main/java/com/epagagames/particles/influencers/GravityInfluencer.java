@@ -54,6 +54,10 @@ public class GravityInfluencer extends ParticleInfluencer {
 
 	private transient Vector3f store = new Vector3f();
 
+	// constant gravity is evaluated and rotated once per frame
+	private transient boolean constantGravity = false;
+	private transient Vector3f frameGravity = new Vector3f();
+
 	public GravityInfluencer() {
 
 	}
@@ -62,14 +66,29 @@ public class GravityInfluencer extends ParticleInfluencer {
 		gravity.setValue(value);
 	}
 	
+	@Override
+	public void preUpdate(float tpf) {
+		constantGravity = gravity.isConstant();
+		if (constantGravity) {
+			frameGravity.set(gravity.getValue());
+			if (emitter.getParticlesFollowEmitter()) {
+				emitter.getWorldRotation().mult(frameGravity, frameGravity);
+			}
+		}
+	}
+
   @Override
 	public void update(ParticleData p, float tpf) {
 		if (enabled) {
-			gravity.getValue3f(p.percentLife, p.randomValue, store);
+			if (constantGravity) {
+				store.set(frameGravity);
+			} else {
+				gravity.getValue3f(p.percentLife, p.randomValue, store);
 
-			// transform so the gravity applies according to the world
-			if (emitter.getParticlesFollowEmitter()) {
-				emitter.getWorldRotation().mult(store, store);
+				// transform so the gravity applies according to the world
+				if (emitter.getParticlesFollowEmitter()) {
+					emitter.getWorldRotation().mult(store, store);
+				}
 			}
 			p.velocity.x -= store.x * tpf;
 			p.velocity.y -= store.y * tpf;
@@ -91,6 +110,7 @@ public class GravityInfluencer extends ParticleInfluencer {
 	 */
 	public void setGravity(VectorValueType gravity) {
 		this.gravity = gravity;
+		constantGravity = false;
 	}
   
   public VectorValueType getGravity() {
@@ -105,6 +125,7 @@ public class GravityInfluencer extends ParticleInfluencer {
 	 */
 	public void setGravity(float x, float y, float z) {
 		this.gravity = new VectorValueType(new Vector3f(x, y, z));
+		constantGravity = false;
 	}
 	
   @Override
@@ -119,12 +140,15 @@ public class GravityInfluencer extends ParticleInfluencer {
 		super.read(im);
 		InputCapsule ic = im.getCapsule(this);
 		gravity = (VectorValueType) ic.readSavable("gravity", new VectorValueType(new Vector3f(0, 9.8f, 0)));
+		constantGravity = false;
 	}
 	
 	@Override
 	public ParticleInfluencer clone() {
 		GravityInfluencer clone = (GravityInfluencer) super.clone();
 		clone.setGravity(gravity.clone());
+		clone.store = new Vector3f();
+		clone.frameGravity = new Vector3f();
 		return clone;
 	}
 
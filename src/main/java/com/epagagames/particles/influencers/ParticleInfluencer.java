@@ -116,6 +116,15 @@ public abstract class ParticleInfluencer implements Savable, Cloneable {
     return enabled;
   }
 
+  /**
+   * Pre Update
+   * Called once per frame before the particles are updated. Values that are the same for every particle,
+   * such as constant value types, can be evaluated here instead of in update.
+   *
+   * @param tpf
+   */
+  public void preUpdate(float tpf) {}
+
   /**
    * Update Global
    * Updates once per frame instead of for every particle
@@ -132,6 +141,27 @@ public abstract class ParticleInfluencer implements Savable, Cloneable {
    */
   public abstract void update(ParticleData p, float tpf);
 
+  /**
+   * Update
+   * Updates the active particles in a range of the particle array. The emitter calls this once per frame
+   * with the percent life and random value of every particle gathered in getBatchPercentLife() and
+   * getBatchRandom(), so value types can be evaluated for the whole range with their batch methods.
+   * By default this calls update for each active particle.
+   *
+   * @param particles - the particles of the emitter
+   * @param from - the first particle index to update
+   * @param to - the index after the last particle to update
+   * @param tpf - the delta time for the last frame
+   */
+  public void update(ParticleData[] particles, int from, int to, float tpf) {
+    for (int i = from; i < to; i++) {
+      ParticleData p = particles[i];
+      if (p.active) {
+        update(p, tpf);
+      }
+    }
+  }
+
   /**
    * Initialize
    * Sets up a particle as it is emitted
@@ -139,6 +169,19 @@ public abstract class ParticleInfluencer implements Savable, Cloneable {
    */
   public abstract void initialize(ParticleData p);
 
+  /**
+   * Initialize
+   * Sets up the particles of a burst as they are emitted. By default this calls initialize for each particle.
+   * @param particles - the particles of the emitter
+   * @param indices - the indices of the emitted particles
+   * @param count - the number of emitted particles
+   */
+  public void initialize(ParticleData[] particles, int[] indices, int count) {
+    for (int i = 0; i < count; i++) {
+      initialize(particles[indices[i]]);
+    }
+  }
+
   /**
    * Reset
    * Resets the given particle
@@ -63,9 +63,9 @@ public class PreferredDestinationInfluencer extends ParticleInfluencer {
 
 	public void update(ParticleData p, float tpf) {
 		if (enabled) {
-			float currChance = chance.getValue(p.percentLife, p.randomValue);
+			float currChance = chance.getValue(p.percentLife, p.randomValue, p.emitter.getCurrentDuration());
 			if (FastMath.rand.nextFloat() < currChance) {
-				float currWeight = weight.getValue(p.percentLife, p.randomValue);
+				float currWeight = weight.getValue(p.percentLife, p.randomValue, p.emitter.getCurrentDuration());
 				preferredDestination.getValue3f(p.percentLife, p.randomValue, temp);
 				temp.subtractLocal(p.position);
 
@@ -63,7 +63,7 @@ public class PreferredDirectionInfluencer extends ParticleInfluencer {
 
 	public void initialize(ParticleData p) {
 		if (enabled) {
-			float currWeight = weight.getValue(p.percentLife, p.randomValue);
+			float currWeight = weight.getValue(p.percentLife, p.randomValue, p.emitter.getCurrentDuration());
 			preferredDirection.getValue3f(p.percentLife, p.randomValue, temp);
 			p.velocity.interpolateLocal(temp, currWeight);
 		}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.influencers;
+
+import com.epagagames.particles.fields.SdfGrid;
+import com.epagagames.particles.particle.ParticleData;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+
+import java.io.IOException;
+
+/**
+ * SdfInfluencer
+ * Moves particles relative to the surface stored in a signed distance field. In Collide mode particles that
+ * end up inside the surface are pushed back out along the gradient and lose the velocity heading in. In
+ * Attract mode particles accelerate towards the surface and settle on it, for effects swarming onto a shape.
+ *
+ * Each particle costs one 8 sample grid lookup however detailed the baked mesh was.
+ */
+public class SdfInfluencer extends ParticleInfluencer {
+
+  public enum Mode {
+    Collide,
+    Attract
+  }
+
+  private SdfGrid grid;
+  private Mode mode = Mode.Collide;
+  private float surfaceOffset = 0.0f;
+  private float bounce = 0.0f;
+  private float strength = 10.0f;
+  private float tightness = 2.0f;
+
+  private transient Vector3f world = new Vector3f();
+  private transient Vector3f normal = new Vector3f();
+  private transient Quaternion inverseRotation = new Quaternion();
+
+  public SdfInfluencer() {
+
+  }
+
+  public SdfInfluencer(SdfGrid grid, Mode mode) {
+    this.grid = grid;
+    this.mode = mode;
+  }
+
+  @Override
+  public void update(ParticleData p, float tpf) {
+    if (enabled && grid != null) {
+      boolean follow = emitter.getParticlesFollowEmitter();
+      if (follow) {
+        inverseRotation.set(emitter.getWorldRotation()).inverseLocal();
+      }
+      influence(p, tpf, follow, emitter.getWorldTransform());
+    }
+  }
+
+  @Override
+  public void update(ParticleData[] particles, int from, int to, float tpf) {
+    if (!enabled || grid == null) {
+      return;
+    }
+    boolean follow = emitter.getParticlesFollowEmitter();
+    Transform transform = emitter.getWorldTransform();
+    if (follow) {
+      inverseRotation.set(emitter.getWorldRotation()).inverseLocal();
+    }
+    for (int i = from; i < to; i++) {
+      ParticleData p = particles[i];
+      if (p.active) {
+        influence(p, tpf, follow, transform);
+      }
+    }
+  }
+
+  private void influence(ParticleData p, float tpf, boolean follow, Transform transform) {
+    if (follow) {
+      transform.transformVector(p.position, world);
+    } else {
+      world.set(p.position);
+    }
+    float d = grid.sample(world.x, world.y, world.z, normal) - surfaceOffset;
+    if (mode == Mode.Collide && d >= 0) {
+      return;
+    }
+    float length = normal.length();
+    if (length == 0) {
+      return;
+    }
+    normal.divideLocal(length);
+    if (follow) {
+      inverseRotation.multLocal(normal);
+    }
+
+    Vector3f v = p.velocity;
+    float vn = v.x * normal.x + v.y * normal.y + v.z * normal.z;
+    if (mode == Mode.Collide) {
+      // d is a world distance, particles that follow the emitter are positioned in its scaled space
+      float px = normal.x * -d;
+      float py = normal.y * -d;
+      float pz = normal.z * -d;
+      if (follow) {
+        Vector3f scale = transform.getScale();
+        px /= scale.x;
+        py /= scale.y;
+        pz /= scale.z;
+      }
+      p.position.addLocal(px, py, pz);
+      if (vn < 0) {
+        float k = vn * (1 + bounce);
+        v.subtractLocal(normal.x * k, normal.y * k, normal.z * k);
+      }
+    } else {
+      // full strength away from the surface, easing off within a cell of it so particles don't overshoot
+      float pull = strength * Math.max(-1, Math.min(1, d / grid.getCellSize())) * tpf;
+      // remove part of the velocity along the normal so particles settle instead of oscillating
+      float damp = vn * Math.min(1, tightness * tpf);
+      float k = pull + damp;
+      v.subtractLocal(normal.x * k, normal.y * k, normal.z * k);
+    }
+  }
+
+  @Override
+  public void initialize(ParticleData p) {
+
+  }
+
+  @Override
+  public void reset(ParticleData p) {
+
+  }
+
+  public SdfGrid getGrid() {
+    return grid;
+  }
+
+  public void setGrid(SdfGrid grid) {
+    this.grid = grid;
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  public void setMode(Mode mode) {
+    this.mode = mode;
+  }
+
+  /**
+   * Gets the distance from the surface particles are kept outside of or attracted to
+   * @return the offset
+   */
+  public float getSurfaceOffset() {
+    return surfaceOffset;
+  }
+
+  /**
+   * Sets the distance from the surface particles are kept outside of or attracted to. Positive values keep
+   * particles above the surface, negative values inside it.
+   * @param surfaceOffset
+   */
+  public void setSurfaceOffset(float surfaceOffset) {
+    this.surfaceOffset = surfaceOffset;
+  }
+
+  /**
+   * Gets the fraction of the velocity into the surface reflected in Collide mode
+   * @return the bounce 0-1
+   */
+  public float getBounce() {
+    return bounce;
+  }
+
+  /**
+   * Sets the fraction of the velocity into the surface reflected in Collide mode, 0 slides along it
+   * @param bounce
+   */
+  public void setBounce(float bounce) {
+    this.bounce = bounce;
+  }
+
+  /**
+   * Gets the acceleration towards the surface in Attract mode
+   * @return the strength
+   */
+  public float getStrength() {
+    return strength;
+  }
+
+  /**
+   * Sets the acceleration towards the surface in Attract mode
+   * @param strength
+   */
+  public void setStrength(float strength) {
+    this.strength = strength;
+  }
+
+  /**
+   * Gets how quickly the velocity along the surface normal is removed in Attract mode
+   * @return the fraction removed per second
+   */
+  public float getTightness() {
+    return tightness;
+  }
+
+  /**
+   * Sets how quickly the velocity along the surface normal is removed in Attract mode. Higher values hold
+   * particles to the surface more tightly while they keep moving freely across it.
+   * @param tightness - the fraction removed per second
+   */
+  public void setTightness(float tightness) {
+    this.tightness = tightness;
+  }
+
+  @Override
+  public SdfInfluencer clone() {
+    SdfInfluencer clone = (SdfInfluencer) super.clone();
+    // the grid is read only and shared
+    clone.world = new Vector3f();
+    clone.normal = new Vector3f();
+    clone.inverseRotation = new Quaternion();
+    return clone;
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    super.write(ex);
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(grid, "grid", null);
+    oc.write(mode, "mode", Mode.Collide);
+    oc.write(surfaceOffset, "surfaceoffset", 0.0f);
+    oc.write(bounce, "bounce", 0.0f);
+    oc.write(strength, "strength", 10.0f);
+    oc.write(tightness, "tightness", 2.0f);
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    super.read(im);
+    InputCapsule ic = im.getCapsule(this);
+    grid = (SdfGrid) ic.readSavable("grid", null);
+    mode = ic.readEnum("mode", Mode.class, Mode.Collide);
+    surfaceOffset = ic.readFloat("surfaceoffset", 0.0f);
+    bounce = ic.readFloat("bounce", 0.0f);
+    strength = ic.readFloat("strength", 10.0f);
+    tightness = ic.readFloat("tightness", 2.0f);
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.influencers;
+
+import com.epagagames.particles.particle.NeighborGrid;
+import com.epagagames.particles.particle.ParticleData;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+
+import java.io.IOException;
+
+/**
+ * SeparationInfluencer
+ * Pushes particles away from the particles around them, stronger the closer they are, so they spread out
+ * instead of overlapping.
+ */
+public class SeparationInfluencer extends ParticleInfluencer {
+
+  private float radius = 1.0f;
+  private float strength = 5.0f;
+  private int maxNeighbors = 16;
+
+  private transient int[] neighbors = new int[0];
+
+  public SeparationInfluencer() {
+
+  }
+
+  public SeparationInfluencer(float radius, float strength) {
+    this.radius = radius;
+    this.strength = strength;
+  }
+
+  @Override
+  public void update(ParticleData p, float tpf) {
+    if (enabled) {
+      separate(emitter.getNeighborGrid(radius), p, tpf);
+    }
+  }
+
+  @Override
+  public void update(ParticleData[] particles, int from, int to, float tpf) {
+    if (!enabled) {
+      return;
+    }
+    NeighborGrid grid = emitter.getNeighborGrid(radius);
+    for (int i = from; i < to; i++) {
+      ParticleData p = particles[i];
+      if (p.active) {
+        separate(grid, p, tpf);
+      }
+    }
+  }
+
+  private void separate(NeighborGrid grid, ParticleData p, float tpf) {
+    if (neighbors.length != maxNeighbors) {
+      neighbors = new int[maxNeighbors];
+    }
+    int count = grid.gather(p, radius, neighbors);
+    if (count == 0) {
+      return;
+    }
+    ParticleData[] particles = grid.getParticles();
+    Vector3f pos = p.position;
+    float px = 0, py = 0, pz = 0;
+    for (int n = 0; n < count; n++) {
+      Vector3f q = particles[neighbors[n]].position;
+      float dx = pos.x - q.x, dy = pos.y - q.y, dz = pos.z - q.z;
+      float d = FastMath.sqrt(dx * dx + dy * dy + dz * dz);
+      if (d == 0) {
+        continue;
+      }
+      // unit direction away from the neighbor, fading to nothing at the radius
+      float k = (1 - d / radius) / d;
+      px += dx * k;
+      py += dy * k;
+      pz += dz * k;
+    }
+    float k = strength * tpf;
+    p.velocity.addLocal(px * k, py * k, pz * k);
+  }
+
+  @Override
+  public void initialize(ParticleData p) {
+
+  }
+
+  @Override
+  public void reset(ParticleData p) {
+
+  }
+
+  public float getRadius() {
+    return radius;
+  }
+
+  /**
+   * Sets the distance at which particles start pushing each other away
+   * @param radius
+   */
+  public void setRadius(float radius) {
+    this.radius = radius;
+  }
+
+  public float getStrength() {
+    return strength;
+  }
+
+  /**
+   * Sets the acceleration between two particles at the same position
+   * @param strength
+   */
+  public void setStrength(float strength) {
+    this.strength = strength;
+  }
+
+  public int getMaxNeighbors() {
+    return maxNeighbors;
+  }
+
+  /**
+   * Sets the most neighbors considered per particle, which bounds the cost in dense clusters
+   * @param maxNeighbors
+   */
+  public void setMaxNeighbors(int maxNeighbors) {
+    this.maxNeighbors = maxNeighbors;
+  }
+
+  @Override
+  public SeparationInfluencer clone() {
+    SeparationInfluencer clone = (SeparationInfluencer) super.clone();
+    clone.neighbors = new int[0];
+    return clone;
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    super.write(ex);
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(radius, "radius", 1.0f);
+    oc.write(strength, "strength", 5.0f);
+    oc.write(maxNeighbors, "maxneighbors", 16);
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    super.read(im);
+    InputCapsule ic = im.getCapsule(this);
+    radius = ic.readFloat("radius", 1.0f);
+    strength = ic.readFloat("strength", 5.0f);
+    maxNeighbors = ic.readInt("maxneighbors", 16);
+  }
+}
@@ -51,21 +51,62 @@ public class SizeInfluencer extends ParticleInfluencer {
 
 	private ValueType sizeOverTime = new ValueType(1.0f);
 
+	// constant sizes are read once per frame
+	private transient boolean constantSize = false;
+	private transient float size;
+	private transient float emitterTime;
+	private transient float[] sizes;
+
+	@Override
+	public void preUpdate(float tpf) {
+		constantSize = sizeOverTime.isConstant();
+		size = sizeOverTime.getValue();
+		emitterTime = emitter != null ? emitter.getCurrentDuration() : 0;
+	}
+
 	@Override
 	public void update(ParticleData p, float tpf) {
 		if (enabled) {
-			p.size = p.startSize * sizeOverTime.getValue(p.percentLife, p.randomValue);
+			p.size = p.startSize * (constantSize ? size : sizeOverTime.getValue(p.percentLife, p.randomValue, emitterTime));
+		}
+	}
+
+	@Override
+	public void update(ParticleData[] particles, int from, int to, float tpf) {
+		if (!enabled) {
+			return;
+		}
+
+		if (constantSize) {
+			for (int i = from; i < to; i++) {
+				ParticleData p = particles[i];
+				if (p.active) {
+					p.size = p.startSize * size;
+				}
+			}
+			return;
+		}
+
+		if (sizes == null || sizes.length < particles.length) {
+			sizes = new float[particles.length];
+		}
+		sizeOverTime.getValues(emitter.getBatchPercentLife(), emitter.getBatchRandom(), emitterTime, sizes, from, to);
+		for (int i = from; i < to; i++) {
+			ParticleData p = particles[i];
+			if (p.active) {
+				p.size = p.startSize * sizes[i];
+			}
 		}
 	}
 
 	@Override
 	public void initialize(ParticleData p) {
-		p.size = p.startSize * sizeOverTime.getValue(0, p.randomValue);
+		p.size = p.startSize * sizeOverTime.getValue(0, p.randomValue, p.emitter.getCurrentDuration());
 	}
 
 	@Override
 	public void reset(ParticleData p){
-    p.size = p.startSize * sizeOverTime.getValue(0, p.randomValue);
+    p.size = p.startSize * sizeOverTime.getValue(0, p.randomValue, p.emitter.getCurrentDuration());
 	}
 
 	public ValueType getSizeOverTime() {
@@ -74,6 +115,7 @@ public class SizeInfluencer extends ParticleInfluencer {
 
 	public void setSizeOverTime(ValueType sizeOverTime) {
 		this.sizeOverTime = sizeOverTime;
+		constantSize = false;
 	}
 	
 	@Override
@@ -86,12 +128,14 @@ public class SizeInfluencer extends ParticleInfluencer {
 	public void read(JmeImporter im) throws IOException {
 		InputCapsule ic = im.getCapsule(this);
 		sizeOverTime = (ValueType)ic.readSavable("sizeovertime", new ValueType(1.0f));
+		constantSize = false;
 	}
 	
 	@Override
 	public ParticleInfluencer clone() {
 		SizeInfluencer clone = (SizeInfluencer) super.clone();
 		clone.sizeOverTime = sizeOverTime.clone();
+		clone.sizes = null;
 		return clone;
 	}
 }
@@ -43,7 +43,9 @@ import com.jme3.export.JmeImporter;
 import com.jme3.export.OutputCapsule;
 import com.jme3.material.Material;
 import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
 import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
 import com.jme3.scene.Geometry;
 
 import java.io.IOException;
@@ -59,6 +61,9 @@ public class TrailInfluencer extends ParticleInfluencer {
 
   // Used as a temp object for internal calculations
   private Vector3f tempOne = new Vector3f();
+  private Vector3f tempTwo = new Vector3f();
+  private Vector3f tempThree = new Vector3f();
+  private ColorRGBA tempColor = new ColorRGBA();
 
   // trail related display info
   private Geometry trailGeo;
@@ -68,6 +73,15 @@ public class TrailInfluencer extends ParticleInfluencer {
   // How often do we output a polygon for the trail?
   private float minLength = 0.1f;
 
+  // Camera distance at which minLength starts to grow, 0 disables distance based detail
+  private float lodDistance = 0.0f;
+
+  // The largest factor minLength can be scaled by for far away trails
+  private float maxLodScale = 8.0f;
+
+  // How far a trail point may stray from the line between its neighbours and still be dropped, 0 disables it
+  private float simplifyTolerance = 0.0f;
+
   // Needs to be between 0 - 1.0
   // Basically tells the system how long a trail segment lasts compared to the particle lifetime
   private float trailLife = 0.5f;
@@ -75,6 +89,9 @@ public class TrailInfluencer extends ParticleInfluencer {
   private boolean useParticleSize = false;
   private boolean useParticleColor = false;
 
+  // Builds the trail as connected ribbons sharing vertices between segments instead of separate quads
+  private boolean useRibbon = false;
+
   private ValueType trailSize = new ValueType(0.1f);
   private ColorValueType colorOverLifetime = new ColorValueType(new ColorRGBA(1.0f, 0.0f, 0.0f, 1.0f));
 
@@ -98,6 +115,23 @@ public class TrailInfluencer extends ParticleInfluencer {
     this.useParticleColor = useParticleColor;
   }
 
+  public boolean isUseRibbon() {
+    return useRibbon;
+  }
+
+  public void setUseRibbon(boolean useRibbon) {
+    this.useRibbon = useRibbon;
+    if (emitter != null) {
+      emitter.finishPipelinedFrame();
+    }
+    syncTrailMesh();
+    trailMesh.setRibbon(useRibbon);
+
+    // rebuild the trail buffers if we are already assigned
+    if (emitter != null)
+      initializeInfluencer(emitter);
+  }
+
   public ValueType getTrailSize() {
     return trailSize;
   }
@@ -122,6 +156,45 @@ public class TrailInfluencer extends ParticleInfluencer {
     this.minLength = minLength;
   }
 
+  public float getLodDistance() {
+    return lodDistance;
+  }
+
+  /**
+   * Sets the camera distance at which the trail starts to lose detail. Past this distance the minimum
+   * segment length grows linearly with the distance so segments keep roughly the same size on screen.
+   * @param lodDistance - the distance in world units, 0 disables distance based detail
+   */
+  public void setLodDistance(float lodDistance) {
+    this.lodDistance = lodDistance;
+  }
+
+  public float getMaxLodScale() {
+    return maxLodScale;
+  }
+
+  /**
+   * Sets the largest factor the minimum segment length and simplify tolerance can be scaled by
+   * @param maxLodScale - the maximum scale, at least 1
+   */
+  public void setMaxLodScale(float maxLodScale) {
+    this.maxLodScale = maxLodScale;
+  }
+
+  public float getSimplifyTolerance() {
+    return simplifyTolerance;
+  }
+
+  /**
+   * Sets how far a trail point may deviate from the line between its neighbours before it has to be kept.
+   * Points within the tolerance are merged into the next point instead of starting a new segment.
+   * The tolerance is scaled with the distance based detail.
+   * @param simplifyTolerance - the tolerance in world units, 0 disables simplification
+   */
+  public void setSimplifyTolerance(float simplifyTolerance) {
+    this.simplifyTolerance = simplifyTolerance;
+  }
+
   public float getTrailLife() {
     return trailLife;
   }
@@ -155,28 +228,40 @@ public class TrailInfluencer extends ParticleInfluencer {
   public void update(ParticleData p, float tpf) {
     // Trail update info
     boolean add = false;
+    float lodScale = 1.0f;
     if (p.trailSegments.size() == 0) {
       add = true;
     } else {
-      // are we close enough to add a new segment
+      // are we close enough to add a new segment, the lod scale is never below 1 so it is only needed past minLength
       ParticleTrailPoint last = p.trailSegments.getLast();
       tempOne.set(p.position);
       tempOne.subtractLocal(last.position);
       float dist = tempOne.length();
       if (dist >= minLength) {
-        add = true;
+        lodScale = getLodScale(p);
+        add = dist >= minLength * lodScale;
       }
     }
 
     // add particle trail point
     if (add) {
-      p.trailSegments.addLast(new ParticleTrailPoint(
-          p.position,
-          p.velocity,
-          useParticleSize ? p.size : trailSize.getValue(0.0f, p.randomValue),
-          p.color,
-          p.startlife * trailLife));
-
+      float size = useParticleSize ? p.size : trailSize.getValue(0.0f, p.randomValue, p.emitter.getCurrentDuration());
+      if (simplifyTolerance > 0 && canMergeLast(p, simplifyTolerance * lodScale)) {
+        // the last point is on the line to the new one so just move it up instead of adding a segment
+        ParticleTrailPoint last = p.trailSegments.getLast();
+        last.position.set(p.position);
+        last.velocity.set(p.velocity);
+        last.size = size;
+        p.getColor(last.color);
+        last.life = p.startlife * trailLife;
+      } else {
+        p.trailSegments.addLast(new ParticleTrailPoint(
+            p.position,
+            p.velocity,
+            size,
+            p.getColor(tempColor),
+            p.startlife * trailLife));
+      }
     }
 
     // check segments lifetime
@@ -193,7 +278,7 @@ public class TrailInfluencer extends ParticleInfluencer {
 
       // modulate size based on lifetime
       if (!useParticleSize) {
-        float newSize = trailSize.getValue(life, p.randomValue);
+        float newSize = trailSize.getValue(life, p.randomValue, p.emitter.getCurrentDuration());
         trailPoint.size = newSize;
       }
 
@@ -205,10 +290,68 @@ public class TrailInfluencer extends ParticleInfluencer {
 
   }
 
+  /**
+   * Calculates how much coarser the trail of the given particle may be based on its distance to the camera
+   */
+  private float getLodScale(ParticleData p) {
+    if (lodDistance <= 0) {
+      return 1.0f;
+    }
+
+    Camera cam = emitter.getLastCamera();
+    if (cam == null) {
+      return 1.0f;
+    }
+
+    if (emitter.getParticlesFollowEmitter()) {
+      // through getWorldTransform, which a pipelined emitter keeps stable for its worker
+      emitter.getWorldTransform().transformVector(p.position, tempOne);
+    } else {
+      tempOne.set(p.position);
+    }
+
+    float scale = cam.getLocation().distance(tempOne) / lodDistance;
+    return FastMath.clamp(scale, 1.0f, Math.max(1.0f, maxLodScale));
+  }
+
+  /**
+   * Checks if the newest trail point lies within the tolerance of the line from the point before it to the
+   * particle's current position.
+   */
+  private boolean canMergeLast(ParticleData p, float tolerance) {
+    if (p.trailSegments.size() < 2) {
+      return false;
+    }
+
+    Iterator<ParticleTrailPoint> itr = p.trailSegments.descendingIterator();
+    ParticleTrailPoint last = itr.next();
+    ParticleTrailPoint previous = itr.next();
+
+    // line from the previous point to the particle
+    tempOne.set(p.position).subtractLocal(previous.position);
+    tempTwo.set(last.position).subtractLocal(previous.position);
+    float lineLengthSq = tempOne.lengthSquared();
+    if (lineLengthSq <= FastMath.ZERO_TOLERANCE) {
+      return false;
+    }
+
+    // the last point has to be between its neighbours, otherwise this would cut off a turn
+    float projection = tempTwo.dot(tempOne);
+    if (projection < 0 || projection > lineLengthSq) {
+      return false;
+    }
+
+    tempThree.set(tempTwo).crossLocal(tempOne);
+    return tempThree.lengthSquared() <= tolerance * tolerance * lineLengthSq;
+  }
+
   @Override
   public void initializeInfluencer(Emitter emitter) {
     super.initializeInfluencer(emitter);
 
+    // the mesh is about to change size, a pipelined emitter has to clone it again
+    emitter.discardPipelinedMeshes();
+    syncTrailMesh();
     trailMesh.initParticleData(emitter, emitter.getMaxParticles());
 
     // attach our geo
@@ -230,6 +373,16 @@ public class TrailInfluencer extends ParticleInfluencer {
 
   }
 
+  /**
+   * A pipelined emitter swaps the mesh of the trail geometry every frame, follow it so settings go to the mesh
+   * being shown
+   */
+  private void syncTrailMesh() {
+    if (trailGeo != null && trailGeo.getMesh() instanceof ParticleDataTrails) {
+      trailMesh = (ParticleDataTrails) trailGeo.getMesh();
+    }
+  }
+
   @Override
   public void initialize(ParticleData p) {
 
@@ -260,6 +413,10 @@ public class TrailInfluencer extends ParticleInfluencer {
     oc.write(trailLife, "traillife", 1.0f);
     oc.write(useParticleSize, "useparticlesize", false);
     oc.write(useParticleColor, "useparticlecolor", false);
+    oc.write(useRibbon, "useribbon", false);
+    oc.write(lodDistance, "loddistance", 0.0f);
+    oc.write(maxLodScale, "maxlodscale", 8.0f);
+    oc.write(simplifyTolerance, "simplifytolerance", 0.0f);
     oc.write(trailSize, "trailsize", new ValueType(1.0f));
     oc.write(colorOverLifetime, "coloroverlifetime", new ColorValueType(new ColorRGBA()));
   }
@@ -273,6 +430,11 @@ public class TrailInfluencer extends ParticleInfluencer {
     trailLife = ic.readFloat("traillife", 1.0f);
     useParticleSize = ic.readBoolean("useparticlesize", false);
     useParticleColor = ic.readBoolean("useparticlecolor", false);
+    useRibbon = ic.readBoolean("useribbon", false);
+    trailMesh.setRibbon(useRibbon);
+    lodDistance = ic.readFloat("loddistance", 0.0f);
+    maxLodScale = ic.readFloat("maxlodscale", 8.0f);
+    simplifyTolerance = ic.readFloat("simplifytolerance", 0.0f);
     trailSize = (ValueType)ic.readSavable("trailsize", new ValueType(1.0f));
     colorOverLifetime = (ColorValueType)ic.readSavable("coloroverlifetime", new ColorValueType(new ColorRGBA()));
 
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.influencers;
+
+import com.epagagames.particles.fields.VectorField;
+import com.epagagames.particles.particle.ParticleData;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+
+import java.io.IOException;
+
+/**
+ * VectorFieldInfluencer
+ * Moves particles through a vector field placed in the emitter's space, so the field moves with the emitter.
+ * The tightness blends between treating the field as a force, at 0, and pulling the particle velocity to the
+ * field, faster for higher values. Like the SdfInfluencer tightness it is a rate per second so the motion
+ * doesn't depend on the frame rate.
+ */
+public class VectorFieldInfluencer extends ParticleInfluencer {
+
+  private VectorField field;
+  private Vector3f origin = new Vector3f(-5, -5, -5);
+  private Vector3f size = new Vector3f(10, 10, 10);
+  private boolean tiled = false;
+  private float strength = 1.0f;
+  private float tightness = 0.0f;
+
+  private transient Vector3f local = new Vector3f();
+  private transient Vector3f vector = new Vector3f();
+  // field samples per unit along each axis, set once per frame
+  private transient float scaleX, scaleY, scaleZ;
+
+  public VectorFieldInfluencer() {
+
+  }
+
+  public VectorFieldInfluencer(VectorField field) {
+    this.field = field;
+  }
+
+  @Override
+  public void preUpdate(float tpf) {
+    if (field != null) {
+      scaleX = (tiled ? field.getSizeX() : field.getSizeX() - 1) / size.x;
+      scaleY = (tiled ? field.getSizeY() : field.getSizeY() - 1) / size.y;
+      scaleZ = (tiled ? field.getSizeZ() : field.getSizeZ() - 1) / size.z;
+    }
+  }
+
+  @Override
+  public void update(ParticleData p, float tpf) {
+    if (enabled && field != null) {
+      influence(p, tpf, emitter.getParticlesFollowEmitter(), emitter.getWorldTransform());
+    }
+  }
+
+  @Override
+  public void update(ParticleData[] particles, int from, int to, float tpf) {
+    if (!enabled || field == null) {
+      return;
+    }
+    boolean follow = emitter.getParticlesFollowEmitter();
+    Transform transform = emitter.getWorldTransform();
+    for (int i = from; i < to; i++) {
+      ParticleData p = particles[i];
+      if (p.active) {
+        influence(p, tpf, follow, transform);
+      }
+    }
+  }
+
+  private void influence(ParticleData p, float tpf, boolean follow, Transform transform) {
+    if (follow) {
+      local.set(p.position);
+    } else {
+      transform.transformInverseVector(p.position, local);
+    }
+    field.sample((local.x - origin.x) * scaleX, (local.y - origin.y) * scaleY, (local.z - origin.z) * scaleZ,
+        tiled, vector);
+    if (!follow) {
+      transform.getRotation().multLocal(vector);
+    }
+
+    // v += target * tpf as a force, blended towards v = target at the tightness rate
+    float match = Math.min(1, tightness * tpf);
+    Vector3f v = p.velocity;
+    float force = strength * tpf * (1 - match);
+    v.x += vector.x * force + (vector.x * strength - v.x) * match;
+    v.y += vector.y * force + (vector.y * strength - v.y) * match;
+    v.z += vector.z * force + (vector.z * strength - v.z) * match;
+  }
+
+  @Override
+  public void initialize(ParticleData p) {
+
+  }
+
+  @Override
+  public void reset(ParticleData p) {
+
+  }
+
+  public VectorField getField() {
+    return field;
+  }
+
+  public void setField(VectorField field) {
+    this.field = field;
+  }
+
+  /**
+   * Gets the corner of the field with the lowest coordinates, in emitter space
+   * @return the origin
+   */
+  public Vector3f getOrigin() {
+    return origin;
+  }
+
+  public void setOrigin(Vector3f origin) {
+    this.origin.set(origin);
+  }
+
+  /**
+   * Gets the extent of the field in emitter space. A tiled field repeats every size.
+   * @return the size
+   */
+  public Vector3f getSize() {
+    return size;
+  }
+
+  public void setSize(Vector3f size) {
+    this.size.set(size);
+  }
+
+  public boolean isTiled() {
+    return tiled;
+  }
+
+  /**
+   * Sets whether the field repeats outside its bounds or extends its edge vectors
+   * @param tiled
+   */
+  public void setTiled(boolean tiled) {
+    this.tiled = tiled;
+  }
+
+  public float getStrength() {
+    return strength;
+  }
+
+  /**
+   * Sets the multiplier applied to the field vectors
+   * @param strength
+   */
+  public void setStrength(float strength) {
+    this.strength = strength;
+  }
+
+  public float getTightness() {
+    return tightness;
+  }
+
+  /**
+   * Sets how closely particles follow the field
+   * @param tightness - 0 accelerates particles by the field, otherwise the fraction of the difference to the
+   * field velocity removed per second
+   */
+  public void setTightness(float tightness) {
+    this.tightness = tightness;
+  }
+
+  @Override
+  public VectorFieldInfluencer clone() {
+    VectorFieldInfluencer clone = (VectorFieldInfluencer) super.clone();
+    // the field is read only and shared
+    clone.origin = origin.clone();
+    clone.size = size.clone();
+    clone.local = new Vector3f();
+    clone.vector = new Vector3f();
+    return clone;
+  }
+
+  @Override
+  public void write(JmeExporter ex) throws IOException {
+    super.write(ex);
+    OutputCapsule oc = ex.getCapsule(this);
+    oc.write(field, "field", null);
+    oc.write(origin, "origin", new Vector3f(-5, -5, -5));
+    oc.write(size, "size", new Vector3f(10, 10, 10));
+    oc.write(tiled, "tiled", false);
+    oc.write(strength, "strength", 1.0f);
+    oc.write(tightness, "tightness", 0.0f);
+  }
+
+  @Override
+  public void read(JmeImporter im) throws IOException {
+    super.read(im);
+    InputCapsule ic = im.getCapsule(this);
+    field = (VectorField) ic.readSavable("field", null);
+    origin = (Vector3f) ic.readSavable("origin", new Vector3f(-5, -5, -5));
+    size = (Vector3f) ic.readSavable("size", new Vector3f(10, 10, 10));
+    tiled = ic.readBoolean("tiled", false);
+    strength = ic.readFloat("strength", 1.0f);
+    tightness = ic.readFloat("tightness", 0.0f);
+  }
+}
@@ -59,11 +59,33 @@ public class VelocityInfluencer extends ParticleInfluencer {
   private VectorValueType orbital = new VectorValueType(new Vector3f(0, 0, 0));
   private VectorValueType orbitalRotations = new VectorValueType(new Vector3f(8, 8, 8));
 
+  // constant values are read once per frame
+  private boolean constantLinear, constantOrbital, constantOrbitalRotations;
+
+  @Override
+  public void preUpdate(float tpf) {
+    constantLinear = linear.isConstant();
+    constantOrbital = orbital.isConstant();
+    constantOrbitalRotations = orbitalRotations.isConstant();
+  }
+
   @Override
   public void update(ParticleData p, float tpf) {
-    orbital.getValue3f(p.percentLife, p.randomValue, tempOne);
-    orbitalRotations.getValue3f(p.percentLife, p.randomValue, tempThree);
-    linear.getValue3f(p.percentLife, p.randomValue, tempTwo);
+    if (constantOrbital) {
+      tempOne.set(orbital.getValue());
+    } else {
+      orbital.getValue3f(p.percentLife, p.randomValue, tempOne);
+    }
+    if (constantOrbitalRotations) {
+      tempThree.set(orbitalRotations.getValue());
+    } else {
+      orbitalRotations.getValue3f(p.percentLife, p.randomValue, tempThree);
+    }
+    if (constantLinear) {
+      tempTwo.set(linear.getValue());
+    } else {
+      linear.getValue3f(p.percentLife, p.randomValue, tempTwo);
+    }
     tempOne.multLocal(p.initialVelocity);
     tempTwo.multLocal(p.initialVelocity);
     p.velocity.set(tempTwo);
@@ -90,6 +112,7 @@ public class VelocityInfluencer extends ParticleInfluencer {
 
   public void setLinear(VectorValueType linear) {
     this.linear = linear;
+    constantLinear = false;
   }
 
   public VectorValueType getOrbital() {
@@ -98,6 +121,7 @@ public class VelocityInfluencer extends ParticleInfluencer {
 
   public void setOrbital(VectorValueType orbital) {
     this.orbital = orbital;
+    constantOrbital = false;
   }
 
   public VectorValueType getOrbitalRotations() {
@@ -106,6 +130,7 @@ public class VelocityInfluencer extends ParticleInfluencer {
 
   public void setOrbitalRotations(VectorValueType orbitalRotations) {
     this.orbitalRotations = orbitalRotations;
+    constantOrbitalRotations = false;
   }
 
   @Override
@@ -137,6 +162,7 @@ public class VelocityInfluencer extends ParticleInfluencer {
     linear = (VectorValueType) ic.readSavable("linear", new VectorValueType(new Vector3f()));
     orbital = (VectorValueType) ic.readSavable("orbital", new VectorValueType(new Vector3f()));
     orbitalRotations = (VectorValueType) ic.readSavable("orbitalRotations", new VectorValueType(new Vector3f()));
+    constantLinear = constantOrbital = constantOrbitalRotations = false;
   }
 
   @Override
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.particle;
+
+import com.jme3.math.Vector3f;
+
+import java.util.Arrays;
+
+/**
+ * Neighbor Grid
+ * A uniform spatial hash of the particles of an emitter so influencers can find the particles near another one
+ * without testing every pair. Particles are bucketed by counting sort into flat arrays which are kept between
+ * builds, so rebuilding every frame allocates nothing once the emitter reached its size. Queries visit the
+ * buckets around a position and only touch the particles in them.
+ *
+ * Use Emitter.getNeighborGrid to share one grid between the influencers of an emitter.
+ */
+public class NeighborGrid {
+
+  private float cellSize;
+  private float inverseCellSize;
+
+  private ParticleData[] particles;
+  private int mask;
+  // particles of bucket b are sorted[cellStart[b]] to sorted[cellStart[b + 1] - 1]
+  private int[] cellStart = new int[0];
+  private int[] sorted = new int[0];
+  // marks the buckets a query already visited, different cells can share a bucket
+  private int[] visited = new int[0];
+  private int query;
+
+  public NeighborGrid(float cellSize) {
+    setCellSize(cellSize);
+  }
+
+  public float getCellSize() {
+    return cellSize;
+  }
+
+  /**
+   * Sets the cell size, queries are fastest when it matches the query radius. Takes effect on the next build.
+   * @param cellSize
+   */
+  public void setCellSize(float cellSize) {
+    this.cellSize = cellSize;
+    this.inverseCellSize = 1.0f / cellSize;
+  }
+
+  /**
+   * Gets the particles the grid was built from, the indices returned by gather point into this array
+   * @return the particles
+   */
+  public ParticleData[] getParticles() {
+    return particles;
+  }
+
+  /**
+   * Buckets the active particles by their current position
+   * @param particles - the particles of the emitter
+   */
+  public void build(ParticleData[] particles) {
+    this.particles = particles;
+    int n = particles.length;
+    // at least twice as many buckets as particles keeps collisions between cells rare
+    int buckets = Integer.highestOneBit(Math.max(16, n * 2) - 1) << 1;
+    if (cellStart.length != buckets + 1) {
+      cellStart = new int[buckets + 1];
+      visited = new int[buckets];
+      query = 0;
+    } else {
+      Arrays.fill(cellStart, 0);
+    }
+    if (sorted.length < n) {
+      sorted = new int[n];
+    }
+    mask = buckets - 1;
+
+    // count, then sum so each bucket holds its end, then fill backwards leaving each bucket holding its start
+    for (int i = 0; i < n; i++) {
+      ParticleData p = particles[i];
+      if (p.active) {
+        cellStart[bucket(p.position)]++;
+      }
+    }
+    for (int b = 1; b < buckets; b++) {
+      cellStart[b] += cellStart[b - 1];
+    }
+    cellStart[buckets] = cellStart[buckets - 1];
+    for (int i = n - 1; i >= 0; i--) {
+      ParticleData p = particles[i];
+      if (p.active) {
+        sorted[--cellStart[bucket(p.position)]] = i;
+      }
+    }
+  }
+
+  /**
+   * Gathers the active particles within radius of a particle, not counting the particle itself
+   *
+   * @param p - the particle
+   * @param radius - the search radius
+   * @param store - receives the particle indices
+   * @return the number of neighbors written to store, at most store.length
+   */
+  public int gather(ParticleData p, float radius, int[] store) {
+    return gather(p.position, radius, p.index, store);
+  }
+
+  /**
+   * Gathers the active particles within radius of a position
+   *
+   * @param position - the center of the search, in the space of the particle positions
+   * @param radius - the search radius
+   * @param exclude - a particle index to leave out, or -1
+   * @param store - receives the particle indices
+   * @return the number of neighbors written to store, at most store.length
+   */
+  public int gather(Vector3f position, float radius, int exclude, int[] store) {
+    if (particles == null || store.length == 0) {
+      return 0;
+    }
+    if (++query == 0) {
+      Arrays.fill(visited, 0);
+      query = 1;
+    }
+    int reach = (int) Math.ceil(radius * inverseCellSize);
+    int cx = cell(position.x), cy = cell(position.y), cz = cell(position.z);
+    float px = position.x, py = position.y, pz = position.z;
+    float r2 = radius * radius;
+    int count = 0;
+    for (int z = cz - reach; z <= cz + reach; z++) {
+      for (int y = cy - reach; y <= cy + reach; y++) {
+        for (int x = cx - reach; x <= cx + reach; x++) {
+          int b = hash(x, y, z);
+          if (visited[b] == query) {
+            continue;
+          }
+          visited[b] = query;
+          for (int k = cellStart[b], end = cellStart[b + 1]; k < end; k++) {
+            int j = sorted[k];
+            if (j == exclude) {
+              continue;
+            }
+            ParticleData q = particles[j];
+            // particles that died since the build are still bucketed
+            if (!q.active) {
+              continue;
+            }
+            float dx = q.position.x - px, dy = q.position.y - py, dz = q.position.z - pz;
+            if (dx * dx + dy * dy + dz * dz <= r2) {
+              store[count++] = j;
+              if (count == store.length) {
+                return count;
+              }
+            }
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  private int cell(float v) {
+    return (int) Math.floor(v * inverseCellSize);
+  }
+
+  private int bucket(Vector3f position) {
+    return hash(cell(position.x), cell(position.y), cell(position.z));
+  }
+
+  private int hash(int x, int y, int z) {
+    return ((x * 73856093) ^ (y * 19349663) ^ (z * 83492791)) & mask;
+  }
+}
@@ -32,12 +32,12 @@
 package com.epagagames.particles.particle;
 
 import com.epagagames.particles.Emitter;
-import com.epagagames.particles.emittershapes.EmitterMesh;
 import com.epagagames.particles.influencers.ParticleInfluencer;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.FastMath;
 import com.jme3.math.Transform;
 import com.jme3.math.Vector3f;
+import com.epagagames.particles.valuetypes.PackedColor;
 import com.epagagames.particles.valuetypes.ValueType;
 
 import java.util.HashMap;
@@ -65,7 +65,18 @@ public class ParticleData {
    * ParticleData color
    */
   public final ColorRGBA startColor = new ColorRGBA(1, 1, 1, 1);
+  /**
+   * ParticleData color, stale while packedColorValid is set. Read it with getColor or getColorABGR.
+   */
   public final ColorRGBA color = new ColorRGBA(0, 0, 0, 0);
+  /**
+   * ParticleData color packed as ABGR, written by influencers that work on packed colors
+   */
+  public int packedColor;
+  /**
+   * True if packedColor holds the current color instead of color
+   */
+  public boolean packedColorValid = false;
   public final Vector3f initialPosition = new Vector3f();
   public final Vector3f initialVelocity = new Vector3f();
   public final Vector3f randomOffset = new Vector3f();
@@ -120,6 +131,10 @@ public class ParticleData {
    * from
    */
   public int triangleIndex;
+  /**
+   * The direction of the particles shape at the emission point, used by the normal billboard modes
+   */
+  public Vector3f emissionNormal = new Vector3f();
   /**
    * ParticleData image index.
    */
@@ -159,20 +174,70 @@ public class ParticleData {
     return this.data.get(key);
   }
 
+  /**
+   * Returns the current color packed as ABGR
+   *
+   * @return The packed color
+   */
+  public int getColorABGR() {
+    return packedColorValid ? packedColor : PackedColor.fromColor(color);
+  }
+
+  /**
+   * Returns the current color
+   *
+   * @param store The color to store the result in
+   * @return The current color
+   */
+  public ColorRGBA getColor(ColorRGBA store) {
+    return packedColorValid ? store.fromIntABGR(packedColor) : store.set(color);
+  }
+
+  /**
+   * Sets the current color, replacing any packed color
+   *
+   * @param color The new color
+   */
+  public void setColor(ColorRGBA color) {
+    this.color.set(color);
+    packedColorValid = false;
+  }
+
   public void update(float tpf) {
+    if (!updateLife(tpf)) {
+      return;
+    }
+    for (ParticleInfluencer influencer : emitter.getInfluencerMap()) {
+      influencer.update(this, tpf);
+    }
+
+    integrate(tpf);
+  }
 
+  /**
+   * Ages the particle and resets it once its life runs out
+   *
+   * @param tpf The time since the last update
+   * @return false if the particle died
+   */
+  public boolean updateLife(float tpf) {
     if (!emitter.getUseStaticParticles()) {
       life -= tpf;
       if (life <= 0) {
         reset();
-        return;
+        return false;
       }
       percentLife = 1.0f * (startlife - life) / startlife;
     }
-    for (ParticleInfluencer influencer : emitter.getInfluencerMap()) {
-      influencer.update(this, tpf);
-    }
+    return true;
+  }
 
+  /**
+   * Moves the particle along its velocity
+   *
+   * @param tpf The time since the last update
+   */
+  public void integrate(float tpf) {
     position.x += velocity.x * tpf;
     position.y += velocity.y * tpf;
     position.z += velocity.z * tpf;
@@ -182,21 +247,23 @@ public class ParticleData {
    * Called once per particle use when the particle is emitted
    */
   public void initialize(ValueType lifeMin, ValueType lifeMax) {
-    float blendAmount = emitter.getCurrentDuration() / emitter.getDuration();
+    float emitterTime = emitter.getCurrentDuration();
+    float blendAmount = emitterTime / emitter.getDuration();
     emitter.incActiveParticleCount();
     active = true;
     percentLife = 0;
-    startSize = emitter.getStartSize().getValue(blendAmount, randomValue);
+    startSize = emitter.getStartSize().getValue(blendAmount, randomValue, emitterTime);
     size = startSize;
     randomValue = FastMath.nextRandomFloat();
     trailSegments.clear();
     //startlife = (emitter.getLifeMax() - emitter.getLifeMin()) * FastMath.nextRandomFloat() + emitter.getLifeMin();
-    float minLife = lifeMin.getValue(blendAmount, randomValue);
-    startlife = (lifeMax.getValue(blendAmount, randomValue) - minLife) * FastMath.nextRandomFloat() + minLife;
+    float minLife = lifeMin.getValue(blendAmount, randomValue, emitterTime);
+    startlife = (lifeMax.getValue(blendAmount, randomValue, emitterTime) - minLife) * FastMath.nextRandomFloat() + minLife;
     life = startlife;
-    float emitSpeed = emitter.getStartSpeed().getValue(blendAmount, randomValue);
+    float emitSpeed = emitter.getStartSpeed().getValue(blendAmount, randomValue, emitterTime);
     emitter.getShape().setNext();
     triangleIndex = emitter.getShape().getIndex();
+    emissionNormal.set(emitter.getShape().getNextDirection());
     if (!emitter.getUseRandomEmissionPoint()) {
       position.set(
               emitter.getShape().getNextTranslation());
@@ -206,20 +273,9 @@ public class ParticleData {
               emitter.getShape().getNextTranslation().add(randomOffset));
     }
 
-		velocity.set(
-			emitter.getShape().getNextDirection().x*emitSpeed,
-			emitter.getShape().getNextDirection().y*emitSpeed,
-			emitter.getShape().getNextDirection().z*emitSpeed
-		);
+		velocity.set(emitter.getShape().getNextDirection()).multLocal(emitSpeed);
 
-    if (!emitter.getParticlesFollowEmitter()) {
-      // Emitter mesh already handles this because the mesh has its own transform
-      if (!(emitter.getShape() instanceof EmitterMesh)) {
-        initialPosition.set(emitter.getWorldTranslation()).addLocal(position);
-        position.set(initialPosition);
-      }
-      emitter.getWorldRotation().mult(velocity, velocity);
-    }
+    applyEmitterTransform();
 
     initialVelocity.set(velocity);
     //velocity.set(force.clone());
@@ -229,13 +285,75 @@ public class ParticleData {
 
     // set initial color
     emitter.getStartColor().getValueColor(blendAmount, randomValue, startColor);
+    applyShapeColor();
     color.set(startColor);
+    packedColorValid = false;
 
     for (ParticleInfluencer influencer : emitter.getInfluencerMap()) {
       influencer.initialize(this);
     }
   }
 
+  /**
+   * Called by the emitter for particles emitted in a burst, with start values the emitter evaluated for
+   * the whole burst. Entry i of the position, direction and rotation arrays starts at i * 3 and of the
+   * color array at i * 4. The influencers are initialized by the emitter afterwards for the whole burst.
+   */
+  public void initialize(float random, float startSize, float startLife, float emitSpeed, float[] positions,
+                         float[] directions, float[] rotations, float[] colors, int triangle, int i) {
+    emitter.incActiveParticleCount();
+    active = true;
+    percentLife = 0;
+    randomValue = random;
+    this.startSize = startSize;
+    size = startSize;
+    trailSegments.clear();
+    startlife = startLife;
+    life = startLife;
+
+    int o = i * 3;
+    triangleIndex = triangle;
+    emissionNormal.set(directions[o], directions[o + 1], directions[o + 2]);
+    position.set(positions[o], positions[o + 1], positions[o + 2]);
+    velocity.set(emissionNormal).multLocal(emitSpeed);
+
+    applyEmitterTransform();
+
+    initialVelocity.set(velocity);
+    angles.set(rotations[o], rotations[o + 1], rotations[o + 2]);
+
+    int c = i * 4;
+    startColor.set(colors[c], colors[c + 1], colors[c + 2], colors[c + 3]);
+    applyShapeColor();
+    color.set(startColor);
+    packedColorValid = false;
+  }
+
+  /**
+   * Tints the start color by the shape color, the start color is left unquantized
+   */
+  private void applyShapeColor() {
+    int shapeColor = emitter.getShape().getColorABGR(triangleIndex);
+    if (shapeColor != PackedColor.WHITE) {
+      float scale = 1.0f / 255.0f;
+      startColor.r *= (shapeColor & 0xFF) * scale;
+      startColor.g *= ((shapeColor >>> 8) & 0xFF) * scale;
+      startColor.b *= ((shapeColor >>> 16) & 0xFF) * scale;
+      startColor.a *= (shapeColor >>> 24) * scale;
+    }
+  }
+
+  private void applyEmitterTransform() {
+    if (!emitter.getParticlesFollowEmitter()) {
+      // Shapes such as the emitter mesh already handle this because the mesh has its own transform
+      if (!emitter.getShape().isEmittingInWorldSpace()) {
+        initialPosition.set(emitter.getWorldTranslation()).addLocal(position);
+        position.set(initialPosition);
+      }
+      emitter.getWorldRotation().mult(velocity, velocity);
+    }
+  }
+
   /**
    * Called once per particle use when the particle finishes it's life cycle
    */
@@ -245,6 +363,7 @@ public class ParticleData {
     initialPosition.zero();
     velocity.zero();
     color.set(0,0,0,0);
+    packedColorValid = false;
     //size = 0.0f;
     trailSegments.clear();
     if (emitter.getActiveParticleCount() > 0) {
@@ -32,7 +32,10 @@
 package com.epagagames.particles.particle;
 
 import com.epagagames.particles.Emitter;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingVolume;
 import com.jme3.math.Matrix3f;
+import com.jme3.math.Vector3f;
 import com.jme3.renderer.Camera;
 import com.jme3.scene.Mesh;
 
@@ -43,6 +46,11 @@ import com.jme3.scene.Mesh;
  * @author Jeddic
  */
 public abstract class ParticleDataMesh extends Mesh {
+
+    // particle extents gathered during simulation, used instead of scanning the position buffer
+    protected Vector3f boundMin = new Vector3f();
+    protected Vector3f boundMax = new Vector3f();
+    protected boolean particleBoundSet = false;
 	
 	/**
 	 * The template mesh to use for defining a particle
@@ -70,4 +78,60 @@ public abstract class ParticleDataMesh extends Mesh {
      */
     public abstract void updateParticleData(ParticleData[] particles, Camera cam, Matrix3f inverseRotation);
 
+
+    /**
+     * Sets the bound of the mesh from the particle positions gathered while simulating. The extents are grown
+     * by the largest particle size so the particle geometry is contained as well. Once set, updateBound() uses
+     * these extents instead of scanning the position buffer.
+     *
+     * @param min The minimum particle position
+     * @param max The maximum particle position
+     * @param maxSize The largest particle size
+     */
+    public void setParticleBound(Vector3f min, Vector3f max, float maxSize) {
+        float extent = maxSize * getParticleExtent();
+        boundMin.set(min).subtractLocal(extent, extent, extent);
+        boundMax.set(max).addLocal(extent, extent, extent);
+        particleBoundSet = true;
+    }
+
+    /**
+     * Clears the particle bound so updateBound() scans the position buffer again
+     */
+    public void clearParticleBound() {
+        particleBoundSet = false;
+    }
+
+    /**
+     * How far the vertices of a particle can be from its position relative to the particle size
+     *
+     * @return The extent of a particle of size 1
+     */
+    protected float getParticleExtent() {
+        return 1.0f;
+    }
+
+    @Override
+    public ParticleDataMesh deepClone() {
+        ParticleDataMesh clone = (ParticleDataMesh) super.deepClone();
+        clone.boundMin = boundMin.clone();
+        clone.boundMax = boundMax.clone();
+        return clone;
+    }
+
+    @Override
+    public void updateBound() {
+        if (!particleBoundSet) {
+            super.updateBound();
+            return;
+        }
+
+        BoundingVolume bound = getBound();
+        if (!(bound instanceof BoundingBox)) {
+            bound = new BoundingBox();
+            setBound(bound);
+        }
+        ((BoundingBox) bound).setMinMax(boundMin, boundMax);
+    }
+
 }
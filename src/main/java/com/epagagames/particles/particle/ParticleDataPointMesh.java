@@ -57,6 +57,12 @@ public class ParticleDataPointMesh extends ParticleDataMesh {
 
     private Vector3f temp = new Vector3f();
 
+    @Override
+    protected float getParticleExtent() {
+        // point sizes are in screen space
+        return 0.0f;
+    }
+
     @Override
     public void setImagesXY(int imagesX, int imagesY) {
         this.imagesX = imagesX;
@@ -160,7 +166,7 @@ public class ParticleDataPointMesh extends ParticleDataMesh {
                      .put(temp.z);
 
             sizes.put(p.size); // * worldSace);
-            colors.putInt(p.color.asIntABGR());
+            colors.putInt(p.getColorABGR());
 
             int imgX = p.spriteCol; //p.imageIndex % imagesX;
             int imgY = p.spriteRow; //(p.imageIndex - imgX) / imagesY;
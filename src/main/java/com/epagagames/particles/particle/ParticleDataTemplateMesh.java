@@ -31,6 +31,7 @@
  */
 package com.epagagames.particles.particle;
 
+import com.jme3.math.ColorRGBA;
 import com.jme3.math.Matrix3f;
 import com.jme3.math.Quaternion;
 import com.jme3.math.Vector3f;
@@ -64,6 +65,7 @@ public class ParticleDataTemplateMesh extends ParticleDataMesh {
   private Vector3f up = new Vector3f(), tempUp = new Vector3f();
   private Vector3f dir = new Vector3f();
   private Vector3f tempV3 = new Vector3f();
+  private ColorRGBA tempColor = new ColorRGBA();
   private Quaternion rotStore = new Quaternion();
   private Quaternion tempQ = new Quaternion();
   private Node tempN = new Node();
@@ -75,6 +77,7 @@ public class ParticleDataTemplateMesh extends ParticleDataMesh {
   private IndexBuffer templateIndexes;
   private FloatBuffer templateNormals;
   private FloatBuffer templateColors;
+  private float templateRadius = 1.0f;
   private FloatBuffer finVerts;
   private FloatBuffer finCoords;
   private ShortBuffer finIndexes;
@@ -89,6 +92,26 @@ public class ParticleDataTemplateMesh extends ParticleDataMesh {
     templateIndexes = MeshUtils.getIndexBuffer(mesh);
     templateNormals = MeshUtils.getNormalsBuffer(mesh);
     templateColors = BufferUtils.createFloatBuffer(templateVerts.capacity() / 3 * 4);
+
+    templateRadius = 0;
+    for (int v = 0; v < templateVerts.capacity(); v += 3) {
+      tempV3.set(templateVerts.get(v), templateVerts.get(v + 1), templateVerts.get(v + 2));
+      templateRadius = Math.max(templateRadius, tempV3.length());
+    }
+  }
+
+  @Override
+  protected float getParticleExtent() {
+    return templateRadius;
+  }
+
+  @Override
+  public ParticleDataTemplateMesh deepClone() {
+    ParticleDataTemplateMesh clone = (ParticleDataTemplateMesh) super.deepClone();
+    // fill the cloned vertex data instead of ours
+    clone.finVerts = (FloatBuffer) clone.getBuffer(VertexBuffer.Type.Position).getData();
+    clone.finColors = (FloatBuffer) clone.getBuffer(VertexBuffer.Type.Color).getData();
+    return clone;
   }
 
   public Mesh getTemplateMesh() {
@@ -278,11 +301,12 @@ public class ParticleDataTemplateMesh extends ParticleDataMesh {
        }
        */
 
+       ColorRGBA color = p.getColor(tempColor);
        for (int v = 0; v < templateColors.capacity(); v += 4) {
-            finColors.put(colorOffset + v, p.color.r)
-                    .put(colorOffset + v + 1, p.color.g)
-                    .put(colorOffset + v + 2, p.color.b)
-                    .put(colorOffset + v + 3, p.color.a);
+            finColors.put(colorOffset + v, color.r)
+                    .put(colorOffset + v + 1, color.g)
+                    .put(colorOffset + v + 2, color.b)
+                    .put(colorOffset + v + 3, color.a);
         }
     }
 
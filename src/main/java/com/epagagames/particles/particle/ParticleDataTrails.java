@@ -32,6 +32,7 @@
 package com.epagagames.particles.particle;
 
 import com.epagagames.particles.Emitter;
+import com.epagagames.particles.valuetypes.PackedColor;
 import com.jme3.math.Matrix3f;
 import com.jme3.math.Quaternion;
 import com.jme3.math.Vector3f;
@@ -48,11 +49,16 @@ public class ParticleDataTrails extends ParticleDataMesh {
 
   private Emitter emitter;
   private int segmentsPerParticle = 100;
+  // when set trail points share their vertices and are drawn as one triangle strip per particle
+  private boolean ribbon = false;
   private Vector3f tempOne = new Vector3f();
   private Vector3f left = new Vector3f();
   private Vector3f up = new Vector3f();
   private Vector3f dir = new Vector3f();
   private Vector3f tempV3 = new Vector3f();
+  private Vector3f trailMin = new Vector3f();
+  private Vector3f trailMax = new Vector3f();
+  private float trailMaxSize;
   private Quaternion rotStore = new Quaternion();
   private Quaternion tempQ = new Quaternion();
 
@@ -61,11 +67,44 @@ public class ParticleDataTrails extends ParticleDataMesh {
 
   }
 
+  /**
+   * Is Ribbon
+   * Checks if the trails are built as connected ribbons instead of separate quads
+   *
+   * @return true if ribbon mode is used
+   */
+  public boolean isRibbon() {
+    return ribbon;
+  }
+
+  /**
+   * Set Ribbon
+   * In ribbon mode every trail point emits a single vertex pair which is shared by the segments on
+   * either side of it. Each particle is drawn as one triangle strip and strips are joined by degenerate
+   * triangles. The mesh has to be re-initialized for this to take effect.
+   *
+   * @param ribbon true to use ribbon mode
+   */
+  public void setRibbon(boolean ribbon) {
+    this.ribbon = ribbon;
+  }
+
   @Override
   public void initParticleData(Emitter emitter, int particles) {
-    setMode(Mesh.Mode.Triangles);
     this.emitter = emitter;
 
+    // the index layout differs between quads and ribbons so it can't be reused when switching
+    if (getMode() != (ribbon ? Mesh.Mode.TriangleStrip : Mesh.Mode.Triangles)) {
+      clearBuffer(VertexBuffer.Type.Index);
+    }
+
+    if (ribbon) {
+      initRibbonData(particles);
+      return;
+    }
+
+    setMode(Mesh.Mode.Triangles);
+
     // mesh setup
     // 1 -
 
@@ -144,6 +183,83 @@ public class ParticleDataTrails extends ParticleDataMesh {
     updateCounts();
   }
 
+  private void initRibbonData(int particles) {
+    setMode(Mesh.Mode.TriangleStrip);
+
+    int pointsPerParticle = segmentsPerParticle + 1;
+    int numVerts = pointsPerParticle * 2 * particles;
+
+    // set positions
+    FloatBuffer pb = BufferUtils.createVector3Buffer(numVerts);
+    VertexBuffer buf = getBuffer(VertexBuffer.Type.Position);
+    if (buf != null) {
+      buf.updateData(pb);
+    } else {
+      VertexBuffer pvb = new VertexBuffer(VertexBuffer.Type.Position);
+      pvb.setupData(VertexBuffer.Usage.Stream, 3, VertexBuffer.Format.Float, pb);
+      setBuffer(pvb);
+    }
+
+    // set colors
+    ByteBuffer cb = BufferUtils.createByteBuffer(numVerts * 4);
+    buf = getBuffer(VertexBuffer.Type.Color);
+    if (buf != null) {
+      buf.updateData(cb);
+    } else {
+      VertexBuffer cvb = new VertexBuffer(VertexBuffer.Type.Color);
+      cvb.setupData(VertexBuffer.Usage.Stream, 4, VertexBuffer.Format.UnsignedByte, cb);
+      cvb.setNormalized(true);
+      setBuffer(cvb);
+    }
+
+    // set texcoords, every other point flips v so each segment maps the full texture like the quads do
+    FloatBuffer tb = BufferUtils.createVector2Buffer(numVerts);
+    for (int i = 0; i < particles; i++) {
+      for (int j = 0; j < pointsPerParticle; j++) {
+        float v = j % 2 == 0 ? 1f : 0f;
+        tb.put(0f).put(v);
+        tb.put(1f).put(v);
+      }
+    }
+    tb.flip();
+
+    buf = getBuffer(VertexBuffer.Type.TexCoord);
+    if (buf != null) {
+      buf.updateData(tb);
+    } else {
+      VertexBuffer tvb = new VertexBuffer(VertexBuffer.Type.TexCoord);
+      tvb.setupData(VertexBuffer.Usage.Stream, 2, VertexBuffer.Format.Float, tb);
+      setBuffer(tvb);
+    }
+
+    // set indices, one strip per particle joined to the next one by two degenerate triangles
+    // every strip has an even length so the winding of the following strip is kept
+    IntBuffer ib = BufferUtils.createIntBuffer(particles * pointsPerParticle * 2 + Math.max(0, particles - 1) * 2);
+    for (int i = 0; i < particles; i++) {
+      int startIdx = i * pointsPerParticle * 2;
+      if (i > 0) {
+        ib.put(startIdx - 2);
+        ib.put(startIdx + 1);
+      }
+      for (int j = 0; j < pointsPerParticle; j++) {
+        ib.put(startIdx + j * 2 + 1)
+            .put(startIdx + j * 2);
+      }
+    }
+    ib.flip();
+
+    buf = getBuffer(VertexBuffer.Type.Index);
+    if (buf != null) {
+      buf.updateData(ib);
+    } else {
+      VertexBuffer ivb = new VertexBuffer(VertexBuffer.Type.Index);
+      ivb.setupData(VertexBuffer.Usage.Static, 1, VertexBuffer.Format.UnsignedInt, ib);
+      setBuffer(ivb);
+    }
+
+    updateCounts();
+  }
+
   @Override
   public void setImagesXY(int imagesX, int imagesY) {
 
@@ -151,6 +267,12 @@ public class ParticleDataTrails extends ParticleDataMesh {
 
   @Override
   public void updateParticleData(ParticleData[] particles, Camera cam, Matrix3f inverseRotation) {
+    startTrailBound();
+    if (ribbon) {
+      updateRibbonData(particles, cam);
+      return;
+    }
+
     VertexBuffer pvb = getBuffer(VertexBuffer.Type.Position);
     FloatBuffer positions = (FloatBuffer) pvb.getData();
 
@@ -205,12 +327,14 @@ public class ParticleDataTrails extends ParticleDataMesh {
         left.set(cam.getLeft());
         dir.set(cam.getDirection());
         drawQuad(index, positions, p, last, current);
+        expandTrailBound(last);
+        expandTrailBound(current);
 
 
-        int abgr = last.color.asIntABGR();
+        int abgr = PackedColor.fromColor(last.color);
         colors.putInt(abgr);
         colors.putInt(abgr);
-        abgr = current.color.asIntABGR();
+        abgr = PackedColor.fromColor(current.color);
         colors.putInt(abgr);
         colors.putInt(abgr);
       }
@@ -234,10 +358,97 @@ public class ParticleDataTrails extends ParticleDataMesh {
 
     pvb.updateData(positions);
     cvb.updateData(colors);
+    setParticleBound(trailMin, trailMax, trailMaxSize);
     updateBound();
 
   }
 
+  private void startTrailBound() {
+    Vector3f origin = emitter == null || emitter.getParticlesFollowEmitter() ? Vector3f.ZERO : emitter.getWorldTranslation();
+    trailMin.set(origin);
+    trailMax.set(origin);
+    trailMaxSize = 0;
+  }
+
+  private void expandTrailBound(ParticleTrailPoint point) {
+    trailMin.minLocal(point.position);
+    trailMax.maxLocal(point.position);
+    if (point.size > trailMaxSize) {
+      trailMaxSize = point.size;
+    }
+  }
+
+  private void updateRibbonData(ParticleData[] particles, Camera cam) {
+    VertexBuffer pvb = getBuffer(VertexBuffer.Type.Position);
+    FloatBuffer positions = (FloatBuffer) pvb.getData();
+
+    VertexBuffer cvb = getBuffer(VertexBuffer.Type.Color);
+    ByteBuffer colors = (ByteBuffer) cvb.getData();
+
+    positions.clear();
+    colors.clear();
+
+    int pointsPerParticle = segmentsPerParticle + 1;
+    Vector3f camLeft = cam.getLeft();
+
+    for (int i = 0; i < particles.length; i++) {
+      ParticleData p = particles[i];
+      int written = 0;
+
+      if (p.life > 0 && p.trailSegments.size() > 1) {
+        // only the newest points fit if the trail grew past the segment count
+        int skip = p.trailSegments.size() - pointsPerParticle;
+        for (ParticleTrailPoint point : p.trailSegments) {
+          if (skip-- > 0) {
+            continue;
+          }
+
+          up.set(point.velocity).crossLocal(camLeft).normalizeLocal();
+          left.set(point.velocity).crossLocal(up).normalizeLocal();
+          left.multLocal(point.size);
+          tempV3.set(point.position);
+
+          positions.put(tempV3.x + left.x).put(tempV3.y + left.y).put(tempV3.z + left.z);
+          positions.put(tempV3.x - left.x).put(tempV3.y - left.y).put(tempV3.z - left.z);
+
+          int abgr = PackedColor.fromColor(point.color);
+          colors.putInt(abgr);
+          colors.putInt(abgr);
+          expandTrailBound(point);
+          written++;
+        }
+      }
+
+      // collapse the unused tail of the strip onto the last point so it only produces degenerate triangles
+      float lx = 0, ly = 0, lz = 0, rx = 0, ry = 0, rz = 0;
+      int abgr = 0;
+      if (written > 0) {
+        int last = positions.position() - 6;
+        lx = positions.get(last);
+        ly = positions.get(last + 1);
+        lz = positions.get(last + 2);
+        rx = positions.get(last + 3);
+        ry = positions.get(last + 4);
+        rz = positions.get(last + 5);
+        abgr = colors.getInt(colors.position() - 4);
+      }
+      for (int j = written; j < pointsPerParticle; j++) {
+        positions.put(lx).put(ly).put(lz);
+        positions.put(rx).put(ry).put(rz);
+        colors.putInt(abgr);
+        colors.putInt(abgr);
+      }
+    }
+
+    positions.clear();
+    colors.clear();
+
+    pvb.updateData(positions);
+    cvb.updateData(colors);
+    setParticleBound(trailMin, trailMax, trailMaxSize);
+    updateBound();
+  }
+
   private void drawQuad(int index, FloatBuffer positions, ParticleData p, ParticleTrailPoint last, ParticleTrailPoint current) {
     Vector3f test = left.clone();
 
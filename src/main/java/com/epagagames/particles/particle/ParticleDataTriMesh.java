@@ -32,6 +32,7 @@
 package com.epagagames.particles.particle;
 
 import com.epagagames.particles.Emitter;
+import com.epagagames.particles.BillboardMode;
 import com.jme3.bounding.BoundingBox;
 import com.jme3.math.FastMath;
 import com.jme3.math.Matrix3f;
@@ -49,6 +50,8 @@ import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * ParticleDataTriMesh
@@ -64,15 +67,16 @@ public class ParticleDataTriMesh extends ParticleDataMesh {
     private int imagesY = 1;
     private boolean uniqueTexCoords = false;
     private Emitter emitter;
-    private Vector3f left = new Vector3f(), tempLeft = new Vector3f();
-    private Vector3f up = new Vector3f(), tempUp = new Vector3f();
-    private Vector3f dir = new Vector3f();
-    private Vector3f tempV3 = new Vector3f();
-    private Quaternion rotStore = new Quaternion();
-    private Quaternion tempQ = new Quaternion();
+    private Vector3f camLeft = new Vector3f();
+    private Vector3f camUp = new Vector3f();
+    private Vector3f camDir = new Vector3f();
+    private Quaternion inverseWorldRotation = new Quaternion();
+    private FillScratch scratch = new FillScratch();
     private Node tempN = new Node();
-    private int imgX, imgY;
-    private float startX, startY, endX, endY;
+
+    // number of particles a single fill task writes
+    private static final int FILL_BATCH_SIZE = 1024;
+    private int parallelThreshold = 4096;
 	
     @Override
     public void initParticleData(Emitter emitter, int numParticles) {
@@ -161,6 +165,12 @@ public class ParticleDataTriMesh extends ParticleDataMesh {
         updateCounts();
     }
     
+    @Override
+    protected float getParticleExtent() {
+        // corners are at most one unit along both the left and up vectors
+        return FastMath.sqrt(2.0f);
+    }
+
     @Override
     public void setImagesXY(int imagesX, int imagesY) {
         this.imagesX = imagesX;
@@ -174,6 +184,20 @@ public class ParticleDataTriMesh extends ParticleDataMesh {
     public int getSpriteCols() { return this.imagesX; }
     public int getSpriteRows() { return this.imagesY; }
 	
+    /**
+     * Sets the particle count at which the vertex buffers are filled by several threads. Each particle maps to a
+     * fixed range of vertices so the buffers are split into disjoint ranges written by the common ForkJoin pool.
+     *
+     * @param parallelThreshold The minimum number of particles to fill in parallel
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
     @Override
     public void updateParticleData(ParticleData[] particles, Camera cam, Matrix3f inverseRotation) {
         VertexBuffer pvb = getBuffer(VertexBuffer.Type.Position);
@@ -185,22 +209,67 @@ public class ParticleDataTriMesh extends ParticleDataMesh {
         VertexBuffer tvb = getBuffer(VertexBuffer.Type.TexCoord);
         FloatBuffer texcoords = (FloatBuffer) tvb.getData();
 
-        // update data in vertex buffers
+        // the camera facing vectors are the same for every particle
+        camUp.set(cam.getUp());
+        camLeft.set(cam.getLeft());
+        camDir.set(cam.getDirection());
+
+        // now rotate to face take into account of emitter rotation
+        if (emitter.getParticlesFollowEmitter()) {
+            inverseWorldRotation.set(emitter.getWorldRotation()).inverseLocal();
+            inverseWorldRotation.multLocal(camLeft);
+            inverseWorldRotation.multLocal(camUp);
+        }
+
+        if (particles.length >= parallelThreshold) {
+            ForkJoinPool.commonPool().invoke(new FillTask(particles, 0, particles.length, positions, colors, texcoords));
+        } else {
+            fillRange(particles, 0, particles.length, positions, colors, texcoords, scratch);
+        }
+
+	//	this.setBuffer(VertexBuffer.Type.Position, 3, positions);
         positions.clear();
         colors.clear();
-        texcoords.clear();
-        
-        for (int i = 0; i < particles.length; i++){
+        if (!uniqueTexCoords)
+            texcoords.clear();
+        else{
+            texcoords.clear();
+            tvb.updateData(texcoords);
+        }
+
+        // force renderer to re-send data to GPU
+        pvb.updateData(positions);
+        cvb.updateData(colors);
+		
+		  updateBound();
+
+		  // this is needed because particles can be a ways from the emitter and new particles won't emit
+      //getBound().mergeLocal(defaultArea);
+    }
+
+    /**
+     * Writes the vertices of a range of particles using absolute puts so ranges can be filled concurrently
+     */
+    private void fillRange(ParticleData[] particles, int from, int to, FloatBuffer positions, ByteBuffer colors,
+                           FloatBuffer texcoords, FillScratch s) {
+        Vector3f left = s.left;
+        Vector3f up = s.up;
+        Vector3f dir = s.dir;
+        Vector3f tempV3 = s.tempV3;
+        Quaternion tempQ = s.tempQ;
+        BillboardMode mode = emitter.getBillboardMode();
+
+        for (int i = from; i < to; i++){
             ParticleData p = particles[i];
+            int offset = i * 12;
             if (p.life == 0) {
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
-                positions.put(0).put(0).put(0);
+                for (int v = 0; v < 12; v++) {
+                    positions.put(offset + v, 0);
+                }
                 continue;
             }
 			
-            switch (emitter.getBillboardMode()) {
+            switch (mode) {
               case Velocity:
                 up.set(p.velocity).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
                 left.set(p.velocity).crossLocal(up).normalizeLocal();
@@ -210,34 +279,26 @@ public class ParticleDataTriMesh extends ParticleDataMesh {
                 up.set(p.velocity).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
                 left.set(p.velocity).crossLocal(up).normalizeLocal();
                 dir.set(p.velocity);
-                rotStore = tempQ.fromAngleAxis(-90* FastMath.DEG_TO_RAD, left);
-                left = rotStore.mult(left);
-                up = rotStore.mult(up);
+                tempQ.fromAngleNormalAxis(-90* FastMath.DEG_TO_RAD, left);
+                tempQ.multLocal(left);
+                tempQ.multLocal(up);
                 break;
               case Normal:
-                emitter.getShape().setNext(p.triangleIndex);
-                tempV3.set(emitter.getShape().getNextDirection());
+                tempV3.set(p.emissionNormal);
                 up.set(tempV3).crossLocal(Vector3f.UNIT_Y).normalizeLocal();
                 left.set(tempV3).crossLocal(up).normalizeLocal();
                 dir.set(tempV3);
                 break;
               case Normal_Y_Up:
-                emitter.getShape().setNext(p.triangleIndex);
-                tempV3.set(emitter.getShape().getNextDirection());
+                tempV3.set(p.emissionNormal);
                 up.set(Vector3f.UNIT_Y);
                 left.set(tempV3).crossLocal(up).normalizeLocal();
                 dir.set(tempV3);
                 break;
               case Camera:
-                up.set(cam.getUp());
-                left.set(cam.getLeft());
-                dir.set(cam.getDirection());
-
-                // now rotate to face take into account of emitter rotation
-                if (emitter.getParticlesFollowEmitter()) {
-                  left = emitter.getWorldRotation().inverse().multLocal(left);
-                  up = emitter.getWorldRotation().inverse().multLocal(up);
-                }
+                up.set(camUp);
+                left.set(camLeft);
+                dir.set(camDir);
                 break;
               case UNIT_X:
                 up.set(Vector3f.UNIT_Y);
@@ -255,7 +316,7 @@ public class ParticleDataTriMesh extends ParticleDataMesh {
                 dir.set(Vector3f.UNIT_Z);
                 break;
               case UNIT_FORWARD:
-                up.set(new Vector3f(0, 0.8f, 0.2f).crossLocal(Vector3f.UNIT_X));
+                up.set(0, 0.8f, 0.2f).crossLocal(Vector3f.UNIT_X);
                 left.set(Vector3f.UNIT_X);
                 dir.set(0, 0.8f, 0.2f);
                 break;
@@ -264,93 +325,101 @@ public class ParticleDataTriMesh extends ParticleDataMesh {
             up.multLocal(p.size);
             left.multLocal(p.size);
 
-            rotStore = tempQ.fromAngleAxis(p.angles.y, left);
-            left = rotStore.mult(left);
-            up = rotStore.mult(up);
-
-            rotStore = tempQ.fromAngleAxis(p.angles.x, up);
-            left = rotStore.mult(left);
-            up = rotStore.mult(up);
-
-            rotStore = tempQ.fromAngleAxis(p.angles.z, dir);
-            left = rotStore.mult(left);
-            up = rotStore.mult(up);
-
-            if (emitter.getParticlesFollowEmitter()) {
-              tempV3.set(p.position);
-            } else {
-              tempV3.set(p.position);
-              //tempV3.set(tempV3).addLocal(p.initialPosition);//.divide(8f));
-              //tempV3.set(tempV3).subtractLocal(emitter.getWorldTranslation().subtract(p.initialPosition));//.divide(8f));
-//              Vector3f t = p.initialPosition.subtract(p.position);
-//              tempV3.set(emitter.getWorldTranslation());
-//              tempV3.subtractLocal(t);
-              //tempV3.set(p.position);//.addLocal(p.initialPosition);
-
-              // JME CODE
-//              emitter.getWorldRotation().mult(velocity, velocity);
-//              initialPosition.set(emitter.getWorldTranslation());
-//              initialPosition.addLocal(position);
-//              position.set(initialPosition);
+            tempQ.fromAngleNormalAxis(p.angles.y, tempV3.set(left).normalizeLocal());
+            tempQ.multLocal(left);
+            tempQ.multLocal(up);
 
-            }
+            tempQ.fromAngleNormalAxis(p.angles.x, tempV3.set(up).normalizeLocal());
+            tempQ.multLocal(left);
+            tempQ.multLocal(up);
+
+            tempQ.fromAngleNormalAxis(p.angles.z, tempV3.set(dir).normalizeLocal());
+            tempQ.multLocal(left);
+            tempQ.multLocal(up);
 
-            positions.put(tempV3.x + left.x + up.x)
-                           .put(tempV3.y + left.y + up.y)
-                           .put(tempV3.z + left.z + up.z);
+            tempV3.set(p.position);
 
-                  positions.put(tempV3.x - left.x + up.x)
-                           .put(tempV3.y - left.y + up.y)
-                           .put(tempV3.z - left.z + up.z);
+            positions.put(offset, tempV3.x + left.x + up.x)
+                     .put(offset + 1, tempV3.y + left.y + up.y)
+                     .put(offset + 2, tempV3.z + left.z + up.z);
 
-                  positions.put(tempV3.x + left.x - up.x)
-                           .put(tempV3.y + left.y - up.y)
-                           .put(tempV3.z + left.z - up.z);
+            positions.put(offset + 3, tempV3.x - left.x + up.x)
+                     .put(offset + 4, tempV3.y - left.y + up.y)
+                     .put(offset + 5, tempV3.z - left.z + up.z);
 
-                  positions.put(tempV3.x - left.x - up.x)
-                           .put(tempV3.y - left.y - up.y)
-                           .put(tempV3.z - left.z - up.z);
+            positions.put(offset + 6, tempV3.x + left.x - up.x)
+                     .put(offset + 7, tempV3.y + left.y - up.y)
+                     .put(offset + 8, tempV3.z + left.z - up.z);
+
+            positions.put(offset + 9, tempV3.x - left.x - up.x)
+                     .put(offset + 10, tempV3.y - left.y - up.y)
+                     .put(offset + 11, tempV3.z - left.z - up.z);
 
             if (uniqueTexCoords){
-              imgX = p.spriteCol;
-              imgY = p.spriteRow;
-
-              startX = 1f/imagesX*imgX;
-              startY = 1f/imagesY*imgY;
-              endX   = startX + 1f/imagesX;
-              endY   = startY + 1f/imagesY;
-
-              texcoords.put(startX).put(endY);
-              texcoords.put(endX).put(endY);
-              texcoords.put(startX).put(startY);
-              texcoords.put(endX).put(startY);
+              float startX = 1f/imagesX*p.spriteCol;
+              float startY = 1f/imagesY*p.spriteRow;
+              float endX   = startX + 1f/imagesX;
+              float endY   = startY + 1f/imagesY;
+
+              int texOffset = i * 8;
+              texcoords.put(texOffset, startX).put(texOffset + 1, endY);
+              texcoords.put(texOffset + 2, endX).put(texOffset + 3, endY);
+              texcoords.put(texOffset + 4, startX).put(texOffset + 5, startY);
+              texcoords.put(texOffset + 6, endX).put(texOffset + 7, startY);
             }
 
-            int abgr = p.color.asIntABGR();
-            colors.putInt(abgr);
-            colors.putInt(abgr);
-            colors.putInt(abgr);
-            colors.putInt(abgr);
-        }
-		
-	//	this.setBuffer(VertexBuffer.Type.Position, 3, positions);
-        positions.clear();
-        colors.clear();
-        if (!uniqueTexCoords)
-            texcoords.clear();
-        else{
-            texcoords.clear();
-            tvb.updateData(texcoords);
+            int abgr = p.getColorABGR();
+            int colorOffset = i * 16;
+            colors.putInt(colorOffset, abgr);
+            colors.putInt(colorOffset + 4, abgr);
+            colors.putInt(colorOffset + 8, abgr);
+            colors.putInt(colorOffset + 12, abgr);
         }
+    }
 
-        // force renderer to re-send data to GPU
-        pvb.updateData(positions);
-        cvb.updateData(colors);
-		
-		  updateBound();
+    /**
+     * Billboard scratch vectors, one set per filling thread
+     */
+    private static final class FillScratch {
+        private final Vector3f left = new Vector3f();
+        private final Vector3f up = new Vector3f();
+        private final Vector3f dir = new Vector3f();
+        private final Vector3f tempV3 = new Vector3f();
+        private final Quaternion tempQ = new Quaternion();
+    }
 
-		  // this is needed because particles can be a ways from the emitter and new particles won't emit
-      //getBound().mergeLocal(defaultArea);
+    /**
+     * Splits the particles in halves until a batch is small enough to fill on a single thread
+     */
+    private final class FillTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ParticleData[] particles;
+        private final int from, to;
+        private final FloatBuffer positions;
+        private final ByteBuffer colors;
+        private final FloatBuffer texcoords;
+
+        private FillTask(ParticleData[] particles, int from, int to, FloatBuffer positions, ByteBuffer colors,
+                         FloatBuffer texcoords) {
+            this.particles = particles;
+            this.from = from;
+            this.to = to;
+            this.positions = positions;
+            this.colors = colors;
+            this.texcoords = texcoords;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= FILL_BATCH_SIZE) {
+                fillRange(particles, from, to, positions, colors, texcoords, new FillScratch());
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new FillTask(particles, from, mid, positions, colors, texcoords),
+                    new FillTask(particles, mid, to, positions, colors, texcoords));
+        }
     }
 
 	@Override
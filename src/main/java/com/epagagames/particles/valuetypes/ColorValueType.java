@@ -36,6 +36,7 @@ import com.jme3.math.ColorRGBA;
 import com.jme3.math.FastMath;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 public class ColorValueType implements Savable, Cloneable {
 
@@ -53,8 +54,8 @@ public class ColorValueType implements Savable, Cloneable {
   private Gradient gradient;
   private Gradient gradientTwo;
 
-  // temp variables
-  private transient ColorRGBA temp = new ColorRGBA();
+  // evaluator compiled from the current configuration, rebuilt on first use after a change
+  private transient Evaluator evaluator;
 
   public ColorValueType() {
     type = Type.RANDOM_COLOR;
@@ -80,6 +81,7 @@ public class ColorValueType implements Savable, Cloneable {
     this.gradient = null;
     this.gradientTwo = null;
     type = Type.CONSTANT;
+    evaluator = null;
   }
 
   public void setColorRange(ColorRGBA color, ColorRGBA colorTwo) {
@@ -88,6 +90,7 @@ public class ColorValueType implements Savable, Cloneable {
     this.gradient = null;
     this.gradientTwo = null;
     type = Type.RANDOM_BETWEEN_COLORS;
+    evaluator = null;
   }
 
   public void setGradient(Gradient gradient) {
@@ -96,6 +99,7 @@ public class ColorValueType implements Savable, Cloneable {
     this.gradient = gradient;
     this.gradientTwo = null;
     type = Type.GRADIENT;
+    evaluator = null;
   }
 
   public void setGradients(Gradient gradient, Gradient gradientTwo) {
@@ -104,6 +108,7 @@ public class ColorValueType implements Savable, Cloneable {
     this.gradient = gradient;
     this.gradientTwo = gradientTwo;
     type = Type.RANDOM_BETWEEN_GRADIENTS;
+    evaluator = null;
   }
 
   public void set(ColorValueType v) {
@@ -112,6 +117,7 @@ public class ColorValueType implements Savable, Cloneable {
     if (v.gradient != null) this.gradient = v.gradient.clone();
     if (v.gradientTwo != null) this.gradientTwo = v.gradientTwo.clone();
     type = v.type;
+    evaluator = null;
   }
 
   public ColorRGBA getColorTwo() {
@@ -132,28 +138,74 @@ public class ColorValueType implements Savable, Cloneable {
 
   public ColorRGBA getValueColor(float time, float particleRandom, ColorRGBA store) {
     ColorRGBA output = store == null ? new ColorRGBA() : store;
+    return getEvaluator().getValueColor(time, particleRandom, output);
+  }
 
-    switch (type) {
-      case CONSTANT: output.set(color); break;
-      case RANDOM_COLOR: output.set(ColorRGBA.randomColor()); break;
-      case GRADIENT: gradient.getValueColor(time, output); break;
-      case RANDOM_BETWEEN_GRADIENTS:
-        gradient.getValueColor(time, output);
-        gradientTwo.getValueColor(time, temp);
-        output.interpolateLocal(temp, particleRandom);
-        break;
-      case RANDOM_BETWEEN_COLORS:
-        output.r = FastMath.interpolateLinear(particleRandom, color.r, colorTwo.r);
-        output.g = FastMath.interpolateLinear(particleRandom, color.g, colorTwo.g);
-        output.b = FastMath.interpolateLinear(particleRandom, color.b, colorTwo.b);
-        output.a = FastMath.interpolateLinear(particleRandom, color.a, colorTwo.a);
-      break;
-      default: break;
-    }
+  /**
+   * Get Value ABGR
+   * Same as getValueColor but returns the color packed as an ABGR int. Gradients are read from their baked
+   * color tables.
+   *
+   * @param time - How far along the particles lifecycle is 0-1
+   * @param particleRandom - Generated every time a particle is born for random between calculations
+   * @return The packed color
+   */
+  public int getValueABGR(float time, float particleRandom) {
+    return getEvaluator().getValueABGR(time, particleRandom);
+  }
+
+  /**
+   * Get Values ABGR
+   * Evaluates a range of inputs in one call, the batch version of getValueABGR
+   *
+   * @param times - How far along each particles lifecycle is 0-1
+   * @param particleRandoms - The random value of each particle
+   * @param store - receives the packed colors at the same indices
+   * @param from - the first index to evaluate
+   * @param to - the index after the last to evaluate
+   */
+  public void getValuesABGR(float[] times, float[] particleRandoms, int[] store, int from, int to) {
+    getEvaluator().getValuesABGR(times, particleRandoms, store, from, to);
+  }
+
+  /**
+   * Get Values Color
+   * Evaluates a range of inputs in one call, the batch version of getValueColor. Unlike getValuesABGR the
+   * colors keep their full float precision and range.
+   *
+   * @param times - How far along each particles lifecycle is 0-1
+   * @param particleRandoms - The random value of each particle
+   * @param store - receives the r, g, b and a values interleaved, index i is written to i * 4
+   * @param from - the first index to evaluate
+   * @param to - the index after the last to evaluate
+   */
+  public void getValuesColor(float[] times, float[] particleRandoms, float[] store, int from, int to) {
+    getEvaluator().getValuesColor(times, particleRandoms, store, from, to);
+  }
 
-    return output;
+  /**
+   * Checks if the value type always returns the same color
+   *
+   * @return true if the type is constant
+   */
+  public boolean isConstant() {
+    return type == Type.CONSTANT;
   }
 
+  private Evaluator getEvaluator() {
+    Evaluator e = evaluator;
+    if (e == null) {
+      switch (type) {
+        case CONSTANT: e = new ConstantEvaluator(color); break;
+        case GRADIENT: e = new GradientEvaluator(gradient); break;
+        case RANDOM_BETWEEN_GRADIENTS: e = new BetweenGradientsEvaluator(gradient, gradientTwo); break;
+        case RANDOM_BETWEEN_COLORS: e = new BetweenColorsEvaluator(color, colorTwo); break;
+        default: e = new RandomColorEvaluator(); break;
+      }
+      evaluator = e;
+    }
+    return e;
+  }
 
   @Override
   public ColorValueType clone() {
@@ -164,6 +216,7 @@ public class ColorValueType implements Savable, Cloneable {
       if (gradient != null ) clone.gradient = gradient.clone();
       if (gradientTwo != null ) clone.gradientTwo = gradientTwo.clone();
       clone.type = type;
+      clone.evaluator = null;
       return clone;
     } catch (CloneNotSupportedException e) {
       throw new AssertionError();
@@ -180,6 +233,7 @@ public class ColorValueType implements Savable, Cloneable {
   public void read(JmeImporter im) throws IOException {
     InputCapsule ic = im.getCapsule(this);
     color = (ColorRGBA)ic.readSavable("color", null);
+    evaluator = null;
   }
 
   public boolean equals(Object o) {
@@ -195,4 +249,127 @@ public class ColorValueType implements Savable, Cloneable {
 
     return true;
   }
+
+  private abstract static class Evaluator {
+    abstract ColorRGBA getValueColor(float time, float particleRandom, ColorRGBA store);
+
+    abstract int getValueABGR(float time, float particleRandom);
+
+    void getValuesColor(float[] times, float[] particleRandoms, float[] store, int from, int to) {
+      ColorRGBA temp = new ColorRGBA();
+      for (int i = from; i < to; i++) {
+        getValueColor(times[i], particleRandoms[i], temp);
+        store[i * 4] = temp.r;
+        store[i * 4 + 1] = temp.g;
+        store[i * 4 + 2] = temp.b;
+        store[i * 4 + 3] = temp.a;
+      }
+    }
+
+    void getValuesABGR(float[] times, float[] particleRandoms, int[] store, int from, int to) {
+      for (int i = from; i < to; i++) {
+        store[i] = getValueABGR(times[i], particleRandoms[i]);
+      }
+    }
+  }
+
+  private static final class ConstantEvaluator extends Evaluator {
+    private final ColorRGBA color;
+
+    ConstantEvaluator(ColorRGBA color) {
+      this.color = color;
+    }
+
+    @Override
+    ColorRGBA getValueColor(float time, float particleRandom, ColorRGBA store) {
+      return store.set(color);
+    }
+
+    @Override
+    int getValueABGR(float time, float particleRandom) {
+      return PackedColor.fromColor(color);
+    }
+
+    @Override
+    void getValuesABGR(float[] times, float[] particleRandoms, int[] store, int from, int to) {
+      Arrays.fill(store, from, to, PackedColor.fromColor(color));
+    }
+  }
+
+  private static final class RandomColorEvaluator extends Evaluator {
+    @Override
+    ColorRGBA getValueColor(float time, float particleRandom, ColorRGBA store) {
+      return store.set(ColorRGBA.randomColor());
+    }
+
+    @Override
+    int getValueABGR(float time, float particleRandom) {
+      return PackedColor.fromColor(ColorRGBA.randomColor());
+    }
+  }
+
+  private static final class GradientEvaluator extends Evaluator {
+    private final Gradient gradient;
+
+    GradientEvaluator(Gradient gradient) {
+      this.gradient = gradient;
+    }
+
+    @Override
+    ColorRGBA getValueColor(float time, float particleRandom, ColorRGBA store) {
+      return gradient.getValueColor(time, store);
+    }
+
+    @Override
+    int getValueABGR(float time, float particleRandom) {
+      return gradient.getValueABGR(time);
+    }
+  }
+
+  private static final class BetweenGradientsEvaluator extends Evaluator {
+    private final Gradient gradient;
+    private final Gradient gradientTwo;
+    private final ColorRGBA temp = new ColorRGBA();
+
+    BetweenGradientsEvaluator(Gradient gradient, Gradient gradientTwo) {
+      this.gradient = gradient;
+      this.gradientTwo = gradientTwo;
+    }
+
+    @Override
+    ColorRGBA getValueColor(float time, float particleRandom, ColorRGBA store) {
+      gradient.getValueColor(time, store);
+      gradientTwo.getValueColor(time, temp);
+      return store.interpolateLocal(temp, particleRandom);
+    }
+
+    @Override
+    int getValueABGR(float time, float particleRandom) {
+      return PackedColor.lerp(gradient.getValueABGR(time), gradientTwo.getValueABGR(time), particleRandom);
+    }
+  }
+
+  private static final class BetweenColorsEvaluator extends Evaluator {
+    private final ColorRGBA color;
+    private final ColorRGBA colorTwo;
+
+    BetweenColorsEvaluator(ColorRGBA color, ColorRGBA colorTwo) {
+      this.color = color;
+      this.colorTwo = colorTwo;
+    }
+
+    @Override
+    ColorRGBA getValueColor(float time, float particleRandom, ColorRGBA store) {
+      store.r = FastMath.interpolateLinear(particleRandom, color.r, colorTwo.r);
+      store.g = FastMath.interpolateLinear(particleRandom, color.g, colorTwo.g);
+      store.b = FastMath.interpolateLinear(particleRandom, color.b, colorTwo.b);
+      store.a = FastMath.interpolateLinear(particleRandom, color.a, colorTwo.a);
+      return store;
+    }
+
+    @Override
+    int getValueABGR(float time, float particleRandom) {
+      return PackedColor.lerp(PackedColor.fromColor(color), PackedColor.fromColor(colorTwo), particleRandom);
+    }
+  }
 }
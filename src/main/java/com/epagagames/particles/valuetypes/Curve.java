@@ -35,12 +35,24 @@ import com.jme3.export.*;
 import com.jme3.math.Vector2f;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Curve implements Savable, Cloneable {
 
-  private LinkedList<ControlPoint> points = new LinkedList<>();
+  // number of samples the curve is baked to over 0..1
+  public static final int LUT_SIZE = 256;
+
+  private ArrayList<ControlPoint> points = new ArrayList<>();
+
+  // baked samples, built on first use and dropped whenever the control points change
+  private transient volatile float[] lut;
+
+  // incremented whenever the control points change so tables built from this curve can detect it
+  private transient volatile int version;
+
+  // the point values the lookup table was built from, used to notice points that were edited in place
+  private transient volatile float[] bakedPoints;
 
   public Curve() {
   }
@@ -48,9 +60,137 @@ public class Curve implements Savable, Cloneable {
   public Curve addControlPoint(Vector2f in, Vector2f point, Vector2f out) {
     points.add(new ControlPoint(in, point, out));
     sort();
+    invalidate();
+    return this;
+  }
+
+  /**
+   * Replaces the control point at the given index, keeping the points sorted
+   *
+   * @param index - index of the control point to replace
+   * @param in - the incoming control point
+   * @param point - the point on the curve
+   * @param out - the outgoing control point
+   * @return this curve
+   */
+  public Curve setControlPoint(int index, Vector2f in, Vector2f point, Vector2f out) {
+    points.set(index, new ControlPoint(in, point, out));
+    sort();
+    invalidate();
+    return this;
+  }
+
+  public Curve removeControlPoint(int index) {
+    points.remove(index);
+    invalidate();
     return this;
   }
 
+  /**
+   * Drops the baked lookup table so it is rebuilt on the next evaluation. Changes to the control points
+   * are also detected when the curve is evaluated so this is normally not needed.
+   */
+  public void invalidate() {
+    lut = null;
+    bakedPoints = null;
+    version++;
+  }
+
+  int getVersion() {
+    checkPoints();
+    return version;
+  }
+
+  /**
+   * Compares the control points with the values the lookup table was built from. When they differ the
+   * points are sorted again and the table is dropped.
+   */
+  private void checkPoints() {
+    float[] baked = bakedPoints;
+    if (baked != null && baked.length == points.size() * 6) {
+      int i = 0;
+      boolean same = true;
+      for (ControlPoint p : points) {
+        if (!matches(baked, i, p.inControlPoint) || !matches(baked, i + 2, p.point)
+            || !matches(baked, i + 4, p.outControlPoint)) {
+          same = false;
+          break;
+        }
+        i += 6;
+      }
+      if (same) {
+        return;
+      }
+    }
+
+    sort();
+    float[] values = new float[points.size() * 6];
+    int i = 0;
+    for (ControlPoint p : points) {
+      store(values, i, p.inControlPoint);
+      store(values, i + 2, p.point);
+      store(values, i + 4, p.outControlPoint);
+      i += 6;
+    }
+    lut = null;
+    version++;
+    bakedPoints = values;
+  }
+
+  // a missing vector is stored as NaN
+  private static void store(float[] values, int index, Vector2f v) {
+    values[index] = v == null ? Float.NaN : v.x;
+    values[index + 1] = v == null ? Float.NaN : v.y;
+  }
+
+  private static boolean matches(float[] values, int index, Vector2f v) {
+    if (v == null) {
+      return Float.isNaN(values[index]);
+    }
+    return values[index] == v.x && values[index + 1] == v.y;
+  }
+
+  /**
+   * Evaluates the curve for a range of positions
+   *
+   * @param blendTimes - the positions on the curve
+   * @param store - receives the values at the same indices
+   * @param from - the first index to evaluate
+   * @param to - the index after the last to evaluate
+   */
+  public void getValues(float[] blendTimes, float[] store, int from, int to) {
+    checkPoints();
+    float[] table = lut;
+    if (table == null) {
+      bake();
+      table = lut;
+    }
+
+    for (int i = from; i < to; i++) {
+      float t = blendTimes[i];
+      if (t < 0 || t > 1) {
+        store[i] = getExactValue(t);
+        continue;
+      }
+      float f = t * (LUT_SIZE - 1);
+      int index = Math.min((int) f, LUT_SIZE - 2);
+      store[i] = table[index] + (table[index + 1] - table[index]) * (f - index);
+    }
+  }
+
+  /**
+   * Bakes the curve into a lookup table of LUT_SIZE samples over 0..1. This happens automatically on the
+   * first evaluation, calling it up front avoids doing the work while particles are simulated.
+   */
+  public void bake() {
+    checkPoints();
+    float[] table = new float[LUT_SIZE];
+    for (int i = 0; i < LUT_SIZE; i++) {
+      table[i] = getExactValue((float) i / (LUT_SIZE - 1));
+    }
+    lut = table;
+  }
+
   private void sort() {
     points.sort((c1, c2)->{
       if (c1.point.x < c2.point.x) return -1;
@@ -60,11 +200,52 @@ public class Curve implements Savable, Cloneable {
 
   }
 
+  /**
+   * Returns the control points of the curve. The list and the points can be modified directly, the
+   * changes are picked up on the next evaluation which sorts the points again and rebuilds the lookup
+   * table.
+   *
+   * @return the control points sorted by position
+   */
   public List<ControlPoint> getControlPoints() {
     return points;
   }
 
+  /**
+   * Get Value
+   * Values between 0 and 1 are linearly interpolated from the baked lookup table, other values are
+   * evaluated exactly.
+   *
+   * @param blendTime - the position on the curve
+   * @return the value of the curve
+   */
   public float getValue(float blendTime) {
+    if (blendTime < 0 || blendTime > 1) {
+      return getExactValue(blendTime);
+    }
+
+    checkPoints();
+    float[] table = lut;
+    if (table == null) {
+      bake();
+      table = lut;
+    }
+
+    float f = blendTime * (LUT_SIZE - 1);
+    int i = (int) f;
+    if (i >= LUT_SIZE - 1) {
+      return table[LUT_SIZE - 1];
+    }
+    return table[i] + (table[i + 1] - table[i]) * (f - i);
+  }
+
+  /**
+   * Evaluates the bezier segments of the curve without using the lookup table
+   *
+   * @param blendTime - the position on the curve
+   * @return the value of the curve
+   */
+  public float getExactValue(float blendTime) {
     // find which points we are in between
     ControlPoint lastPoint = null;
     ControlPoint currentPoint = null;
@@ -116,6 +297,22 @@ public class Curve implements Savable, Cloneable {
     return 0;
   }
 
+  /**
+   * Returns an upper bound of the magnitude of the curve. The curve segments are bezier curves so they stay
+   * within their points and control points.
+   *
+   * @return The largest absolute y value of the curve points and control points
+   */
+  public float getMaxAbsValue() {
+    float result = 0;
+    for (ControlPoint p : points) {
+      if (p.point != null) result = Math.max(result, Math.abs(p.point.y));
+      if (p.inControlPoint != null) result = Math.max(result, Math.abs(p.inControlPoint.y));
+      if (p.outControlPoint != null) result = Math.max(result, Math.abs(p.outControlPoint.y));
+    }
+    return result;
+  }
+
   @Override
   public void write(JmeExporter ex) throws IOException {
     OutputCapsule oc = ex.getCapsule(this);
@@ -130,13 +327,14 @@ public class Curve implements Savable, Cloneable {
     for (int i = 0; i < pointArray.length; i++) {
       points.add((ControlPoint) pointArray[i]);
     }
+    invalidate();
   }
 
   @Override
   public Curve clone() {
     try {
       Curve clone = (Curve)super.clone();
-      clone.points = new LinkedList<>();
+      clone.points = new ArrayList<>();
       points.forEach((p)-> clone.points.add(p.clone()));
       return clone;
     } catch (CloneNotSupportedException e) {
@@ -0,0 +1,577 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.valuetypes;
+
+import com.jme3.math.FastMath;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Expression
+ * A small math expression over the particle life (t), the particle random value (rnd) and the emitter
+ * time (time), for example "sin(t * 8) * 0.5 + rnd * 0.2".
+ *
+ * Supported are + - * / % ^, parentheses, the constants pi and e and the functions sin, cos, tan, abs, sqrt,
+ * floor, ceil, fract, exp, min, max, pow, step, lerp and clamp. The source is parsed once into a tree of
+ * nodes with constant parts folded. Batch evaluation runs every node over the whole range at a time, which
+ * keeps it close to the cost of the same formula written in Java; the single value version walks the tree
+ * for every call and is noticeably slower for larger expressions.
+ */
+public final class Expression {
+
+  private final String source;
+  private final Node root;
+
+  // scratch arrays for batch evaluation, one set per thread
+  private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+  /**
+   * Parses the expression
+   *
+   * @param source The expression text
+   * @throws IllegalArgumentException if the expression can't be parsed
+   */
+  public Expression(String source) {
+    this.source = source;
+    this.root = new Parser(source).parse();
+  }
+
+  public String getSource() {
+    return source;
+  }
+
+  /**
+   * Checks if the expression doesn't depend on any variable
+   *
+   * @return true if the expression always has the same value
+   */
+  public boolean isConstant() {
+    return root instanceof Const;
+  }
+
+  /**
+   * Evaluates the expression
+   *
+   * @param t The particle life 0-1
+   * @param rnd The particle random value
+   * @param time The emitter time
+   * @return The value of the expression
+   */
+  public float evaluate(float t, float rnd, float time) {
+    return root.eval(t, rnd, time);
+  }
+
+  /**
+   * Evaluates the expression for a range of inputs
+   *
+   * @param t The particle lives 0-1
+   * @param rnd The particle random values
+   * @param time The emitter time
+   * @param store receives the values at the same indices
+   * @param from The first index to evaluate
+   * @param to The index after the last to evaluate
+   */
+  public void evaluate(float[] t, float[] rnd, float time, float[] store, int from, int to) {
+    Scratch s = scratch.get();
+    s.t = t;
+    s.rnd = rnd;
+    s.time = time;
+    root.evalRange(s, store, from, to);
+    s.t = s.rnd = null;
+  }
+
+  @Override
+  public String toString() {
+    return source;
+  }
+
+  private static final class Scratch {
+    private float[] t;
+    private float[] rnd;
+    private float time;
+    private float[][] buffers = new float[8][];
+    private int depth;
+
+    float[] push(int size) {
+      if (depth == buffers.length) {
+        float[][] grown = new float[depth * 2][];
+        System.arraycopy(buffers, 0, grown, 0, depth);
+        buffers = grown;
+      }
+      float[] buffer = buffers[depth];
+      if (buffer == null || buffer.length < size) {
+        buffer = new float[size];
+        buffers[depth] = buffer;
+      }
+      depth++;
+      return buffer;
+    }
+
+    void pop() {
+      depth--;
+    }
+  }
+
+  private abstract static class Node {
+    abstract float eval(float t, float rnd, float time);
+
+    abstract void evalRange(Scratch s, float[] out, int from, int to);
+  }
+
+  private static final class Const extends Node {
+    private final float value;
+
+    Const(float value) {
+      this.value = value;
+    }
+
+    @Override
+    float eval(float t, float rnd, float time) {
+      return value;
+    }
+
+    @Override
+    void evalRange(Scratch s, float[] out, int from, int to) {
+      for (int i = from; i < to; i++) {
+        out[i] = value;
+      }
+    }
+  }
+
+  private static final class LifeVar extends Node {
+    @Override
+    float eval(float t, float rnd, float time) {
+      return t;
+    }
+
+    @Override
+    void evalRange(Scratch s, float[] out, int from, int to) {
+      System.arraycopy(s.t, from, out, from, to - from);
+    }
+  }
+
+  private static final class RandomVar extends Node {
+    @Override
+    float eval(float t, float rnd, float time) {
+      return rnd;
+    }
+
+    @Override
+    void evalRange(Scratch s, float[] out, int from, int to) {
+      System.arraycopy(s.rnd, from, out, from, to - from);
+    }
+  }
+
+  private static final class TimeVar extends Node {
+    @Override
+    float eval(float t, float rnd, float time) {
+      return time;
+    }
+
+    @Override
+    void evalRange(Scratch s, float[] out, int from, int to) {
+      for (int i = from; i < to; i++) {
+        out[i] = s.time;
+      }
+    }
+  }
+
+  private static final int NEG = 0, SIN = 1, COS = 2, TAN = 3, ABS = 4, SQRT = 5, FLOOR = 6, CEIL = 7,
+      FRACT = 8, EXP = 9;
+
+  private static final class Unary extends Node {
+    private final int op;
+    private final Node a;
+
+    Unary(int op, Node a) {
+      this.op = op;
+      this.a = a;
+    }
+
+    static float apply(int op, float v) {
+      switch (op) {
+        case NEG: return -v;
+        case SIN: return FastMath.sin(v);
+        case COS: return FastMath.cos(v);
+        case TAN: return FastMath.tan(v);
+        case ABS: return Math.abs(v);
+        case SQRT: return FastMath.sqrt(v);
+        case FLOOR: return (float) Math.floor(v);
+        case CEIL: return (float) Math.ceil(v);
+        case FRACT: return v - (float) Math.floor(v);
+        default: return FastMath.exp(v);
+      }
+    }
+
+    @Override
+    float eval(float t, float rnd, float time) {
+      return apply(op, a.eval(t, rnd, time));
+    }
+
+    @Override
+    void evalRange(Scratch s, float[] out, int from, int to) {
+      a.evalRange(s, out, from, to);
+      switch (op) {
+        case NEG:
+          for (int i = from; i < to; i++) out[i] = -out[i];
+          break;
+        case ABS:
+          for (int i = from; i < to; i++) out[i] = Math.abs(out[i]);
+          break;
+        case SQRT:
+          for (int i = from; i < to; i++) out[i] = (float) Math.sqrt(out[i]);
+          break;
+        default:
+          for (int i = from; i < to; i++) out[i] = apply(op, out[i]);
+          break;
+      }
+    }
+  }
+
+  private static final int ADD = 0, SUB = 1, MUL = 2, DIV = 3, MOD = 4, POW = 5, MIN = 6, MAX = 7, STEP = 8;
+
+  private static final class Binary extends Node {
+    private final int op;
+    private final Node a;
+    private final Node b;
+
+    Binary(int op, Node a, Node b) {
+      this.op = op;
+      this.a = a;
+      this.b = b;
+    }
+
+    static float apply(int op, float x, float y) {
+      switch (op) {
+        case ADD: return x + y;
+        case SUB: return x - y;
+        case MUL: return x * y;
+        case DIV: return x / y;
+        case MOD: return x % y;
+        case POW: return FastMath.pow(x, y);
+        case MIN: return Math.min(x, y);
+        case MAX: return Math.max(x, y);
+        default: return y < x ? 0 : 1;
+      }
+    }
+
+    @Override
+    float eval(float t, float rnd, float time) {
+      return apply(op, a.eval(t, rnd, time), b.eval(t, rnd, time));
+    }
+
+    @Override
+    void evalRange(Scratch s, float[] out, int from, int to) {
+      a.evalRange(s, out, from, to);
+      float[] right = s.push(to);
+      b.evalRange(s, right, from, to);
+      switch (op) {
+        case ADD:
+          for (int i = from; i < to; i++) out[i] += right[i];
+          break;
+        case SUB:
+          for (int i = from; i < to; i++) out[i] -= right[i];
+          break;
+        case MUL:
+          for (int i = from; i < to; i++) out[i] *= right[i];
+          break;
+        case DIV:
+          for (int i = from; i < to; i++) out[i] /= right[i];
+          break;
+        default:
+          for (int i = from; i < to; i++) out[i] = apply(op, out[i], right[i]);
+          break;
+      }
+      s.pop();
+    }
+  }
+
+  private static final int LERP = 0, CLAMP = 1;
+
+  private static final class Ternary extends Node {
+    private final int op;
+    private final Node a, b, c;
+
+    Ternary(int op, Node a, Node b, Node c) {
+      this.op = op;
+      this.a = a;
+      this.b = b;
+      this.c = c;
+    }
+
+    static float apply(int op, float x, float y, float z) {
+      if (op == LERP) {
+        return x + (y - x) * z;
+      }
+      return Math.max(y, Math.min(z, x));
+    }
+
+    @Override
+    float eval(float t, float rnd, float time) {
+      return apply(op, a.eval(t, rnd, time), b.eval(t, rnd, time), c.eval(t, rnd, time));
+    }
+
+    @Override
+    void evalRange(Scratch s, float[] out, int from, int to) {
+      a.evalRange(s, out, from, to);
+      float[] second = s.push(to);
+      b.evalRange(s, second, from, to);
+      float[] third = s.push(to);
+      c.evalRange(s, third, from, to);
+      for (int i = from; i < to; i++) {
+        out[i] = apply(op, out[i], second[i], third[i]);
+      }
+      s.pop();
+      s.pop();
+    }
+  }
+
+  /**
+   * Recursive descent parser, folding any node whose inputs are all constant
+   */
+  private static final class Parser {
+    private final String text;
+    private int pos;
+
+    Parser(String text) {
+      if (text == null) {
+        throw new IllegalArgumentException("Expression is null");
+      }
+      this.text = text;
+    }
+
+    Node parse() {
+      Node node = parseSum();
+      skipSpace();
+      if (pos < text.length()) {
+        throw error("Unexpected '" + text.charAt(pos) + "'");
+      }
+      return node;
+    }
+
+    private Node parseSum() {
+      Node node = parseProduct();
+      while (true) {
+        if (accept('+')) node = binary(ADD, node, parseProduct());
+        else if (accept('-')) node = binary(SUB, node, parseProduct());
+        else return node;
+      }
+    }
+
+    private Node parseProduct() {
+      Node node = parseUnary();
+      while (true) {
+        if (accept('*')) node = binary(MUL, node, parseUnary());
+        else if (accept('/')) node = binary(DIV, node, parseUnary());
+        else if (accept('%')) node = binary(MOD, node, parseUnary());
+        else return node;
+      }
+    }
+
+    private Node parseUnary() {
+      if (accept('-')) return unary(NEG, parseUnary());
+      if (accept('+')) return parseUnary();
+      Node node = parsePrimary();
+      if (accept('^')) {
+        // right associative
+        return binary(POW, node, parseUnary());
+      }
+      return node;
+    }
+
+    private Node parsePrimary() {
+      skipSpace();
+      if (pos >= text.length()) {
+        throw error("Unexpected end of expression");
+      }
+
+      char ch = text.charAt(pos);
+      if (accept('(')) {
+        Node node = parseSum();
+        expect(')');
+        return node;
+      }
+      if (Character.isDigit(ch) || ch == '.') {
+        return parseNumber();
+      }
+      if (Character.isLetter(ch)) {
+        int start = pos;
+        while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '_')) {
+          pos++;
+        }
+        String name = text.substring(start, pos);
+        if (accept('(')) {
+          return parseFunction(name, start);
+        }
+        switch (name) {
+          case "t": case "life": return new LifeVar();
+          case "rnd": case "random": return new RandomVar();
+          case "time": return new TimeVar();
+          case "pi": return new Const(FastMath.PI);
+          case "e": return new Const((float) Math.E);
+          default:
+            pos = start;
+            throw error("Unknown variable '" + name + "'");
+        }
+      }
+      throw error("Unexpected '" + ch + "'");
+    }
+
+    private Node parseFunction(String name, int start) {
+      List<Node> args = new ArrayList<>();
+      if (!accept(')')) {
+        do {
+          args.add(parseSum());
+        } while (accept(','));
+        expect(')');
+      }
+
+      int unaryOp = -1;
+      switch (name) {
+        case "sin": unaryOp = SIN; break;
+        case "cos": unaryOp = COS; break;
+        case "tan": unaryOp = TAN; break;
+        case "abs": unaryOp = ABS; break;
+        case "sqrt": unaryOp = SQRT; break;
+        case "floor": unaryOp = FLOOR; break;
+        case "ceil": unaryOp = CEIL; break;
+        case "fract": unaryOp = FRACT; break;
+        case "exp": unaryOp = EXP; break;
+        default: break;
+      }
+      if (unaryOp >= 0) {
+        checkArgs(name, args, 1, start);
+        return unary(unaryOp, args.get(0));
+      }
+
+      int binaryOp = -1;
+      switch (name) {
+        case "min": binaryOp = MIN; break;
+        case "max": binaryOp = MAX; break;
+        case "pow": binaryOp = POW; break;
+        case "step": binaryOp = STEP; break;
+        default: break;
+      }
+      if (binaryOp >= 0) {
+        checkArgs(name, args, 2, start);
+        return binary(binaryOp, args.get(0), args.get(1));
+      }
+
+      if (name.equals("lerp") || name.equals("clamp")) {
+        checkArgs(name, args, 3, start);
+        Node a = args.get(0), b = args.get(1), c = args.get(2);
+        int op = name.equals("lerp") ? LERP : CLAMP;
+        if (a instanceof Const && b instanceof Const && c instanceof Const) {
+          return new Const(Ternary.apply(op, a.eval(0, 0, 0), b.eval(0, 0, 0), c.eval(0, 0, 0)));
+        }
+        return new Ternary(op, a, b, c);
+      }
+
+      pos = start;
+      throw error("Unknown function '" + name + "'");
+    }
+
+    private void checkArgs(String name, List<Node> args, int count, int start) {
+      if (args.size() != count) {
+        pos = start;
+        throw error(name + " takes " + count + " argument" + (count > 1 ? "s" : ""));
+      }
+    }
+
+    private Node parseNumber() {
+      int start = pos;
+      while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+        pos++;
+      }
+      if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+        int mark = pos;
+        pos++;
+        if (pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) {
+          pos++;
+        }
+        if (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+          while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+            pos++;
+          }
+        } else {
+          pos = mark;
+        }
+      }
+      try {
+        return new Const(Float.parseFloat(text.substring(start, pos)));
+      } catch (NumberFormatException ex) {
+        pos = start;
+        throw error("Invalid number");
+      }
+    }
+
+    private Node unary(int op, Node a) {
+      if (a instanceof Const) {
+        return new Const(Unary.apply(op, a.eval(0, 0, 0)));
+      }
+      return new Unary(op, a);
+    }
+
+    private Node binary(int op, Node a, Node b) {
+      if (a instanceof Const && b instanceof Const) {
+        return new Const(Binary.apply(op, a.eval(0, 0, 0), b.eval(0, 0, 0)));
+      }
+      return new Binary(op, a, b);
+    }
+
+    private boolean accept(char ch) {
+      skipSpace();
+      if (pos < text.length() && text.charAt(pos) == ch) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(char ch) {
+      if (!accept(ch)) {
+        throw error("Expected '" + ch + "'");
+      }
+    }
+
+    private void skipSpace() {
+      while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at position " + pos + " in expression: " + text);
+    }
+  }
+}
@@ -59,10 +59,20 @@ public class Gradient implements Savable, Cloneable {
     for (int i = 0; i < pointArray.length; i++) {
       points.add((GradPoint) pointArray[i]);
     }
+    invalidate();
   }
 
+  // number of packed colors the gradient is baked to over 0..1
+  public static final int LUT_SIZE = 256;
+
   private ArrayList<GradPoint> points = new ArrayList<>();
 
+  // baked ABGR colors, built on first use and dropped whenever the points change
+  private transient volatile int[] lut;
+
+  // the point values the color table was built from, used to notice points that were edited in place
+  private transient volatile float[] bakedPoints;
+
   public Gradient() {
 
   }
@@ -77,6 +87,97 @@ public class Gradient implements Savable, Cloneable {
     return this;
   }
 
+  /**
+   * Drops the baked color table so it is rebuilt on the next lookup. Changes to the points returned by
+   * getPoint() are also detected on lookup so this is normally not needed.
+   */
+  public void invalidate() {
+    lut = null;
+    bakedPoints = null;
+  }
+
+  /**
+   * Compares the points with the values the color table was built from. When they differ the points are
+   * sorted again and the table is dropped.
+   */
+  private void checkPoints() {
+    float[] baked = bakedPoints;
+    if (baked != null && baked.length == points.size() * 5) {
+      int i = 0;
+      boolean same = true;
+      for (GradPoint p : points) {
+        if (baked[i] != p.x || !matches(baked, i + 1, p.color)) {
+          same = false;
+          break;
+        }
+        i += 5;
+      }
+      if (same) {
+        return;
+      }
+    }
+
+    sort();
+    float[] values = new float[points.size() * 5];
+    int i = 0;
+    for (GradPoint p : points) {
+      values[i] = p.x;
+      store(values, i + 1, p.color);
+      i += 5;
+    }
+    bakedPoints = values;
+  }
+
+  // a missing color is stored as NaN
+  private static void store(float[] values, int index, ColorRGBA color) {
+    values[index] = color == null ? Float.NaN : color.r;
+    values[index + 1] = color == null ? Float.NaN : color.g;
+    values[index + 2] = color == null ? Float.NaN : color.b;
+    values[index + 3] = color == null ? Float.NaN : color.a;
+  }
+
+  private static boolean matches(float[] values, int index, ColorRGBA color) {
+    if (color == null) {
+      return Float.isNaN(values[index]);
+    }
+    return values[index] == color.r && values[index + 1] == color.g && values[index + 2] == color.b
+        && values[index + 3] == color.a;
+  }
+
+  /**
+   * Bakes the gradient into a table of LUT_SIZE packed ABGR colors over 0..1. Channels are clamped to 0-1
+   * as they are packed.
+   */
+  public void bake() {
+    checkPoints();
+    int[] table = new int[LUT_SIZE];
+    ColorRGBA temp = new ColorRGBA();
+    for (int i = 0; i < LUT_SIZE; i++) {
+      table[i] = PackedColor.fromColor(getValueColor((float) i / (LUT_SIZE - 1), temp));
+    }
+    lut = table;
+  }
+
+  /**
+   * Returns the gradient color as a packed ABGR int from the baked color table
+   *
+   * @param percent The position on the gradient 0-1, values outside are clamped
+   * @return The ABGR color
+   */
+  public int getValueABGR(float percent) {
+    checkPoints();
+    int[] table = lut;
+    if (table == null) {
+      bake();
+      table = lut;
+    }
+
+    int i = (int) (percent * (LUT_SIZE - 1) + 0.5f);
+    if (i < 0) return table[0];
+    if (i >= LUT_SIZE) return table[LUT_SIZE - 1];
+    return table[i];
+  }
+
   public int getSize() {
     return points.size();
   }
@@ -91,6 +192,7 @@ public class Gradient implements Savable, Cloneable {
       else if (c1.x > c2.x) return 1;
       else return 0;
     });
+    invalidate();
 
   }
 
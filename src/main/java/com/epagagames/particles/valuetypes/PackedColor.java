@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2019 Greg Hoffman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.epagagames.particles.valuetypes;
+
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+
+/**
+ * Packed Color
+ * Helpers for colors packed into a single int in ABGR order, the layout of the particle mesh color buffers
+ */
+public final class PackedColor {
+
+  public static final int WHITE = 0xFFFFFFFF;
+
+  private PackedColor() {
+
+  }
+
+  /**
+   * Multiplies two packed colors channel by channel
+   *
+   * @param c1 The first ABGR color
+   * @param c2 The second ABGR color
+   * @return The product as an ABGR color
+   */
+  public static int multiply(int c1, int c2) {
+    if (c2 == WHITE) return c1;
+    if (c1 == WHITE) return c2;
+
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 8) {
+      int v = ((c1 >>> shift) & 0xFF) * ((c2 >>> shift) & 0xFF) + 128;
+      result |= ((v + (v >> 8)) >> 8) << shift;
+    }
+    return result;
+  }
+
+  /**
+   * Multiplies a packed color by a float color channel by channel. The float color isn't quantized or
+   * clamped, so factors above 1 brighten the packed color; only the product is clamped to 0-1.
+   *
+   * @param abgr The ABGR color
+   * @param scale The color to multiply by
+   * @return The product as an ABGR color
+   */
+  public static int multiply(int abgr, ColorRGBA scale) {
+    return scale(abgr & 0xFF, scale.r)
+        | scale((abgr >>> 8) & 0xFF, scale.g) << 8
+        | scale((abgr >>> 16) & 0xFF, scale.b) << 16
+        | scale(abgr >>> 24, scale.a) << 24;
+  }
+
+  private static int scale(int channel, float factor) {
+    int v = (int) (channel * factor + 0.5f);
+    return v < 0 ? 0 : v > 255 ? 255 : v;
+  }
+
+  /**
+   * Linearly interpolates between two packed colors
+   *
+   * @param c1 The ABGR color at 0
+   * @param c2 The ABGR color at 1
+   * @param t The blend amount 0-1
+   * @return The blended ABGR color
+   */
+  public static int lerp(int c1, int c2, float t) {
+    int it = (int) (t * 256);
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 8) {
+      int a = (c1 >>> shift) & 0xFF;
+      int b = (c2 >>> shift) & 0xFF;
+      result |= ((a + (((b - a) * it) >> 8)) & 0xFF) << shift;
+    }
+    return result;
+  }
+
+  /**
+   * Packs a color as ABGR. Unlike ColorRGBA.asIntABGR the channels are clamped to 0-1 first so values
+   * outside that range, such as HDR colors, saturate instead of wrapping into the other channels.
+   *
+   * @param color The color to pack
+   * @return The packed ABGR color
+   */
+  public static int fromColor(ColorRGBA color) {
+    int r = (int) (FastMath.clamp(color.r, 0, 1) * 255);
+    int g = (int) (FastMath.clamp(color.g, 0, 1) * 255);
+    int b = (int) (FastMath.clamp(color.b, 0, 1) * 255);
+    int a = (int) (FastMath.clamp(color.a, 0, 1) * 255);
+    return (a << 24) | (b << 16) | (g << 8) | r;
+  }
+
+  /**
+   * Unpacks an ABGR color
+   *
+   * @param abgr The packed color
+   * @param store The color to store the result in or null for a new color
+   * @return The unpacked color
+   */
+  public static ColorRGBA toColor(int abgr, ColorRGBA store) {
+    if (store == null) {
+      store = new ColorRGBA();
+    }
+    return store.fromIntABGR(abgr);
+  }
+}
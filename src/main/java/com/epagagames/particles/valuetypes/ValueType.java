@@ -35,11 +35,12 @@ import com.jme3.export.*;
 import com.jme3.math.FastMath;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Value Type
  *
- * 4 Modes... constant, random, curve, random between two curves
+ * 5 Modes... constant, random, curve, random between two curves, expression
  */
 public class ValueType implements Savable, Cloneable {
 
@@ -47,7 +48,8 @@ public class ValueType implements Savable, Cloneable {
     CONSTANT,
     RANDOM,
     CURVE,
-    RANDOM_BETWEEN_CURVES
+    RANDOM_BETWEEN_CURVES,
+    EXPRESSION
   }
 
   private Type type = Type.CONSTANT;
@@ -55,6 +57,10 @@ public class ValueType implements Savable, Cloneable {
   private float max;
   private Curve curveOne;
   private Curve curveTwo;
+  private Expression expression;
+
+  // evaluator compiled from the current configuration, rebuilt on first use after a change
+  private transient Evaluator evaluator;
 
   public ValueType() {
 
@@ -99,36 +105,149 @@ public class ValueType implements Savable, Cloneable {
     type = Type.RANDOM_BETWEEN_CURVES;
   }
 
+  /**
+   * Constructor for an expression value
+   * @param expression - the expression text, see Expression
+   */
+  public ValueType(String expression) {
+    this.expression = new Expression(expression);
+    type = Type.EXPRESSION;
+  }
+
   /**
    * Get Value
-   * This is used during particle calculatons to get output values that can vary by time
+   * This is used during particle calculatons to get output values that can vary by time. Expressions are
+   * evaluated at emitter time 0, use getValue(blendTime, particleRandomValue, emitterTime) for those.
    *
    * @param blendTime - How far along the particles lifecycle is 0-1
    * @param particleRandomValue - Generated every time a particle is born for calculations like between two curves
    * @return
    */
   public float getValue(float blendTime, float particleRandomValue) {
-    if (type == Type.CONSTANT) return value;
-    if (type == Type.RANDOM) return FastMath.nextRandomFloat() * (max - value) + value;
-    if (type == Type.CURVE) return curveOne.getValue(blendTime);
-    if (type == Type.RANDOM_BETWEEN_CURVES) {
-      float f1 = curveOne.getValue(blendTime);
-      float f2 = curveTwo.getValue(blendTime);
-      if (f1 > f2) {
-        float t = f2;
-        f2 = f1;
-        f1 = t;
-      }
+    Evaluator e = evaluator;
+    if (e == null) {
+      e = compile();
+      evaluator = e;
+    }
+    return e.getValue(blendTime, particleRandomValue);
+  }
 
-      return particleRandomValue * (f2 - f1) + f1;
+  /**
+   * Get Value
+   * Same as getValue(blendTime, particleRandomValue) but also passes the emitter time to expressions
+   *
+   * @param blendTime - How far along the particles lifecycle is 0-1
+   * @param particleRandomValue - Generated every time a particle is born for calculations like between two curves
+   * @param emitterTime - The current time of the emitter, the time variable of expressions
+   * @return
+   */
+  public float getValue(float blendTime, float particleRandomValue, float emitterTime) {
+    Evaluator e = evaluator;
+    if (e == null) {
+      e = compile();
+      evaluator = e;
+    }
+    return e.getValue(blendTime, particleRandomValue, emitterTime);
+  }
+
+  /**
+   * Get Values
+   * Evaluates a range of inputs in one call, the batch version of getValue. Expressions are evaluated at
+   * emitter time 0.
+   *
+   * @param blendTimes - How far along each particles lifecycle is 0-1
+   * @param particleRandomValues - The random value of each particle
+   * @param store - receives the values at the same indices
+   * @param from - the first index to evaluate
+   * @param to - the index after the last to evaluate
+   */
+  public void getValues(float[] blendTimes, float[] particleRandomValues, float[] store, int from, int to) {
+    Evaluator e = evaluator;
+    if (e == null) {
+      e = compile();
+      evaluator = e;
+    }
+    e.getValues(blendTimes, particleRandomValues, store, from, to);
+  }
+
+  /**
+   * Get Values
+   * Same as getValues(blendTimes, particleRandomValues, store, from, to) but also passes the emitter time
+   * to expressions
+   *
+   * @param blendTimes - How far along each particles lifecycle is 0-1
+   * @param particleRandomValues - The random value of each particle
+   * @param emitterTime - The current time of the emitter, the time variable of expressions
+   * @param store - receives the values at the same indices
+   * @param from - the first index to evaluate
+   * @param to - the index after the last to evaluate
+   */
+  public void getValues(float[] blendTimes, float[] particleRandomValues, float emitterTime, float[] store,
+                        int from, int to) {
+    Evaluator e = evaluator;
+    if (e == null) {
+      e = compile();
+      evaluator = e;
+    }
+    e.getValues(blendTimes, particleRandomValues, emitterTime, store, from, to);
+  }
+
+  /**
+   * Checks if the value type always returns the same value. Constant values can be read once with
+   * getValue() instead of being evaluated per particle.
+   *
+   * @return true if the type is constant
+   */
+  public boolean isConstant() {
+    return type == Type.CONSTANT;
+  }
+
+  private Evaluator compile() {
+    switch (type) {
+      case RANDOM: return new RandomEvaluator(value, max);
+      case CURVE: return new CurveEvaluator(curveOne);
+      case RANDOM_BETWEEN_CURVES: return new BetweenCurvesEvaluator(curveOne, curveTwo);
+      case EXPRESSION: return new ExpressionEvaluator(expression);
+      default: return new ConstantEvaluator(value);
     }
-    return value;
   }
 
   public float getValue() {
     return value;
   }
 
+  /**
+   * Bakes the curves of this value type into lookup tables ahead of their first evaluation
+   */
+  public void bake() {
+    if (curveOne != null) curveOne.bake();
+    if (curveTwo != null) curveTwo.bake();
+    evaluator = compile();
+  }
+
+  /**
+   * Checks if getMaxAbsValue is a real bound of the values. Expressions can produce any value over the
+   * emitter time so they are not bounded.
+   *
+   * @return true if the values of this type have a known bound
+   */
+  public boolean isBounded() {
+    return type != Type.EXPRESSION;
+  }
+
+  /**
+   * Returns an upper bound of the magnitude of the values this value type can produce
+   *
+   * @return The largest absolute value returned by getValue, Float.POSITIVE_INFINITY if the type is not bounded
+   */
+  public float getMaxAbsValue() {
+    if (type == Type.RANDOM) return Math.max(Math.abs(value), Math.abs(max));
+    if (type == Type.CURVE) return curveOne.getMaxAbsValue();
+    if (type == Type.RANDOM_BETWEEN_CURVES) return Math.max(curveOne.getMaxAbsValue(), curveTwo.getMaxAbsValue());
+    if (type == Type.EXPRESSION) return Float.POSITIVE_INFINITY;
+    return Math.abs(value);
+  }
+
   public float getMax() {
     return max;
   }
@@ -141,11 +260,17 @@ public class ValueType implements Savable, Cloneable {
     return curveTwo;
   }
 
+  public Expression getExpression() {
+    return expression;
+  }
+
   public void setValue(float value) {
     this.value = value;
     this.type = Type.CONSTANT;
     curveOne = null;
     curveTwo = null;
+    expression = null;
+    evaluator = null;
   }
 
   public void setMinMaxValue(float value, float max) {
@@ -154,18 +279,37 @@ public class ValueType implements Savable, Cloneable {
     this.type = Type.RANDOM;
     curveOne = null;
     curveTwo = null;
+    expression = null;
+    evaluator = null;
   }
 
   public void setCurve(Curve curve) {
     this.curveOne = curve;
     this.type = Type.CURVE;
     curveTwo = null;
+    expression = null;
+    evaluator = null;
   }
 
   public void setBetweenCurves(Curve curve, Curve curveTwo) {
     this.curveOne = curve;
     this.curveTwo = curveTwo;
     this.type = Type.RANDOM_BETWEEN_CURVES;
+    expression = null;
+    evaluator = null;
+  }
+
+  /**
+   * Sets an expression value
+   * @param expression - the expression text, see Expression
+   * @throws IllegalArgumentException if the expression can't be parsed
+   */
+  public void setExpression(String expression) {
+    this.expression = new Expression(expression);
+    this.type = Type.EXPRESSION;
+    curveOne = null;
+    curveTwo = null;
+    evaluator = null;
   }
 
   public Type getType() {
@@ -178,6 +322,8 @@ public class ValueType implements Savable, Cloneable {
     this.max = value.max;
     this.curveOne = value.curveOne != null ? value.curveOne.clone() : null;
     this.curveTwo = value.curveTwo != null ? value.curveTwo.clone() : null;
+    this.expression = value.expression;
+    evaluator = null;
   }
 
   @Override
@@ -190,6 +336,7 @@ public class ValueType implements Savable, Cloneable {
 
       if (curveOne != null) clone.curveOne = curveOne.clone();
       if (curveTwo != null) clone.curveTwo = curveTwo.clone();
+      clone.evaluator = null;
       return clone;
     } catch (CloneNotSupportedException e) {
       throw new AssertionError();
@@ -205,6 +352,7 @@ public class ValueType implements Savable, Cloneable {
     oc.write(max, "max", 0.0f);
     oc.write(curveOne, "curveone", null);
     oc.write(curveTwo, "curvetwo", null);
+    oc.write(expression != null ? expression.getSource() : null, "expression", null);
   }
 
   @Override
@@ -215,6 +363,13 @@ public class ValueType implements Savable, Cloneable {
     max = ic.readFloat("max", 0.0f);
     curveOne = (Curve) ic.readSavable("curveone", null);
     curveTwo = (Curve) ic.readSavable("curvetwo", null);
+    String source = ic.readString("expression", null);
+    try {
+      expression = source != null ? new Expression(source) : null;
+    } catch (IllegalArgumentException ex) {
+      throw new IOException(ex.getMessage(), ex);
+    }
+    evaluator = null;
   }
 
   public boolean equals(Object o) {
@@ -225,7 +380,141 @@ public class ValueType implements Savable, Cloneable {
     if (type != check.type) return false;
     if (value != check.value) return false;
     if (max != check.max) return false;
+    if (type == Type.EXPRESSION && !expression.getSource().equals(check.expression.getSource())) return false;
 
     return true;
   }
+
+  private abstract static class Evaluator {
+    abstract float getValue(float blendTime, float particleRandomValue);
+
+    void getValues(float[] blendTimes, float[] particleRandomValues, float[] store, int from, int to) {
+      for (int i = from; i < to; i++) {
+        store[i] = getValue(blendTimes[i], particleRandomValues[i]);
+      }
+    }
+
+    float getValue(float blendTime, float particleRandomValue, float emitterTime) {
+      return getValue(blendTime, particleRandomValue);
+    }
+
+    void getValues(float[] blendTimes, float[] particleRandomValues, float emitterTime, float[] store,
+                   int from, int to) {
+      getValues(blendTimes, particleRandomValues, store, from, to);
+    }
+  }
+
+  private static final class ConstantEvaluator extends Evaluator {
+    private final float value;
+
+    ConstantEvaluator(float value) {
+      this.value = value;
+    }
+
+    @Override
+    float getValue(float blendTime, float particleRandomValue) {
+      return value;
+    }
+
+    @Override
+    void getValues(float[] blendTimes, float[] particleRandomValues, float[] store, int from, int to) {
+      Arrays.fill(store, from, to, value);
+    }
+  }
+
+  private static final class RandomEvaluator extends Evaluator {
+    private final float min;
+    private final float range;
+
+    RandomEvaluator(float min, float max) {
+      this.min = min;
+      this.range = max - min;
+    }
+
+    @Override
+    float getValue(float blendTime, float particleRandomValue) {
+      return FastMath.nextRandomFloat() * range + min;
+    }
+  }
+
+  private static final class CurveEvaluator extends Evaluator {
+    private final Curve curve;
+
+    CurveEvaluator(Curve curve) {
+      this.curve = curve;
+    }
+
+    @Override
+    float getValue(float blendTime, float particleRandomValue) {
+      return curve.getValue(blendTime);
+    }
+
+    @Override
+    void getValues(float[] blendTimes, float[] particleRandomValues, float[] store, int from, int to) {
+      curve.getValues(blendTimes, store, from, to);
+    }
+  }
+
+  private static final class BetweenCurvesEvaluator extends Evaluator {
+    private final Curve curveOne;
+    private final Curve curveTwo;
+
+    BetweenCurvesEvaluator(Curve curveOne, Curve curveTwo) {
+      this.curveOne = curveOne;
+      this.curveTwo = curveTwo;
+    }
+
+    @Override
+    float getValue(float blendTime, float particleRandomValue) {
+      float f1 = curveOne.getValue(blendTime);
+      float f2 = curveTwo.getValue(blendTime);
+      if (f1 > f2) {
+        float t = f2;
+        f2 = f1;
+        f1 = t;
+      }
+
+      return particleRandomValue * (f2 - f1) + f1;
+    }
+
+    @Override
+    void getValues(float[] blendTimes, float[] particleRandomValues, float[] store, int from, int to) {
+      curveOne.getValues(blendTimes, store, from, to);
+      for (int i = from; i < to; i++) {
+        float f1 = store[i];
+        float f2 = curveTwo.getValue(blendTimes[i]);
+        float min = Math.min(f1, f2);
+        store[i] = particleRandomValues[i] * (Math.max(f1, f2) - min) + min;
+      }
+    }
+  }
+
+  private static final class ExpressionEvaluator extends Evaluator {
+    private final Expression expression;
+
+    ExpressionEvaluator(Expression expression) {
+      this.expression = expression;
+    }
+
+    @Override
+    float getValue(float blendTime, float particleRandomValue) {
+      return expression.evaluate(blendTime, particleRandomValue, 0);
+    }
+
+    @Override
+    float getValue(float blendTime, float particleRandomValue, float emitterTime) {
+      return expression.evaluate(blendTime, particleRandomValue, emitterTime);
+    }
+
+    @Override
+    void getValues(float[] blendTimes, float[] particleRandomValues, float[] store, int from, int to) {
+      expression.evaluate(blendTimes, particleRandomValues, 0, store, from, to);
+    }
+
+    @Override
+    void getValues(float[] blendTimes, float[] particleRandomValues, float emitterTime, float[] store,
+                   int from, int to) {
+      expression.evaluate(blendTimes, particleRandomValues, emitterTime, store, from, to);
+    }
+  }
 }
@@ -64,6 +64,9 @@ public class VectorValueType implements Savable, Cloneable {
 
   private transient Vector3f tempValue = new Vector3f();
 
+  // evaluator compiled from the current configuration, rebuilt on first use after a change
+  private transient Evaluator evaluator;
+
 
   public VectorValueType() {
 
@@ -81,40 +84,61 @@ public class VectorValueType implements Savable, Cloneable {
 
 
   public Vector3f getValue3f(float time, float particleRandom, Vector3f store) {
-    Vector3f result = null;
-    if (store != null) {
-      result = store;
-    } else {
-      result = new Vector3f();
+    Vector3f result = store != null ? store : new Vector3f();
+    Evaluator e = evaluator;
+    if (e == null) {
+      e = compile();
+      evaluator = e;
+    }
+    return e.getValue(time, particleRandom, result);
+  }
+
+  /**
+   * Get Values
+   * Evaluates a range of inputs in one call, the batch version of getValue3f
+   *
+   * @param times - How far along each particles lifecycle is 0-1
+   * @param particleRandoms - The random value of each particle
+   * @param store - receives the x, y and z values interleaved, index i is written to i * 3
+   * @param from - the first index to evaluate
+   * @param to - the index after the last to evaluate
+   */
+  public void getValues(float[] times, float[] particleRandoms, float[] store, int from, int to) {
+    Evaluator e = evaluator;
+    if (e == null) {
+      e = compile();
+      evaluator = e;
     }
+    e.getValues(times, particleRandoms, store, from, to);
+  }
+
+  /**
+   * Checks if the value type always returns the same value. Constant values can be read once with
+   * getValue() instead of being evaluated per particle.
+   *
+   * @return true if the type is constant
+   */
+  public boolean isConstant() {
+    return type == Type.CONSTANT;
+  }
 
+  private Evaluator compile() {
     switch (type) {
-      case CONSTANT: result.set(value); break;
-      case RANDOM:
-        result.x = FastMath.interpolateLinear(FastMath.nextRandomFloat(), value.x, second.x);
-        result.y = FastMath.interpolateLinear(FastMath.nextRandomFloat(), value.y, second.y);
-        result.z = FastMath.interpolateLinear(FastMath.nextRandomFloat(), value.z, second.z);
-      break;
-      case CURVE:
-        result.x = x1.getValue(time);
-        result.y = y1.getValue(time);
-        result.z = z1.getValue(time);
-      break;
-      case RANDOM_BETWEEN_CURVES:
-        result.x = x1.getValue(time);
-        result.y = y1.getValue(time);
-        result.z = z1.getValue(time);
-
-        tempValue.x = x2.getValue(time);
-        tempValue.y = y2.getValue(time);
-        tempValue.z = z2.getValue(time);
-
-        result.interpolateLocal(tempValue, particleRandom);
-      break;
-      default: break;
+      case RANDOM: return new RandomEvaluator(value, second);
+      case CURVE: return new CurvesEvaluator(x1, y1, z1);
+      case RANDOM_BETWEEN_CURVES: return new BetweenCurvesEvaluator(x1, y1, z1, x2, y2, z2);
+      default: return new ConstantEvaluator(value);
     }
+  }
 
-    return result;
+  /**
+   * Bakes the curves of this value type into lookup tables ahead of their first evaluation
+   */
+  public void bake() {
+    for (Curve curve : new Curve[] {x1, y1, z1, x2, y2, z2}) {
+      if (curve != null) curve.bake();
+    }
+    evaluator = compile();
   }
 
   public void setValue(Vector3f value) {
@@ -123,10 +147,12 @@ public class VectorValueType implements Savable, Cloneable {
     x2 = y2 = z2 = null;
     second = null;
     this.type = Type.CONSTANT;
+    evaluator = null;
   }
 
   public void setMax(Vector3f max) {
     this.second = max;
+    evaluator = null;
   }
 
   public void setValue(Vector3f min, Vector3f max) {
@@ -135,6 +161,7 @@ public class VectorValueType implements Savable, Cloneable {
     x1 = y1 = z1 = null;
     x2 = y2 = z2 = null;
     this.type = Type.RANDOM;
+    evaluator = null;
   }
 
   public void setCurve(Curve x, Curve y, Curve z) {
@@ -144,6 +171,7 @@ public class VectorValueType implements Savable, Cloneable {
     x2 = y2 = z2 = null;
     value = second = null;
     this.type = Type.CURVE;
+    evaluator = null;
   }
 
   public void setCurve(Curve x, Curve y, Curve z, Curve x2, Curve y2, Curve z2) {
@@ -155,6 +183,7 @@ public class VectorValueType implements Savable, Cloneable {
     this.z2 = z2;
     value = second = null;
     this.type = Type.RANDOM_BETWEEN_CURVES;
+    evaluator = null;
   }
 
   public void set(VectorValueType v) {
@@ -166,6 +195,7 @@ public class VectorValueType implements Savable, Cloneable {
     if (v.x2 != null) x1 = v.x2.clone();
     if (v.y2 != null) y1 = v.y2.clone();
     if (v.z2 != null) z1 = v.z2.clone();
+    evaluator = null;
   }
 
   public Vector3f getValue() {
@@ -230,6 +260,7 @@ public class VectorValueType implements Savable, Cloneable {
     y2 = (Curve)ic.readSavable("y2", null);
     z2 = (Curve)ic.readSavable("z2", null);
     type = ic.readEnum("type", Type.class, Type.CONSTANT);
+    evaluator = null;
   }
 
   @Override
@@ -245,6 +276,8 @@ public class VectorValueType implements Savable, Cloneable {
       if (x2 != null) clone.x2 = x2.clone();
       if (y2 != null) clone.y2 = y2.clone();
       if (z2 != null) clone.z2 = z2.clone();
+      clone.tempValue = new Vector3f();
+      clone.evaluator = null;
       return clone;
     } catch (CloneNotSupportedException e) {
       throw new AssertionError();
@@ -268,4 +301,209 @@ public class VectorValueType implements Savable, Cloneable {
 
     return true;
   }
+
+  private abstract static class Evaluator {
+    abstract Vector3f getValue(float time, float particleRandom, Vector3f store);
+
+    void getValues(float[] times, float[] particleRandoms, float[] store, int from, int to) {
+      Vector3f temp = new Vector3f();
+      for (int i = from; i < to; i++) {
+        getValue(times[i], particleRandoms[i], temp);
+        store[i * 3] = temp.x;
+        store[i * 3 + 1] = temp.y;
+        store[i * 3 + 2] = temp.z;
+      }
+    }
+  }
+
+  private static final class ConstantEvaluator extends Evaluator {
+    private final Vector3f value;
+
+    ConstantEvaluator(Vector3f value) {
+      this.value = value;
+    }
+
+    @Override
+    Vector3f getValue(float time, float particleRandom, Vector3f store) {
+      return store.set(value);
+    }
+
+    @Override
+    void getValues(float[] times, float[] particleRandoms, float[] store, int from, int to) {
+      float x = value.x, y = value.y, z = value.z;
+      for (int i = from * 3; i < to * 3; i += 3) {
+        store[i] = x;
+        store[i + 1] = y;
+        store[i + 2] = z;
+      }
+    }
+  }
+
+  private static final class RandomEvaluator extends Evaluator {
+    private final Vector3f min;
+    private final Vector3f max;
+
+    RandomEvaluator(Vector3f min, Vector3f max) {
+      this.min = min;
+      this.max = max;
+    }
+
+    @Override
+    Vector3f getValue(float time, float particleRandom, Vector3f store) {
+      store.x = FastMath.interpolateLinear(FastMath.nextRandomFloat(), min.x, max.x);
+      store.y = FastMath.interpolateLinear(FastMath.nextRandomFloat(), min.y, max.y);
+      store.z = FastMath.interpolateLinear(FastMath.nextRandomFloat(), min.z, max.z);
+      return store;
+    }
+  }
+
+  private static final class CurvesEvaluator extends Evaluator {
+    private final CurveTable curves;
+
+    CurvesEvaluator(Curve x, Curve y, Curve z) {
+      curves = new CurveTable(x, y, z);
+    }
+
+    @Override
+    Vector3f getValue(float time, float particleRandom, Vector3f store) {
+      return curves.getValue(time, store);
+    }
+
+    @Override
+    void getValues(float[] times, float[] particleRandoms, float[] store, int from, int to) {
+      float[] table = curves.getTable();
+      for (int i = from; i < to; i++) {
+        float time = times[i];
+        int out = i * 3;
+        if (time < 0 || time > 1) {
+          store[out] = curves.x.getValue(time);
+          store[out + 1] = curves.y.getValue(time);
+          store[out + 2] = curves.z.getValue(time);
+          continue;
+        }
+        float f = time * (Curve.LUT_SIZE - 1);
+        int index = Math.min((int) f, Curve.LUT_SIZE - 2);
+        float frac = f - index;
+        index *= 3;
+        store[out] = table[index] + (table[index + 3] - table[index]) * frac;
+        store[out + 1] = table[index + 1] + (table[index + 4] - table[index + 1]) * frac;
+        store[out + 2] = table[index + 2] + (table[index + 5] - table[index + 2]) * frac;
+      }
+    }
+  }
+
+  private static final class BetweenCurvesEvaluator extends Evaluator {
+    private final CurveTable curvesOne;
+    private final CurveTable curvesTwo;
+
+    BetweenCurvesEvaluator(Curve x1, Curve y1, Curve z1, Curve x2, Curve y2, Curve z2) {
+      curvesOne = new CurveTable(x1, y1, z1);
+      curvesTwo = new CurveTable(x2, y2, z2);
+    }
+
+    @Override
+    Vector3f getValue(float time, float particleRandom, Vector3f store) {
+      float[] one = curvesOne.getTable();
+      float[] two = curvesTwo.getTable();
+      if (time < 0 || time > 1) {
+        store.x = FastMath.interpolateLinear(particleRandom, curvesOne.x.getValue(time), curvesTwo.x.getValue(time));
+        store.y = FastMath.interpolateLinear(particleRandom, curvesOne.y.getValue(time), curvesTwo.y.getValue(time));
+        store.z = FastMath.interpolateLinear(particleRandom, curvesOne.z.getValue(time), curvesTwo.z.getValue(time));
+        return store;
+      }
+
+      float f = time * (Curve.LUT_SIZE - 1);
+      int i = Math.min((int) f, Curve.LUT_SIZE - 2);
+      float frac = f - i;
+      int index = i * 3;
+      for (int c = 0; c < 3; c++, index++) {
+        float v1 = one[index] + (one[index + 3] - one[index]) * frac;
+        float v2 = two[index] + (two[index + 3] - two[index]) * frac;
+        store.set(c, v1 + (v2 - v1) * particleRandom);
+      }
+      return store;
+    }
+
+    @Override
+    void getValues(float[] times, float[] particleRandoms, float[] store, int from, int to) {
+      float[] one = curvesOne.getTable();
+      float[] two = curvesTwo.getTable();
+      for (int i = from; i < to; i++) {
+        float time = times[i];
+        float r = particleRandoms[i];
+        int out = i * 3;
+        if (time < 0 || time > 1) {
+          store[out] = FastMath.interpolateLinear(r, curvesOne.x.getValue(time), curvesTwo.x.getValue(time));
+          store[out + 1] = FastMath.interpolateLinear(r, curvesOne.y.getValue(time), curvesTwo.y.getValue(time));
+          store[out + 2] = FastMath.interpolateLinear(r, curvesOne.z.getValue(time), curvesTwo.z.getValue(time));
+          continue;
+        }
+        float f = time * (Curve.LUT_SIZE - 1);
+        int index = Math.min((int) f, Curve.LUT_SIZE - 2);
+        float frac = f - index;
+        index *= 3;
+        for (int c = 0; c < 3; c++, index++) {
+          float v1 = one[index] + (one[index + 3] - one[index]) * frac;
+          float v2 = two[index] + (two[index + 3] - two[index]) * frac;
+          store[out + c] = v1 + (v2 - v1) * r;
+        }
+      }
+    }
+  }
+
+  /**
+   * The three curves of a vector baked into one interleaved table so a lookup touches a single array
+   */
+  private static final class CurveTable {
+    private final Curve x, y, z;
+    private volatile Baked baked;
+
+    CurveTable(Curve x, Curve y, Curve z) {
+      this.x = x;
+      this.y = y;
+      this.z = z;
+    }
+
+    float[] getTable() {
+      Baked b = baked;
+      if (b == null || b.versionX != x.getVersion() || b.versionY != y.getVersion() || b.versionZ != z.getVersion()) {
+        b = new Baked(x, y, z);
+        baked = b;
+      }
+      return b.table;
+    }
+
+    Vector3f getValue(float time, Vector3f store) {
+      if (time < 0 || time > 1) {
+        return store.set(x.getValue(time), y.getValue(time), z.getValue(time));
+      }
+
+      float[] table = getTable();
+      float f = time * (Curve.LUT_SIZE - 1);
+      int i = Math.min((int) f, Curve.LUT_SIZE - 2);
+      float frac = f - i;
+      int index = i * 3;
+      store.x = table[index] + (table[index + 3] - table[index]) * frac;
+      store.y = table[index + 1] + (table[index + 4] - table[index + 1]) * frac;
+      store.z = table[index + 2] + (table[index + 5] - table[index + 2]) * frac;
+      return store;
+    }
+  }
+
+  private static final class Baked {
+    private final float[] table = new float[Curve.LUT_SIZE * 3];
+    private final int versionX, versionY, versionZ;
+
+    Baked(Curve x, Curve y, Curve z) {
+      versionX = x.getVersion();
+      versionY = y.getVersion();
+      versionZ = z.getVersion();
+      for (int i = 0; i < Curve.LUT_SIZE; i++) {
+        float t = (float) i / (Curve.LUT_SIZE - 1);
+        table[i * 3] = x.getExactValue(t);
+        table[i * 3 + 1] = y.getExactValue(t);
+        table[i * 3 + 2] = z.getExactValue(t);
+      }
+    }
+  }
 }